@@ -0,0 +1,73 @@
+import java.util.Locale;
+
+// Minimal micro-benchmark runner: runs an operation for a warmup period so
+// the JIT settles, then for a measurement period split into iterations, and
+// reports the mean time per operation and the spread over the iterations.
+// Results of the operations are folded into a sink that is printed at the
+// end, so that the JIT can't drop them as dead code.
+public class BenchmarkHarness {
+
+	// an operation to measure; returns something that depends on its work
+	public interface Operation {
+		Object run() throws Exception;
+	}
+
+	private final long warmupMillis;
+
+	private final long iterationMillis;
+
+	private final int iterations;
+
+	private long sink = 0;
+
+	public BenchmarkHarness(long warmupMillis, long iterationMillis, int iterations) {
+		this.warmupMillis = warmupMillis;
+		this.iterationMillis = iterationMillis;
+		this.iterations = iterations;
+	}
+
+	// measure operation and print a result line labeled name
+	public void measure(String name, Operation operation) throws Exception {
+		runFor(operation, warmupMillis * 1000000L);
+		double[] nanosPerOperation = new double[iterations];
+		for (int i = 0; i < iterations; i++)
+			nanosPerOperation[i] = runFor(operation, iterationMillis * 1000000L);
+		double mean = 0;
+		for (double each : nanosPerOperation)
+			mean += each;
+		mean /= iterations;
+		double variance = 0;
+		for (double each : nanosPerOperation)
+			variance += (each - mean) * (each - mean);
+		double deviation = (iterations > 1) ? Math.sqrt(variance / (iterations - 1)) : 0;
+		System.out.println(String.format(Locale.ROOT, "%-40s %14.3f us/op  +- %10.3f", name, mean / 1000,
+				deviation / 1000));
+	}
+
+	// run operation repeatedly for about nanos; returns nanoseconds per
+	// operation. The clock is read once per round of operations so that
+	// reading it doesn't dominate fast operations.
+	private double runFor(Operation operation, long nanos) throws Exception {
+		long operations = 0;
+		int round = 1;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i = 0; i < round; i++) {
+				Object result = operation.run();
+				sink += (result == null) ? 1 : result.hashCode();
+			}
+			operations += round;
+			if (round < 1024)
+				round *= 2;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < nanos);
+		return (double) elapsed / operations;
+	}
+
+	// print the sink; call once all benchmarks have run
+	public void finish() {
+		System.out.println("(sink " + sink + ")");
+	}
+
+}
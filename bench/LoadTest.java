@@ -0,0 +1,26 @@
+// Latency of a ConcurrentSocialNetwork under a mixed read/write load: builds
+// a network with SocialGraphGenerator, then replays a trace against it at a
+// target rate with TraceReplayer. Run with
+//   mvn -P benchmark package
+//   java -cp target/SocialNetwork-*-benchmarks.jar LoadTest \
+//       [members [operations/s [seconds [threads]]]]
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		int members = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		double rate = (args.length > 1) ? Double.parseDouble(args[1]) : 50000;
+		int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		ConcurrentSocialNetwork sn = new ConcurrentSocialNetwork();
+		long start = System.nanoTime();
+		Account[] accounts = new SocialGraphGenerator().members(members).seed(2016).load(sn);
+		System.out.println(members + " members, built in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		TraceReplayer replayer = new TraceReplayer(sn, accounts);
+		// warm up at the same rate for a fifth of the time, then measure
+		replayer.seed(1).replay((int) (rate * seconds / 5), rate, threads);
+		System.out.println(replayer.seed(2).replay((int) (rate * seconds), rate, threads));
+	}
+
+}
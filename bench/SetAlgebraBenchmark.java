@@ -0,0 +1,104 @@
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+// Common-friend counting and set difference between two large relations,
+// on HashSet<String>, IntSet hash tables and IntSet bitmaps
+// (RelationStorage.BITMAP). Every variant does the same work: counting
+// walks the smaller set without building the intersection, and the
+// difference copies one set and removes the other from the copy. Run with
+//   mvn -P benchmark package
+//   java -cp target/SocialNetwork-*-benchmarks.jar SetAlgebraBenchmark [size ...]
+// where each size is the number of friends of both members. Their user ids
+// are drawn from ten times as many ids (dense: the bitmaps fill whole
+// words) and from a thousand times as many (scattered: a few ids per
+// bitmap container).
+public class SetAlgebraBenchmark {
+
+	private static final int[] DEFAULT_SIZES = { 1000, 100000, 1000000 };
+
+	private final Set<String> oneNames = new HashSet<String>();
+	private final Set<String> otherNames = new HashSet<String>();
+
+	private final IntSet oneTable = new IntSet(RelationStorage.HASH);
+	private final IntSet otherTable = new IntSet(RelationStorage.HASH);
+
+	private final IntSet oneBitmap = new IntSet(RelationStorage.BITMAP);
+	private final IntSet otherBitmap = new IntSet(RelationStorage.BITMAP);
+
+	// two members with size friends each, whose ids are drawn from spread
+	// times as many ids
+	SetAlgebraBenchmark(int size, int spread) {
+		Random random = new Random(2016);
+		fill(random, size, spread, oneNames, oneTable, oneBitmap);
+		fill(random, size, spread, otherNames, otherTable, otherBitmap);
+	}
+
+	private static void fill(Random random, int size, int spread, Set<String> names, IntSet table, IntSet bitmap) {
+		while (names.size() < size) {
+			int id = random.nextInt(size * spread);
+			names.add("user" + id);
+			table.add(id);
+			bitmap.add(id);
+		}
+	}
+
+	Object namesIntersectionSize() {
+		int count = 0;
+		for (String each : oneNames) {
+			if (otherNames.contains(each))
+				count++;
+		}
+		return count;
+	}
+
+	Object tableIntersectionSize() {
+		return IntSet.intersectionSize(oneTable, otherTable);
+	}
+
+	Object bitmapIntersectionSize() {
+		return IntSet.intersectionSize(oneBitmap, otherBitmap);
+	}
+
+	Object namesDifference() {
+		Set<String> difference = new HashSet<String>(oneNames);
+		difference.removeAll(otherNames);
+		return difference.size();
+	}
+
+	Object tableDifference() {
+		IntSet difference = new IntSet(oneTable);
+		difference.removeAll(otherTable);
+		return difference.size();
+	}
+
+	Object bitmapDifference() {
+		IntSet difference = new IntSet(oneBitmap);
+		difference.removeAll(otherBitmap);
+		return difference.size();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		BenchmarkHarness harness = new BenchmarkHarness(1000, 1000, 5);
+		for (int size : sizes) {
+			for (int spread : new int[] { 10, 1000 }) {
+				final SetAlgebraBenchmark b = new SetAlgebraBenchmark(size, spread);
+				System.out.println(size + " friends each, " + (spread == 10 ? "dense" : "scattered") + " ids");
+				harness.measure("intersection size, HashSet<String>", b::namesIntersectionSize);
+				harness.measure("intersection size, IntSet hash", b::tableIntersectionSize);
+				harness.measure("intersection size, IntSet bitmap", b::bitmapIntersectionSize);
+				harness.measure("difference, HashSet<String>", b::namesDifference);
+				harness.measure("difference, IntSet hash", b::tableDifference);
+				harness.measure("difference, IntSet bitmap", b::bitmapDifference);
+			}
+		}
+		harness.finish();
+	}
+
+}
@@ -0,0 +1,202 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Hot paths of SocialNetwork over power-law graphs of 10^3 to 10^7 members,
+// built by SocialGraphGenerator.
+// Build and run with
+//   mvn -P benchmark package
+//   java -Xmx16g -jar target/SocialNetwork-*-benchmarks.jar [members ...]
+// e.g. with arguments 1000 100000 to measure only those graph sizes. The 10^7
+// member graph needs a heap of several GB.
+//
+// Operations that would change the graph a little more on every call are
+// measured together with their inverse (send + reject, accept + cancel,
+// block + unblock, leave + rejoin and befriend again), so that every call
+// sees the same graph. Pairs are picked among distinct members with no
+// relation to each other, for which each inverse restores the pair exactly.
+//
+// The network caches no recommendations, so that recommendFriends measures
+// computing them; hits of a RecommendationCache as the network would fill
+// it are measured separately.
+public class SocialNetworkBenchmark {
+
+	private static final int[] DEFAULT_SIZES = { 1000, 10000, 100000, 1000000, 10000000 };
+
+	// friends each member makes on joining; members end up with about twice
+	// as many on average
+	private static final int FRIENDS_PER_JOIN = 5;
+
+	private final SocialNetwork sn = new SocialNetwork(RelationStorage.HASH, 0);
+
+	// recommendations of the first members, at most as many as the network
+	// would cache
+	private final RecommendationCache recommendations = new RecommendationCache(
+			SocialGraph.RECOMMENDATION_CACHE_SIZE);
+
+	private final int cached;
+
+	private final Account[] accounts;
+
+	// index in accounts by user name
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+	private final int users;
+
+	// xorshift state picking members; cheaper than Random in the measured code
+	private long pick = 42;
+
+	private int joined = 0;
+
+	SocialNetworkBenchmark(int users) {
+		this.users = users;
+		this.accounts = new SocialGraphGenerator().members(users).friendsPerJoin(FRIENDS_PER_JOIN).seed(2016)
+				.load(sn);
+		for (int i = 0; i < accounts.length; i++)
+			indexes.put(accounts[i].getUserName(), i);
+		this.cached = Math.min(users, SocialGraph.RECOMMENDATION_CACHE_SIZE);
+		try {
+			for (int i = 0; i < cached; i++) {
+				sn.login(accounts[i]);
+				recommendations.put(accounts[i].getUserName(), sn.recommendFriends(), recommendations.generation());
+			}
+		} catch (NoUserLoggedInException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int randomIndex() {
+		pick ^= pick << 13;
+		pick ^= pick >>> 7;
+		pick ^= pick << 17;
+		return (int) ((pick >>> 1) % users);
+	}
+
+	private Account randomMember() {
+		return accounts[randomIndex()];
+	}
+
+	// two distinct random members with no relation to each other
+	private Account[] unrelatedPair() {
+		while (true) {
+			Account one = randomMember();
+			Account other = randomMember();
+			if ((one != other) && unrelated(one, other))
+				return new Account[] { one, other };
+		}
+	}
+
+	// relations are mirrored, so one side tells
+	private static boolean unrelated(Account one, Account other) {
+		for (AccountRelation relation : AccountRelation.values()) {
+			if (relation.of(one).contains(other.getUserName()))
+				return false;
+		}
+		return true;
+	}
+
+	Object join() {
+		return sn.join("joiner" + joined++);
+	}
+
+	// request, then reject again (or cancel, if accepted automatically)
+	Object sendFriendshipTo() throws NoUserLoggedInException {
+		Account[] pair = unrelatedPair();
+		sn.login(pair[0]);
+		sn.sendFriendshipTo(pair[1].getUserName());
+		sn.login(pair[1]);
+		if (pair[1].hasFriend(pair[0].getUserName()))
+			sn.sendFriendshipCancellationTo(pair[0].getUserName());
+		else
+			sn.rejectFriendshipFrom(pair[0].getUserName());
+		return null;
+	}
+
+	// request, accept, then cancel again
+	Object acceptFriendshipFrom() throws NoUserLoggedInException {
+		Account[] pair = unrelatedPair();
+		Account from = pair[0];
+		Account to = pair[1];
+		sn.login(from);
+		sn.sendFriendshipTo(to.getUserName());
+		sn.login(to);
+		sn.acceptFriendshipFrom(from.getUserName());
+		sn.sendFriendshipCancellationTo(from.getUserName());
+		return null;
+	}
+
+	// block, then unblock again
+	Object block() throws NoUserLoggedInException {
+		Account[] pair = unrelatedPair();
+		Account blocked = pair[1];
+		sn.login(pair[0]);
+		sn.block(blocked.getUserName());
+		sn.unblock(blocked.getUserName());
+		return null;
+	}
+
+	// list and walk all members visible to a random member
+	Object listMembers() throws NoUserLoggedInException {
+		sn.login(randomMember());
+		int hash = 0;
+		for (Iterator<String> each = sn.listMembers().iterator(); each.hasNext();)
+			hash += each.next().hashCode();
+		return hash;
+	}
+
+	// computed afresh on every call
+	Object recommendFriends() throws NoUserLoggedInException {
+		sn.login(randomMember());
+		return sn.recommendFriends();
+	}
+
+	// a hit for one of the cached members
+	Object cachedRecommendations() {
+		return recommendations.get(accounts[randomIndex() % cached].getUserName());
+	}
+
+	// a random member leaves, joins again under the same name and befriends
+	// its friends again; its pending requests and blocks are not restored,
+	// and there are few of them
+	Object leave() throws NoUserLoggedInException {
+		int index = randomIndex();
+		List<String> friends = new ArrayList<String>(accounts[index].getFriends());
+		sn.login(accounts[index]);
+		sn.leave();
+		accounts[index] = sn.join(accounts[index].getUserName());
+		for (String each : friends) {
+			sn.login(accounts[index]);
+			sn.sendFriendshipTo(each);
+			sn.login(accounts[indexes.get(each)]);
+			sn.acceptFriendshipFrom(accounts[index].getUserName());
+		}
+		return null;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		BenchmarkHarness harness = new BenchmarkHarness(2000, 1000, 5);
+		for (int users : sizes) {
+			long start = System.nanoTime();
+			final SocialNetworkBenchmark b = new SocialNetworkBenchmark(users);
+			System.out.println(users + " members, built in " + (System.nanoTime() - start) / 1000000 + " ms");
+			harness.measure("sendFriendshipTo (+ reject)", b::sendFriendshipTo);
+			harness.measure("acceptFriendshipFrom (+ send, cancel)", b::acceptFriendshipFrom);
+			harness.measure("block (+ unblock)", b::block);
+			harness.measure("recommendFriends (uncached)", b::recommendFriends);
+			harness.measure("recommendFriends (cache hit)", b::cachedRecommendations);
+			harness.measure("listMembers (walk all)", b::listMembers);
+			harness.measure("leave (+ rejoin, befriend again)", b::leave);
+			harness.measure("join", b::join);
+		}
+		harness.finish();
+	}
+
+}
@@ -1,5 +1,8 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 public class Account {
@@ -7,27 +10,162 @@ public class Account {
 	// the unique user name of account owner
 	private String userName;
 
+	// interner shared by the accounts of one social network; relations below
+	// hold the interned ids of the other members
+	private final UserNameInterner names;
+
+	// interned id of userName
+	private final int id;
+
 	// list of members who are awaiting an acceptance response from this
 	// account's owner
-	private Set<String> incomingRequests = new HashSet<String>();
+	private final IntSet incomingRequestIds;
 
 	// list of members whom this account owner wants to be friends with
-	private Set<String> outGoingRequests = new HashSet<String>();
+	private final IntSet outGoingRequestIds;
 
 	// list of members who are friends of this account's owner
-	private Set<String> friends = new HashSet<String>();
+	private final IntSet friendIds;
 
 	// AutoAccept friendships switch
 	private boolean autoAccept = false;
 
 	// List of members who blocked this Account Owner
-	private Collection<String> blockedBy = new HashSet<String>();
+	private final IntSet blockedByIds;
+
+	// List of members blocked by this Account Owner
+	private final IntSet blockedUserIds;
+
+	// String views over the id sets above
+	private Set<String> incomingRequests;
+	private Set<String> outGoingRequests;
+	private Set<String> friends;
+	private Collection<String> blockedBy;
+	private Collection<String> blockedUsers;
+
+	// history slot of the auto-accept switch; relations use their ordinals
+	private static final int AUTO_ACCEPT = AccountRelation.values().length;
+
+	// versions of the network's graph pinned by readers, or null if this
+	// account's relations are not versioned
+	private final GraphVersions versions;
+
+	// epoch this account was created in
+	private final long createdIn;
+
+	// counts of the network's relations, kept up to date as this account's
+	// change, or null
+	private final RelationCounts counts;
+
+	// cached recommendations to invalidate as this account's friendships and
+	// blocks change, or null
+	private final RecommendationCache recommendations;
+
+	// per relation and for the auto-accept switch: the epoch of the last
+	// change, and the older states pinned versions may still read, newest
+	// first. Guarded like the relations themselves.
+	private final long[] changedIn = new long[AUTO_ACCEPT + 1];
+	private final OldVersion[] history = new OldVersion[AUTO_ACCEPT + 1];
 
-	// List of members who blocked this Account Owner
-	private Collection<String> blockedUsers = new HashSet<String>();
-	
 	public Account(String userName) {
+		this(userName, new UserNameInterner());
+	}
+
+	// create an account whose relations are interned through names; accounts
+	// of the same social network should share one interner
+	public Account(String userName, UserNameInterner names) {
+		this(userName, names, RelationStorage.HASH);
+	}
+
+	// account whose relations are kept in the given storage
+	public Account(String userName, UserNameInterner names, RelationStorage storage) {
+		this(userName, names, storage, null);
+	}
+
+	// account whose relations keep the states that versions pinned by
+	// readers of the network still see
+	public Account(String userName, UserNameInterner names, RelationStorage storage, GraphVersions versions) {
+		this(userName, names, storage, versions, null);
+	}
+
+	// account that also counts the changes of its relations in counts, e.g.
+	// the network's
+	public Account(String userName, UserNameInterner names, RelationStorage storage, GraphVersions versions,
+			RelationCounts counts) {
+		this(userName, names, storage, versions, counts, null);
+	}
+
+	// account that also invalidates the recommendations its changes may
+	// alter in recommendations, e.g. the network's
+	public Account(String userName, UserNameInterner names, RelationStorage storage, GraphVersions versions,
+			RelationCounts counts, RecommendationCache recommendations) {
 		this.userName = userName;
+		this.names = names;
+		this.id = names.intern(userName);
+		this.versions = versions;
+		this.counts = counts;
+		this.recommendations = recommendations;
+		this.createdIn = (versions == null) ? 0 : versions.epoch();
+		Arrays.fill(changedIn, createdIn);
+		this.incomingRequestIds = new IntSet(storage);
+		this.outGoingRequestIds = new IntSet(storage);
+		this.friendIds = new IntSet(storage);
+		this.blockedByIds = new IntSet(storage);
+		this.blockedUserIds = new IntSet(storage);
+		this.incomingRequests = view(incomingRequestIds, AccountRelation.INCOMING_REQUESTS);
+		this.outGoingRequests = view(outGoingRequestIds, AccountRelation.OUTGOING_REQUESTS);
+		this.friends = view(friendIds, AccountRelation.FRIENDS);
+		this.blockedBy = view(blockedByIds, AccountRelation.BLOCKED_BY);
+		this.blockedUsers = view(blockedUserIds, AccountRelation.BLOCKED_USERS);
+	}
+
+	// live view of relation, preserving its old state before changes if
+	// versioned, and counting its changes if counted
+	private InternedNameSet view(IntSet ids, final AccountRelation relation) {
+		if ((versions == null) && (counts == null))
+			return new InternedNameSet(ids, names);
+		return new InternedNameSet(ids, names, () -> beforeChange(relation.ordinal()),
+				(counts == null) ? null : delta -> counts.changed(relation, delta));
+	}
+
+	// add id to relation, counting the change
+	private void addId(AccountRelation relation, int id) {
+		if (idsOf(relation).add(id) && (counts != null))
+			counts.changed(relation, 1);
+	}
+
+	// remove id from relation, counting the change
+	private void removeId(AccountRelation relation, int id) {
+		if (idsOf(relation).remove(id) && (counts != null))
+			counts.changed(relation, -1);
+	}
+
+	// a friendship between this account's owner and other's began or ended:
+	// it is within two hops of both and of their friends. Friends of other
+	// are left out if other left the network: each of them is invalidated
+	// as its own friendship with other ends.
+	private void friendshipChanged(Account other, boolean otherLeft) {
+		if (recommendations == null)
+			return;
+		Collection<String> affected = new ArrayList<String>(friends.size() + 2);
+		affected.add(userName);
+		affected.add(other.userName);
+		affected.addAll(friends);
+		if (!otherLeft)
+			affected.addAll(other.friends);
+		recommendations.invalidateAll(affected);
+	}
+
+	// a block between this account's owner and member userName began or
+	// ended: neither is recommended to the other while it lasts
+	private void blockChanged(String userName) {
+		if (recommendations != null)
+			recommendations.invalidateAll(Arrays.asList(this.userName, userName));
+	}
+
+	// id of another member's account in this account's interner
+	private int idOf(Account other) {
+		return (other.names == names) ? other.id : names.intern(other.userName);
 	}
 
 	public String getUserName() {
@@ -44,9 +182,11 @@ public class Account {
 	// an incoming friend request to this account's owner from another member
 	// account
 	public void requestFriendship(Account fromAccount) {
-		if ((fromAccount != null) && !friends.contains(fromAccount.getUserName())) {
-			incomingRequests.add(fromAccount.getUserName());
-			fromAccount.outGoingRequests.add(this.getUserName());
+		if ((fromAccount != null) && !friendIds.contains(idOf(fromAccount))) {
+			beforeChange(AccountRelation.INCOMING_REQUESTS.ordinal());
+			addId(AccountRelation.INCOMING_REQUESTS, idOf(fromAccount));
+			fromAccount.beforeChange(AccountRelation.OUTGOING_REQUESTS.ordinal());
+			fromAccount.addId(AccountRelation.OUTGOING_REQUESTS, fromAccount.idOf(this));
 			if (autoAccept) {
 				fromAccount.friendshipAccepted(this);
 			}
@@ -58,14 +198,36 @@ public class Account {
 		return friends.contains(userName);
 	}
 
+	// user names of the friends this account's owner and other's have in
+	// common; in the order they were interned if both accounts share an
+	// interner
+	public List<String> getCommonFriends(Account other) {
+		List<String> common = new ArrayList<String>();
+		if (other.names == names) {
+			for (int each : IntSet.intersection(friendIds, other.friendIds))
+				common.add(names.nameOf(each));
+			return common;
+		}
+		for (String each : other.friends) {
+			if (friends.contains(each))
+				common.add(each);
+		}
+		return common;
+	}
+
 	// receive an acceptance to a friend request from this account owner
 	public void friendshipAccepted(Account toAccount) {
-		if (outGoingRequests.contains(toAccount.getUserName())
-				&& toAccount.getIncomingRequests().contains(this.getUserName())) {
-			friends.add(toAccount.getUserName());
-			outGoingRequests.remove(toAccount.getUserName());
-			toAccount.friends.add(this.getUserName());
-			toAccount.incomingRequests.remove(this.getUserName());
+		if (outGoingRequestIds.contains(idOf(toAccount))
+				&& toAccount.incomingRequestIds.contains(toAccount.idOf(this))) {
+			beforeChange(AccountRelation.FRIENDS.ordinal());
+			beforeChange(AccountRelation.OUTGOING_REQUESTS.ordinal());
+			toAccount.beforeChange(AccountRelation.FRIENDS.ordinal());
+			toAccount.beforeChange(AccountRelation.INCOMING_REQUESTS.ordinal());
+			addId(AccountRelation.FRIENDS, idOf(toAccount));
+			removeId(AccountRelation.OUTGOING_REQUESTS, idOf(toAccount));
+			toAccount.addId(AccountRelation.FRIENDS, toAccount.idOf(this));
+			toAccount.removeId(AccountRelation.INCOMING_REQUESTS, toAccount.idOf(this));
+			friendshipChanged(toAccount, false);
 		}
 	}
 
@@ -81,26 +243,49 @@ public class Account {
 
 	// receive a rejection to a friend request from this account owner
 	public void friendshipRejected(Account toAccount) {
-		outGoingRequests.remove(toAccount.getUserName());
-		toAccount.incomingRequests.remove(this.getUserName());
+		beforeChange(AccountRelation.OUTGOING_REQUESTS.ordinal());
+		toAccount.beforeChange(AccountRelation.INCOMING_REQUESTS.ordinal());
+		removeId(AccountRelation.OUTGOING_REQUESTS, idOf(toAccount));
+		toAccount.removeId(AccountRelation.INCOMING_REQUESTS, toAccount.idOf(this));
 	}
 
 	// enable auto-accept friend requests
 	public void autoAcceptFriendships() {
+		beforeChange(AUTO_ACCEPT);
 		autoAccept = true;
 	}
 
 	// an incoming cancel friendship request to this account owner from another
 	// member
 	public void cancelFriendship(Account fromAccount) {
-		this.friends.remove(fromAccount.getUserName());
-		fromAccount.friends.remove(this.userName);
+		cancelFriendship(fromAccount, false);
+	}
+
+	// the friendship with fromAccount's owner, who left the network, ends
+	void friendLeft(Account fromAccount) {
+		cancelFriendship(fromAccount, true);
+	}
+
+	private void cancelFriendship(Account fromAccount, boolean left) {
+		boolean wereFriends = friendIds.contains(idOf(fromAccount));
+		beforeChange(AccountRelation.FRIENDS.ordinal());
+		fromAccount.beforeChange(AccountRelation.FRIENDS.ordinal());
+		removeId(AccountRelation.FRIENDS, idOf(fromAccount));
+		fromAccount.removeId(AccountRelation.FRIENDS, fromAccount.idOf(this));
+		if (wereFriends)
+			friendshipChanged(fromAccount, left);
+	}
+
+	// true if friend requests to this account's owner are accepted
+	// automatically
+	public boolean autoAcceptsFriendships() {
+		return autoAccept;
 	}
 
 	// disable auto-accept friend requests
 	public void cancelAutoAcceptFriendships() {
+		beforeChange(AUTO_ACCEPT);
 		autoAccept = false;
-
 	}
 
 	// returns the list of users who blocked this account owner
@@ -110,12 +295,14 @@ public class Account {
 
 	// add member to the list of users who blocked this account owner
 	public void addBlockedBy(String userName) {
-		this.blockedBy.add(userName);
+		if (this.blockedBy.add(userName))
+			blockChanged(userName);
 	}
 
 	// remove member from the list of users who blocked this account owner
 	public void removeBlockedBy(String userName) {
-		this.blockedBy.remove(userName);
+		if (this.blockedBy.remove(userName))
+			blockChanged(userName);
 	}
 
 	public Collection<String> getBlockedUsers() {
@@ -123,7 +310,130 @@ public class Account {
 	}
 
 	public void addBlockedUser(String blockedUser) {
-		this.blockedUsers.add(blockedUser);
+		if (this.blockedUsers.add(blockedUser))
+			blockChanged(blockedUser);
+	}
+
+	public void removeBlockedUser(String blockedUser) {
+		if (this.blockedUsers.remove(blockedUser))
+			blockChanged(blockedUser);
+	}
+
+	// the next (at most) max members this account has relation with, after
+	// the member named cursor: pass null to start, then the last name
+	// returned, until the chunk is empty. Lets bulk operations on high-degree
+	// accounts go through a relation in bounded steps, without copying it
+	// whole; members added or removed meanwhile may or may not be returned.
+	public List<String> relationChunk(AccountRelation relation, String cursor, int max) {
+		int[] ids = idsOf(relation).chunkAfter((cursor == null) ? -1 : names.idOf(cursor), max);
+		List<String> chunk = new ArrayList<String>(ids.length);
+		for (int each : ids)
+			chunk.add(names.nameOf(each));
+		return chunk;
+	}
+
+	private IntSet idsOf(AccountRelation relation) {
+		switch (relation) {
+		case FRIENDS:
+			return friendIds;
+		case INCOMING_REQUESTS:
+			return incomingRequestIds;
+		case OUTGOING_REQUESTS:
+			return outGoingRequestIds;
+		case BLOCKED_BY:
+			return blockedByIds;
+		case BLOCKED_USERS:
+			return blockedUserIds;
+		default:
+			throw new IllegalArgumentException("unknown relation " + relation);
+		}
+	}
+
+	// about to change the relation or switch in slot: if a pinned version
+	// still sees its current state, keep a frozen copy of that state first.
+	// The copy of a high-degree relation shares its blocks with the live one,
+	// so the first change after a pin costs O(degree / IntSet.BLOCK_SIZE)
+	private void beforeChange(int slot) {
+		if (versions == null)
+			return;
+		long epoch = versions.epoch();
+		if (changedIn[slot] == epoch)
+			return;
+		if (versions.isPinnedAfter(changedIn[slot])) {
+			IntSet ids = (slot == AUTO_ACCEPT) ? null : idsOf(AccountRelation.values()[slot]).frozenCopy();
+			history[slot] = new OldVersion(changedIn[slot], ids, autoAccept, history[slot]);
+			versions.retain(this);
+		}
+		changedIn[slot] = epoch;
+	}
+
+	// true if this account was created before the version pinned at epoch
+	// version
+	boolean existedAt(long version) {
+		return createdIn < version;
+	}
+
+	// the user names this account had relation with in the version pinned at
+	// epoch version, as an unmodifiable set; a frozen copy if the relation
+	// has not changed since
+	Set<String> relationAt(AccountRelation relation, long version) {
+		OldVersion old = versionAt(relation.ordinal(), version);
+		IntSet ids = (old == null) ? idsOf(relation).frozenCopy() : old.ids;
+		return Collections.unmodifiableSet(new InternedNameSet(ids, names));
+	}
+
+	// the auto-accept switch in the version pinned at epoch version
+	boolean autoAcceptsFriendshipsAt(long version) {
+		OldVersion old = versionAt(AUTO_ACCEPT, version);
+		return (old == null) ? autoAccept : old.autoAccept;
+	}
+
+	// the old state of slot the version pinned at epoch version sees, or
+	// null if it sees the current state
+	private OldVersion versionAt(int slot, long version) {
+		if (changedIn[slot] < version)
+			return null;
+		for (OldVersion each = history[slot]; each != null; each = each.older) {
+			if (each.changedIn < version)
+				return each;
+		}
+		throw new IllegalStateException("version " + version + " of " + userName + " was reclaimed");
+	}
+
+	// drop the old states no version pinned at oldest or later sees; returns
+	// true if none is left
+	boolean prune(long oldest) {
+		boolean empty = true;
+		for (int slot = 0; slot < history.length; slot++) {
+			if (changedIn[slot] < oldest) {
+				history[slot] = null;
+				continue;
+			}
+			for (OldVersion each = history[slot]; each != null; each = each.older) {
+				if (each.changedIn < oldest) {
+					each.older = null;
+					break;
+				}
+			}
+			empty &= (history[slot] == null);
+		}
+		return empty;
+	}
+
+	// a state of a relation (ids) or of the auto-accept switch from epoch
+	// changedIn until the next change
+	private static class OldVersion {
+		final long changedIn;
+		final IntSet ids;
+		final boolean autoAccept;
+		OldVersion older;
+
+		OldVersion(long changedIn, IntSet ids, boolean autoAccept, OldVersion older) {
+			this.changedIn = changedIn;
+			this.ids = ids;
+			this.autoAccept = autoAccept;
+			this.older = older;
+		}
 	}
 
 }
@@ -0,0 +1,85 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class AccountDirectory {
+
+	// all member accounts of the social network, keyed by their unique user
+	// name; lookups don't lock, so they may run while members join or leave
+	private Map<String, Account> accountsByUserName = new ConcurrentHashMap<String, Account>();
+
+	// user names of members who left but whose relations are still being
+	// unlinked; they can't be taken again until then
+	private Set<String> leaving = ConcurrentHashMap.newKeySet();
+
+	// add a new account; returns false if the user name is already taken
+	public boolean add(Account account) {
+		if (isTaken(account.getUserName()))
+			return false;
+		accountsByUserName.put(account.getUserName(), account);
+		return true;
+	}
+
+	// find the account of member with user name userName, or null if there is
+	// no such member
+	public Account find(String userName) {
+		if (userName == null)
+			return null;
+		return accountsByUserName.get(userName);
+	}
+
+	// check if a member with user name userName has joined
+	public boolean contains(String userName) {
+		return (userName != null) && accountsByUserName.containsKey(userName);
+	}
+
+	// true if userName belongs to a member, or to a member who is still
+	// leaving
+	public boolean isTaken(String userName) {
+		return contains(userName) || leaving.contains(userName);
+	}
+
+	// remove an account from the directory
+	public void remove(Account account) {
+		accountsByUserName.remove(account.getUserName());
+	}
+
+	// remove an account from the directory but keep its user name from being
+	// taken until released. Interned ids outlive accounts, so a new member
+	// with the name would share the leaving member's id, and unlinking the
+	// leaving member's relations would end the new member's.
+	public void removeLeaving(Account account) {
+		leaving.add(account.getUserName());
+		accountsByUserName.remove(account.getUserName());
+	}
+
+	// the relations of the member who left with user name userName are
+	// unlinked: the name may be taken again
+	public void released(String userName) {
+		leaving.remove(userName);
+	}
+
+	// user names of the members still leaving, as a copy
+	public Set<String> leaving() {
+		return new HashSet<String>(leaving);
+	}
+
+	// number of members in the directory
+	public int size() {
+		return accountsByUserName.size();
+	}
+
+	// read-only view of the user names of all members
+	public Set<String> userNames() {
+		return Collections.unmodifiableSet(accountsByUserName.keySet());
+	}
+
+	// read-only view of all member accounts
+	public Collection<Account> accounts() {
+		return Collections.unmodifiableCollection(accountsByUserName.values());
+	}
+
+}
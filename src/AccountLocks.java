@@ -0,0 +1,57 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+// Striped locks guarding the relations of member accounts. An account is
+// guarded by the stripe its user name hashes to. Changes that involve two
+// accounts lock both stripes, always in stripe order, so that two members
+// acting on each other at the same time (A accepts B while B cancels A) can
+// not deadlock. Unrelated pairs mostly hit different stripes and proceed in
+// parallel.
+public class AccountLocks {
+
+	private final ReentrantLock[] stripes;
+
+	// create at least the given number of stripes (rounded up to a power of
+	// two)
+	public AccountLocks(int stripeCount) {
+		int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) * 2;
+		stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++)
+			stripes[i] = new ReentrantLock();
+	}
+
+	// stripes for four times the number of available processors
+	public AccountLocks() {
+		this(4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public void lock(Account account) {
+		stripes[stripeOf(account)].lock();
+	}
+
+	public void unlock(Account account) {
+		stripes[stripeOf(account)].unlock();
+	}
+
+	// lock the stripes of both accounts, lower stripe first
+	public void lockPair(Account one, Account other) {
+		int first = stripeOf(one);
+		int second = stripeOf(other);
+		stripes[Math.min(first, second)].lock();
+		if (first != second)
+			stripes[Math.max(first, second)].lock();
+	}
+
+	public void unlockPair(Account one, Account other) {
+		int first = stripeOf(one);
+		int second = stripeOf(other);
+		if (first != second)
+			stripes[Math.max(first, second)].unlock();
+		stripes[Math.min(first, second)].unlock();
+	}
+
+	private int stripeOf(Account account) {
+		int h = account.getUserName().hashCode();
+		return (h ^ (h >>> 16)) & (stripes.length - 1);
+	}
+
+}
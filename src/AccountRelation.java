@@ -0,0 +1,35 @@
+import java.util.Collection;
+
+// The relations an Account keeps to other members.
+public enum AccountRelation {
+
+	FRIENDS {
+		public Collection<String> of(Account account) {
+			return account.getFriends();
+		}
+	},
+	INCOMING_REQUESTS {
+		public Collection<String> of(Account account) {
+			return account.getIncomingRequests();
+		}
+	},
+	OUTGOING_REQUESTS {
+		public Collection<String> of(Account account) {
+			return account.getOutgoingRequests();
+		}
+	},
+	BLOCKED_BY {
+		public Collection<String> of(Account account) {
+			return account.getBlockedBy();
+		}
+	},
+	BLOCKED_USERS {
+		public Collection<String> of(Account account) {
+			return account.getBlockedUsers();
+		}
+	};
+
+	// the (live) user names account has this relation with
+	public abstract Collection<String> of(Account account);
+
+}
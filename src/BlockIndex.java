@@ -0,0 +1,142 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Who blocked whom in a social network, as one set of (blocker, blocked)
+// pairs of interned user ids, for O(1) visibility checks: member viewer can
+// see member target unless target blocked viewer.
+//
+// Few pairs of members are blocked, so checks are answered by a Bloom filter
+// in front of the exact pair set. Most checks see a clear filter bit and are
+// done after reading two words, without locking, hashing a user name or
+// boxing a key. Checks are lock-free and may run concurrently with changes;
+// changes are serialized.
+public class BlockIndex {
+
+	private static final int MIN_FILTER_BITS = 1 << 16;
+
+	// filter bits per pair before the filter is rebuilt at double size; with
+	// two bits set per pair, about 5% of the checks of unblocked pairs reach
+	// the exact set
+	private static final int BITS_PER_PAIR = 8;
+
+	private final UserNameInterner names;
+
+	private final Set<Long> pairs = ConcurrentHashMap.newKeySet();
+
+	// ids of the users who blocked a user, by the id of that user
+	private final Map<Integer, Set<Integer>> blockers = new ConcurrentHashMap<Integer, Set<Integer>>();
+
+	// replaced, never cleared: a rebuild publishes a new filter
+	private volatile AtomicLongArray filter = new AtomicLongArray(MIN_FILTER_BITS / 64);
+
+	// pairs removed since the last rebuild; their bits are still set
+	private int staleBits = 0;
+
+	public BlockIndex(UserNameInterner names) {
+		this.names = names;
+	}
+
+	private static long pair(int blocker, int blocked) {
+		return ((long) blocker << 32) | (blocked & 0xffffffffL);
+	}
+
+	// 64-bit finalizer of MurmurHash3; its halves pick the two filter bits
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	public boolean isBlocked(int blocker, int blocked) {
+		if ((blocker < 0) || (blocked < 0))
+			return false;
+		long key = pair(blocker, blocked);
+		long hash = mix(key);
+		AtomicLongArray bits = filter;
+		int mask = bits.length() * 64 - 1;
+		if (!isSet(bits, (int) hash & mask) || !isSet(bits, (int) (hash >>> 32) & mask))
+			return false;
+		return pairs.contains(key);
+	}
+
+	// true if user blocker has blocked user blocked
+	public boolean isBlocked(String blocker, String blocked) {
+		return isBlocked(names.idOf(blocker), names.idOf(blocked));
+	}
+
+	// true unless target has blocked viewer
+	public boolean isVisible(int viewer, int target) {
+		return !isBlocked(target, viewer);
+	}
+
+	public boolean isVisible(String viewer, String target) {
+		return !isBlocked(target, viewer);
+	}
+
+	// ids of the users who blocked user blocked; a live view
+	public Set<Integer> blockersOf(int blocked) {
+		Set<Integer> found = blockers.get(blocked);
+		return (found == null) ? Collections.<Integer> emptySet() : Collections.unmodifiableSet(found);
+	}
+
+	// number of blocked pairs
+	public int size() {
+		return pairs.size();
+	}
+
+	synchronized void block(int blocker, int blocked) {
+		long key = pair(blocker, blocked);
+		if (!pairs.add(key))
+			return;
+		blockers.computeIfAbsent(blocked, id -> ConcurrentHashMap.newKeySet()).add(blocker);
+		if ((long) pairs.size() * BITS_PER_PAIR > filter.length() * 64L)
+			rebuild(filter.length() * 2);
+		else
+			setBits(filter, key);
+	}
+
+	synchronized void unblock(int blocker, int blocked) {
+		if (!pairs.remove(pair(blocker, blocked)))
+			return;
+		Set<Integer> found = blockers.get(blocked);
+		found.remove(blocker);
+		if (found.isEmpty())
+			blockers.remove(blocked);
+		// rebuild once stale bits outnumber live pairs, to keep them from
+		// filling the filter
+		if (++staleBits > Math.max(pairs.size(), MIN_FILTER_BITS / BITS_PER_PAIR))
+			rebuild(filter.length());
+	}
+
+	// rebuild the filter with the given number of words from the exact pairs
+	private void rebuild(int words) {
+		AtomicLongArray bits = new AtomicLongArray(words);
+		for (long each : pairs)
+			setBits(bits, each);
+		filter = bits;
+		staleBits = 0;
+	}
+
+	private static void setBits(AtomicLongArray bits, long key) {
+		long hash = mix(key);
+		int mask = bits.length() * 64 - 1;
+		setBit(bits, (int) hash & mask);
+		setBit(bits, (int) (hash >>> 32) & mask);
+	}
+
+	private static boolean isSet(AtomicLongArray bits, int bit) {
+		return (bits.get(bit >>> 6) & (1L << bit)) != 0;
+	}
+
+	// only called by the (serialized) changes
+	private static void setBit(AtomicLongArray bits, int bit) {
+		bits.set(bit >>> 6, bits.get(bit >>> 6) | (1L << bit));
+	}
+
+}
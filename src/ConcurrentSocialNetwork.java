@@ -0,0 +1,632 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// A social network that many members can use at the same time. Instead of a
+// single logged-in user, every login returns its own ISocialNetworkSession.
+// Joining and leaving change the membership and take the write lock. All
+// other operations share the read lock, and lock only the accounts they
+// change through striped AccountLocks, so they run in parallel on all cores.
+// Membership queries are served from an immutable MembershipSnapshot and
+// take no shared lock at all.
+//
+// Optionally, friend requests and auto-accept switches are queued in a
+// FriendRequestPipeline and applied off the caller's thread, so that a burst
+// of requests to a popular auto-accepting member doesn't land on the
+// senders' latency. Requests to the same member are applied in the order
+// they were made, and each session waits for its own queued requests before
+// its next operation, so a session still sees its changes in program order.
+public class ConcurrentSocialNetwork {
+
+	private final AccountLocks locks = new AccountLocks();
+
+	private final SocialGraph graph;
+
+	private final SocialNetworkMetrics metrics;
+
+	// guards the membership; held shared by operations on existing members
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// applies queued requests, or null if they are applied by the caller
+	private final FriendRequestPipeline requests;
+
+	public ConcurrentSocialNetwork() {
+		this(RelationStorage.HASH);
+	}
+
+	// network whose accounts keep their relations in storage
+	public ConcurrentSocialNetwork(RelationStorage storage) {
+		this.graph = new SocialGraph(locks, storage);
+		this.metrics = new SocialNetworkMetrics(graph);
+		this.requests = null;
+	}
+
+	// network that queues friend requests and auto-accept switches in
+	// requestLanes lanes of at most queueCapacity requests each, applied in
+	// batches of up to maxBatch requests. Call close when done with it.
+	public ConcurrentSocialNetwork(int requestLanes, int queueCapacity, int maxBatch) {
+		this.graph = new SocialGraph(locks, RelationStorage.HASH);
+		this.metrics = new SocialNetworkMetrics(graph);
+		this.requests = new FriendRequestPipeline(requestLanes, queueCapacity, maxBatch, this::applyQueued);
+	}
+
+	// apply a batch of queued requests under one hold of the read lock; the
+	// listeners are told the batch is settled once the lock is released
+	private void applyQueued(List<Runnable> batch) {
+		lock.readLock().lock();
+		try {
+			for (Runnable each : batch)
+				each.run();
+		} finally {
+			lock.readLock().unlock();
+		}
+		graph.settled();
+	}
+
+	// wait until all queued requests have been applied
+	public void awaitRequests() throws InterruptedException {
+		if (requests != null)
+			requests.awaitIdle();
+	}
+
+	// apply the queued requests and stop the threads applying them; the
+	// network can't queue requests any more
+	public void close() throws InterruptedException {
+		if (requests != null)
+			requests.close();
+	}
+
+	// apply change to member and member userName as one atomic step, holding
+	// the locks of both accounts; the caller holds the read lock. Nothing
+	// happens if either has left the network.
+	private void applyPair(Account member, BiConsumer<Account, String> change, String userName) {
+		Account other = graph.find(userName);
+		if ((other == null) || (graph.find(member.getUserName()) != member))
+			return;
+		locks.lockPair(member, other);
+		try {
+			change.accept(member, userName);
+		} finally {
+			locks.unlockPair(member, other);
+		}
+	}
+
+	// a change between a member and another member it has a relation with
+	private interface AccountChange {
+		void apply(Account member, AccountRelation relation, String userName);
+	}
+
+	// apply change to member and every member it has relation with, taking
+	// bounded steps: each chunk of SocialGraph.BULK_CHUNK members is
+	// applied under one read lock acquisition, each pair under its account
+	// locks, and the locks are released between chunks. Bounds how long a
+	// bulk operation on a high-degree member holds up everyone else.
+	private void forEachChunk(Account member, AccountRelation relation, AccountChange change) {
+		String cursor = null;
+		while (true) {
+			lock.readLock().lock();
+			try {
+				List<String> chunk;
+				locks.lock(member);
+				try {
+					chunk = member.relationChunk(relation, cursor, SocialGraph.BULK_CHUNK);
+				} finally {
+					locks.unlock(member);
+				}
+				if (chunk.isEmpty())
+					return;
+				for (String each : chunk) {
+					Account other = graph.find(each);
+					if (other == null)
+						locks.lock(member);
+					else
+						locks.lockPair(member, other);
+					try {
+						change.apply(member, relation, each);
+					} finally {
+						if (other == null)
+							locks.unlock(member);
+						else
+							locks.unlockPair(member, other);
+					}
+				}
+				cursor = chunk.get(chunk.size() - 1);
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+
+	// apply change to member alone, holding its lock; the caller holds the
+	// read lock
+	private void applyToAccount(Account member, Consumer<Account> change) {
+		if (graph.find(member.getUserName()) != member)
+			return;
+		locks.lock(member);
+		try {
+			change.accept(member);
+		} finally {
+			locks.unlock(member);
+		}
+	}
+
+	// social network with the members and relations of a snapshot, e.g. one
+	// written by saveSnapshot and opened with MappedGraph.open
+	public static ConcurrentSocialNetwork fromSnapshot(MappedGraph snapshot) {
+		ConcurrentSocialNetwork sn = new ConcurrentSocialNetwork();
+		snapshot.restoreInto(sn.graph);
+		return sn;
+	}
+
+	// write all members and relations to a snapshot file, as they were when
+	// it was called; changes go on while the snapshot is written
+	public void saveSnapshot(Path file) throws IOException {
+		try (GraphVersion version = pin()) {
+			MappedGraph.write(version, 0, file);
+		}
+	}
+
+	// saveSnapshot recording the position of log, which this network's
+	// changes are logged to, as of the pinned version; recover by replaying
+	// log from the snapshot's logPosition (see MappedGraph)
+	public void saveSnapshot(Path file, WriteAheadLog log) throws IOException {
+		GraphVersion version;
+		long position;
+		lock.writeLock().lock();
+		try {
+			version = graph.pin(lock.readLock());
+			position = log.position();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		try {
+			log.sync();
+			MappedGraph.write(version, position, file);
+		} finally {
+			version.close();
+		}
+	}
+
+	// pin the current version of the graph for a long-running reader, e.g.
+	// an export; close it when done. Waits for the changes in progress, then
+	// lets changes go on at full speed while the version is read.
+	public GraphVersion pin() {
+		lock.writeLock().lock();
+		try {
+			return graph.pin(lock.readLock());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// the versions pinned by readers of this network, and how many accounts
+	// keep old states for them
+	public GraphVersions versions() {
+		return graph.versions();
+	}
+
+	// operation counts, latencies and graph size of this social network
+	public SocialNetworkMetrics metrics() {
+		return metrics;
+	}
+
+	// join with a new user name; returns null if the name is empty or taken
+	public Account join(String userName) {
+		long start = System.nanoTime();
+		Account account;
+		lock.writeLock().lock();
+		try {
+			account = graph.join(userName);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		graph.settled();
+		metrics.record(NetworkOperation.JOIN, start);
+		return account;
+	}
+
+	// apply a batch of changes made on behalf of any members in one exclusive
+	// pass, e.g. a bulk import
+	public void apply(GraphBatch batch) {
+		long start = System.nanoTime();
+		lock.writeLock().lock();
+		try {
+			graph.apply(batch);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		graph.settled();
+		metrics.record(NetworkOperation.APPLY_BATCH, start);
+	}
+
+	// notify listener of every change made to this social network from now
+	// on. Changes involving the same member are reported in the order they
+	// are made; listeners are called while the changed accounts are locked and
+	// must be thread-safe. They are told the changes are settled once the
+	// locks are released: on the caller's thread, or for queued requests on
+	// the thread applying them.
+	public void addMutationListener(GraphMutationListener listener) {
+		graph.addListener(listener);
+	}
+
+	public void removeMutationListener(GraphMutationListener listener) {
+		graph.removeListener(listener);
+	}
+
+	// start a session for a member; returns null if me is not a member of this
+	// network
+	public ISocialNetworkSession login(Account me) {
+		long start = System.nanoTime();
+		lock.readLock().lock();
+		try {
+			if ((me == null) || (graph.find(me.getUserName()) != me))
+				return null;
+			return new MemberSession(me);
+		} finally {
+			lock.readLock().unlock();
+			metrics.record(NetworkOperation.LOGIN, start);
+		}
+	}
+
+	// List all the members of social network: an unmodifiable set, which
+	// does not change as members join and leave, read without locking
+	public Set<String> listAllMembers() {
+		return graph.listAllMembers();
+	}
+
+	// the current members, as a versioned snapshot that can also be paged
+	public MembershipSnapshot membershipSnapshot() {
+		return graph.members();
+	}
+
+	// recommend friends to every member, as recommendFriends would in a
+	// session of that member, using all cores. Members are handled a chunk at
+	// a time, and each chunk's recommendations go to consumer (user name,
+	// recommended) on the calling thread, with no lock held: consumer may use
+	// the network. Sessions go on meanwhile; joins and leaves wait for at most
+	// the chunk being computed.
+	public void recommendFriendsForAll(BiConsumer<String, Collection<String>> consumer) {
+		recommendFriendsFor(null, consumer);
+	}
+
+	// recommend friends to the members named in userNames, or to all members
+	// if null, as recommendFriendsForAll does; other names are ignored
+	public void recommendFriendsFor(Collection<String> userNames, BiConsumer<String, Collection<String>> consumer) {
+		long start = System.nanoTime();
+		try {
+			graph.recommendFriends(userNames, consumer, lock.readLock());
+		} finally {
+			metrics.record(NetworkOperation.RECOMMEND_ALL_FRIENDS, start);
+		}
+	}
+
+	private class MemberSession implements ISocialNetworkSession {
+
+		private final Account me;
+
+		private volatile boolean loggedIn = true;
+
+		// this session's requests still in the pipeline
+		private int queued = 0;
+
+		MemberSession(Account me) {
+			this.me = me;
+		}
+
+		// queue change in the lane of key; the session's later operations
+		// wait until it is applied. If the caller is interrupted while the lane
+		// is full, the change is not queued: IllegalStateException is thrown,
+		// with the interrupt flag set again.
+		private void enqueue(Object key, final Runnable change) {
+			synchronized (this) {
+				queued++;
+			}
+			try {
+				requests.submit(key, new Runnable() {
+					public void run() {
+						try {
+							change.run();
+						} finally {
+							dequeued();
+						}
+					}
+				});
+			} catch (InterruptedException e) {
+				dequeued();
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted before the request was queued", e);
+			} catch (RuntimeException e) {
+				dequeued();
+				throw e;
+			}
+		}
+
+		private synchronized void dequeued() {
+			if (--queued == 0)
+				notifyAll();
+		}
+
+		// wait until this session's queued requests are applied, even if
+		// interrupted meanwhile: the interrupt flag is set again once they
+		// are. Must be called before taking any lock: the pipeline needs the
+		// read lock.
+		private synchronized void awaitQueued() {
+			boolean interrupted = false;
+			while (queued > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		// the session's account, if it is still logged in and a member
+		private Account account() throws NoUserLoggedInException {
+			if (!loggedIn || (graph.find(me.getUserName()) != me))
+				throw new NoUserLoggedInException("NoUser");
+			return me;
+		}
+
+		// apply change to me and member userName as one atomic step, holding
+		// the locks of both accounts
+		private void changePair(BiConsumer<Account, String> change, String userName)
+				throws NoUserLoggedInException {
+			awaitQueued();
+			lock.readLock().lock();
+			try {
+				applyPair(account(), change, userName);
+			} finally {
+				lock.readLock().unlock();
+			}
+			graph.settled();
+		}
+
+		public String getUserName() {
+			return me.getUserName();
+		}
+
+		public void logout() {
+			long start = System.nanoTime();
+			loggedIn = false;
+			metrics.record(NetworkOperation.LOGOUT, start);
+		}
+
+		// served from the membership snapshot: only the session's own account
+		// is locked, and members who blocked it are filtered out through the
+		// block index
+		public Collection<String> listMembers() throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			Account account = account();
+			locks.lock(account);
+			try {
+				return graph.listMembers(account);
+			} finally {
+				locks.unlock(account);
+				metrics.record(NetworkOperation.LIST_MEMBERS, start);
+			}
+		}
+
+		public MemberPage listMembers(String cursor, int pageSize) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			Account account = account();
+			locks.lock(account);
+			try {
+				return graph.listMembers(account, cursor, pageSize);
+			} finally {
+				locks.unlock(account);
+				metrics.record(NetworkOperation.LIST_MEMBERS, start);
+			}
+		}
+
+		public Stream<String> streamMembers() throws NoUserLoggedInException {
+			return listMembers().stream();
+		}
+
+		public Iterator<String> iterateMembers() throws NoUserLoggedInException {
+			return listMembers().iterator();
+		}
+
+		public boolean hasMember(String userName) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			boolean member = graph.hasMember(account(), userName);
+			metrics.record(NetworkOperation.HAS_MEMBER, start);
+			return member;
+		}
+
+		// queued in the lane of userName, if requests are queued
+		public void sendFriendshipTo(final String userName) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			if (requests == null) {
+				changePair(graph::sendFriendshipTo, userName);
+			} else {
+				final Account account = account();
+				enqueue(userName, new Runnable() {
+					public void run() {
+						applyPair(account, graph::sendFriendshipTo, userName);
+					}
+				});
+			}
+			metrics.record(NetworkOperation.SEND_FRIENDSHIP, start);
+		}
+
+		public void block(String userName) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			changePair(graph::block, userName);
+			metrics.record(NetworkOperation.BLOCK, start);
+		}
+
+		public void unblock(String userName) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			changePair(graph::unblock, userName);
+			metrics.record(NetworkOperation.UNBLOCK, start);
+		}
+
+		public void sendFriendshipCancellationTo(String userName) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			changePair(graph::sendFriendshipCancellationTo, userName);
+			metrics.record(NetworkOperation.CANCEL_FRIENDSHIP, start);
+		}
+
+		public void acceptFriendshipFrom(String userName) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			changePair(graph::acceptFriendshipFrom, userName);
+			metrics.record(NetworkOperation.ACCEPT_FRIENDSHIP, start);
+		}
+
+		public void rejectFriendshipFrom(String userName) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			changePair(graph::rejectFriendshipFrom, userName);
+			metrics.record(NetworkOperation.REJECT_FRIENDSHIP, start);
+		}
+
+		// queued in the session member's own lane, if requests are queued, so
+		// that it applies to exactly the requests made after it
+		public void autoAcceptFriendships() throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			changeOwnAccount(graph::autoAcceptFriendships);
+			metrics.record(NetworkOperation.AUTO_ACCEPT, start);
+		}
+
+		// queued in the session member's own lane, if requests are queued, so
+		// that it applies to exactly the requests made after it
+		public void cancelAutoAcceptFriendships() throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			changeOwnAccount(graph::cancelAutoAcceptFriendships);
+			metrics.record(NetworkOperation.CANCEL_AUTO_ACCEPT, start);
+		}
+
+		private void changeOwnAccount(final Consumer<Account> change) throws NoUserLoggedInException {
+			final Account account = account();
+			if (requests != null) {
+				enqueue(account.getUserName(), new Runnable() {
+					public void run() {
+						applyToAccount(account, change);
+					}
+				});
+				return;
+			}
+			lock.readLock().lock();
+			try {
+				applyToAccount(account(), change);
+			} finally {
+				lock.readLock().unlock();
+			}
+			graph.settled();
+		}
+
+		public Collection<String> recommendFriends() throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			Collection<String> recommended;
+			lock.readLock().lock();
+			try {
+				recommended = graph.recommendFriends(account());
+			} finally {
+				lock.readLock().unlock();
+			}
+			metrics.record(NetworkOperation.RECOMMEND_FRIENDS, start);
+			return recommended;
+		}
+
+		// friend lists are read under their own locks, so only the read lock
+		// is held while searching
+		public List<String> mutualFriendsWith(String userName) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			List<String> mutual;
+			lock.readLock().lock();
+			try {
+				mutual = graph.mutualFriends(account(), userName);
+			} finally {
+				lock.readLock().unlock();
+			}
+			metrics.record(NetworkOperation.FIND_CONNECTIONS, start);
+			return mutual;
+		}
+
+		public List<String> connectionTo(String userName, int maxHops) throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			List<String> path;
+			lock.readLock().lock();
+			try {
+				path = graph.connectionTo(account(), userName, maxHops);
+			} finally {
+				lock.readLock().unlock();
+			}
+			metrics.record(NetworkOperation.FIND_CONNECTIONS, start);
+			return path;
+		}
+
+		// the member is removed under the write lock, in time independent of
+		// how many relations it has; its relations are then unlinked, and the
+		// recommendations they affect invalidated, a chunk at a time, each
+		// chunk under the read lock, so that a member with millions of friends
+		// doesn't hold up everyone else. The user name can't be taken again
+		// until the last chunk is unlinked.
+		public void leave() throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			Account account;
+			lock.writeLock().lock();
+			try {
+				account = account();
+				graph.detach(account);
+				loggedIn = false;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			try {
+				for (AccountRelation relation : AccountRelation.values())
+					forEachChunk(account, relation, graph::unlink);
+			} finally {
+				graph.detached(account);
+			}
+			graph.settled();
+			metrics.record(NetworkOperation.LEAVE, start);
+		}
+
+		// accepted a chunk of requests at a time, see forEachChunk
+		public void acceptAllFriendships() throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			final Account account = account();
+			forEachChunk(account, AccountRelation.INCOMING_REQUESTS, new AccountChange() {
+				public void apply(Account member, AccountRelation relation, String userName) {
+					graph.acceptFriendshipFrom(member, userName);
+				}
+			});
+			graph.settled();
+			metrics.record(NetworkOperation.ACCEPT_ALL_FRIENDSHIPS, start);
+		}
+
+		// rejected a chunk of requests at a time, see forEachChunk
+		public void rejectAllFriendships() throws NoUserLoggedInException {
+			long start = System.nanoTime();
+			awaitQueued();
+			final Account account = account();
+			forEachChunk(account, AccountRelation.INCOMING_REQUESTS, new AccountChange() {
+				public void apply(Account member, AccountRelation relation, String userName) {
+					graph.rejectFriendshipFrom(member, userName);
+				}
+			});
+			graph.settled();
+			metrics.record(NetworkOperation.REJECT_ALL_FRIENDSHIPS, start);
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Mutual friends of two members and the shortest chain of friends between
+// them, as seen by one of them: members who blocked the viewer are never
+// part of an answer. Both queries only touch the neighborhoods of the two
+// members, never the whole network, and a path search gives up once it has
+// reached a bounded number of members. Accounts are only read, never
+// modified.
+public class FriendConnections {
+
+	// members a path search may reach before it gives up
+	public static final int MAX_REACHED = 100000;
+
+	private AccountDirectory accounts;
+
+	// locks guarding account relations when accounts change concurrently, or
+	// null if they don't
+	private AccountLocks locks;
+
+	// who blocked whom
+	private BlockIndex blocks;
+
+	private int maxReached;
+
+	public FriendConnections(AccountDirectory accounts, AccountLocks locks, BlockIndex blocks) {
+		this(accounts, locks, blocks, MAX_REACHED);
+	}
+
+	// connections whose path searches give up after reaching maxReached
+	// members
+	FriendConnections(AccountDirectory accounts, AccountLocks locks, BlockIndex blocks, int maxReached) {
+		this.accounts = accounts;
+		this.locks = locks;
+		this.blocks = blocks;
+		this.maxReached = maxReached;
+	}
+
+	// friends user and the member named userName have in common, excluding
+	// those who blocked user; empty if there is no such member or it blocked
+	// user. Takes time proportional to the smaller of the two friend lists.
+	public List<String> mutualFriends(Account user, String userName) {
+		Account other = visible(user, userName);
+		if ((other == null) || (other == user))
+			return new ArrayList<String>();
+		List<String> common;
+		if (locks == null) {
+			common = user.getCommonFriends(other);
+		} else {
+			locks.lockPair(user, other);
+			try {
+				common = user.getCommonFriends(other);
+			} finally {
+				locks.unlockPair(user, other);
+			}
+		}
+		List<String> visible = new ArrayList<String>(common.size());
+		for (String each : common) {
+			if (isLink(user, each))
+				visible.add(each);
+		}
+		return visible;
+	}
+
+	// the user names on a shortest chain of friends from user to the member
+	// named userName, both included, of at most maxHops friendships; empty if
+	// there is none, if the member is not visible to user or if the search
+	// reached more than MAX_REACHED members. Members who blocked user are not
+	// used as links.
+	//
+	// Searches from both ends at once, a level at a time, always extending
+	// the side with the smaller frontier: for members with d friends each a
+	// path of h hops is found after reaching about 2 * d^(h/2) members
+	// instead of d^h.
+	public List<String> shortestPath(Account user, String userName, int maxHops) {
+		Account target = visible(user, userName);
+		if ((target == null) || (maxHops < 0))
+			return new ArrayList<String>();
+		if (target == user)
+			return new ArrayList<String>(Collections.singletonList(userName));
+		// reached members, mapped to the member they were reached from
+		Map<String, String> fromUser = new HashMap<String, String>();
+		Map<String, String> fromTarget = new HashMap<String, String>();
+		fromUser.put(user.getUserName(), null);
+		fromTarget.put(userName, null);
+		List<String> userFrontier = new ArrayList<String>(Collections.singletonList(user.getUserName()));
+		List<String> targetFrontier = new ArrayList<String>(Collections.singletonList(userName));
+		for (int hops = 0; hops < maxHops; hops++) {
+			if (userFrontier.isEmpty() || targetFrontier.isEmpty())
+				break;
+			boolean forward = userFrontier.size() <= targetFrontier.size();
+			Map<String, String> reached = forward ? fromUser : fromTarget;
+			Map<String, String> opposite = forward ? fromTarget : fromUser;
+			List<String> next = new ArrayList<String>();
+			for (String memberName : forward ? userFrontier : targetFrontier) {
+				Account member = accounts.find(memberName);
+				if (member == null)
+					continue;
+				for (String friendName : friendsOf(member)) {
+					if (reached.containsKey(friendName) || !isLink(user, friendName))
+						continue;
+					reached.put(friendName, memberName);
+					// each level is completed before the next one is started,
+					// so the first meeting is on a shortest path
+					if (opposite.containsKey(friendName))
+						return path(friendName, fromUser, fromTarget);
+					if (fromUser.size() + fromTarget.size() > maxReached)
+						return new ArrayList<String>();
+					next.add(friendName);
+				}
+			}
+			if (forward)
+				userFrontier = next;
+			else
+				targetFrontier = next;
+		}
+		return new ArrayList<String>();
+	}
+
+	// the path through meeting point met, from the user end to the target end
+	private static List<String> path(String met, Map<String, String> fromUser, Map<String, String> fromTarget) {
+		List<String> path = new ArrayList<String>();
+		for (String each = met; each != null; each = fromUser.get(each))
+			path.add(each);
+		Collections.reverse(path);
+		for (String each = fromTarget.get(met); each != null; each = fromTarget.get(each))
+			path.add(each);
+		return path;
+	}
+
+	// true if member userName may connect user to others: it has not left
+	// and has not blocked user
+	private boolean isLink(Account user, String userName) {
+		return accounts.contains(userName) && blocks.isVisible(user.getUserName(), userName);
+	}
+
+	// account of member userName if user can see it, else null
+	private Account visible(Account user, String userName) {
+		Account other = accounts.find(userName);
+		if ((other == null) || !blocks.isVisible(user.getUserName(), userName))
+			return null;
+		return other;
+	}
+
+	// friends of account; a copy taken under its lock if accounts change
+	// concurrently
+	private Collection<String> friendsOf(Account account) {
+		if (locks == null)
+			return account.getFriends();
+		locks.lock(account);
+		try {
+			return new ArrayList<String>(account.getFriends());
+		} finally {
+			locks.unlock(account);
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+
+// Friend-of-friend recommendations. Only the 2-hop neighborhood of the user is
+// expanded, so the cost is bounded by the sum of the friends' degrees rather
+// than by the size of the network. Accounts are only read, never modified.
+public class FriendRecommender {
+
+	// number of common friends needed before a member is recommended
+	public static final int MIN_COMMON_FRIENDS = 2;
+
+	private AccountDirectory accounts;
+
+	// locks guarding account relations when accounts change concurrently, or
+	// null if they don't
+	private AccountLocks locks;
+
+	// who blocked whom, or null to read the blocks from the accounts
+	private BlockIndex blocks;
+
+	public FriendRecommender(AccountDirectory accounts) {
+		this(accounts, null);
+	}
+
+	// recommender for accounts that change while it runs: each account is
+	// locked while its relations are read
+	public FriendRecommender(AccountDirectory accounts, AccountLocks locks) {
+		this(accounts, locks, null);
+	}
+
+	// recommender that checks blocks in blocks, e.g. the network's index
+	public FriendRecommender(AccountDirectory accounts, AccountLocks locks, BlockIndex blocks) {
+		this.accounts = accounts;
+		this.locks = locks;
+		this.blocks = blocks;
+	}
+
+	// members who have at least MIN_COMMON_FRIENDS friends in common with user,
+	// excluding user, user's friends, members blocked by user and, with a
+	// block index, members who blocked user
+	public Collection<String> recommend(Account user) {
+		Collection<String> recommended = new HashSet<String>();
+		for (Map.Entry<String, Candidate> each : expand(user, null).entrySet()) {
+			if (each.getValue().commonFriends >= MIN_COMMON_FRIENDS)
+				recommended.add(each.getKey());
+		}
+		return recommended;
+	}
+
+	// recommend for every account of users, as recommend does, in parallel on
+	// the common fork/join pool. Each user's recommendations are handed to
+	// consumer as soon as they are computed, on the worker thread that
+	// computed them, so consumer must be thread-safe; nothing is kept once it
+	// returns.
+	public void recommendAll(Collection<Account> users, BiConsumer<String, Collection<String>> consumer) {
+		users.parallelStream().forEach(user -> consumer.accept(user.getUserName(), recommend(user)));
+	}
+
+	// the (at most) k best members recommend would recommend to user,
+	// according to scorer, best first: candidates of the 2-hop neighborhood
+	// with fewer than MIN_COMMON_FRIENDS common friends are not ranked. Only k
+	// candidates are kept in a heap while scoring, the full candidate list is
+	// never sorted.
+	public List<String> recommendTop(Account user, int k, RecommendationScorer scorer) {
+		if (k <= 0)
+			return new ArrayList<String>();
+		PriorityQueue<ScoredCandidate> best = new PriorityQueue<ScoredCandidate>(k);
+		for (Map.Entry<String, Candidate> each : expand(user, scorer).entrySet()) {
+			Candidate counted = each.getValue();
+			if (counted.commonFriends < MIN_COMMON_FRIENDS)
+				continue;
+			Account candidate = accounts.find(each.getKey());
+			if (candidate == null)
+				continue;
+			ScoredCandidate scored = new ScoredCandidate(each.getKey(),
+					scorer.score(user, candidate, counted.commonFriends, counted.weight));
+			if (best.size() < k) {
+				best.add(scored);
+			} else if (scored.compareTo(best.peek()) > 0) {
+				best.poll();
+				best.add(scored);
+			}
+		}
+		List<String> ranked = new ArrayList<String>(best.size());
+		while (!best.isEmpty())
+			ranked.add(best.poll().userName);
+		Collections.reverse(ranked);
+		return ranked;
+	}
+
+	// walk user's friends and their friends, counting common friends (and
+	// summing their weights if a scorer is given) per candidate
+	private Map<String, Candidate> expand(Account user, RecommendationScorer scorer) {
+		Map<String, Candidate> candidates = new HashMap<String, Candidate>();
+		Collection<String> excluded = excludedFor(user);
+		for (String friendName : friendsOf(user)) {
+			Account friend = accounts.find(friendName);
+			if (friend == null)
+				continue;
+			double weight = (scorer == null) ? 0 : scorer.weightOf(friend);
+			for (String candidateName : friendsOf(friend)) {
+				if (excluded.contains(candidateName))
+					continue;
+				Candidate candidate = candidates.get(candidateName);
+				if (candidate == null) {
+					candidate = new Candidate();
+					candidates.put(candidateName, candidate);
+				}
+				candidate.commonFriends++;
+				candidate.weight += weight;
+			}
+		}
+		// each candidate is checked once, however many friends lead to it. A
+		// member who is leaving may still be a friend's friend until its
+		// relations are unlinked.
+		for (Iterator<String> each = candidates.keySet().iterator(); each.hasNext();) {
+			String candidateName = each.next();
+			if (!accounts.contains(candidateName))
+				each.remove();
+			else if ((blocks != null) && (!blocks.isVisible(candidateName, user.getUserName())
+					|| !blocks.isVisible(user.getUserName(), candidateName)))
+				each.remove();
+		}
+		return candidates;
+	}
+
+	// user, user's friends and, without a block index, members blocked by
+	// user
+	private Collection<String> excludedFor(Account user) {
+		lock(user);
+		try {
+			Collection<String> excluded = new HashSet<String>(user.getFriends());
+			if (blocks == null)
+				excluded.addAll(user.getBlockedUsers());
+			excluded.add(user.getUserName());
+			return excluded;
+		} finally {
+			unlock(user);
+		}
+	}
+
+	// friends of account; a copy taken under its lock if accounts change
+	// concurrently
+	private Collection<String> friendsOf(Account account) {
+		if (locks == null)
+			return account.getFriends();
+		locks.lock(account);
+		try {
+			return new ArrayList<String>(account.getFriends());
+		} finally {
+			locks.unlock(account);
+		}
+	}
+
+	private void lock(Account account) {
+		if (locks != null)
+			locks.lock(account);
+	}
+
+	private void unlock(Account account) {
+		if (locks != null)
+			locks.unlock(account);
+	}
+
+	// running totals for one candidate while expanding the neighborhood
+	private static class Candidate {
+		int commonFriends;
+		double weight;
+	}
+
+	// candidate with its final score; orders by score, ties broken by user
+	// name so that results are deterministic
+	private static class ScoredCandidate implements Comparable<ScoredCandidate> {
+		final String userName;
+		final double score;
+
+		ScoredCandidate(String userName, double score) {
+			this.userName = userName;
+			this.score = score;
+		}
+
+		public int compareTo(ScoredCandidate other) {
+			int byScore = Double.compare(score, other.score);
+			return (byScore != 0) ? byScore : other.userName.compareTo(userName);
+		}
+	}
+
+}
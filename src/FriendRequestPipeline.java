@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Applies changes off the callers' threads, e.g. friend requests and the
+// auto-accepts they trigger. Changes are spread over lanes by a key, such as
+// the account they are for: each lane has a bounded queue and one consumer
+// thread, so changes with the same key are applied in the order they were
+// submitted, and changes for different keys in parallel.
+//
+// A consumer takes all changes waiting in its lane, up to maxBatch, and hands
+// them to the applier as one batch, so that per-batch costs like taking a
+// lock are paid once for a whole burst. Submitting to a full lane blocks
+// until the lane's consumer catches up, which pushes back on the callers.
+class FriendRequestPipeline {
+
+	private final BlockingQueue<Runnable>[] lanes;
+
+	private final int maxBatch;
+
+	// applies a batch of changes, in order
+	private final Consumer<List<Runnable>> applier;
+
+	private final ExecutorService consumers;
+
+	// changes submitted but not yet applied
+	private int outstanding = 0;
+
+	private RuntimeException failure = null;
+
+	private boolean closed = false;
+
+	@SuppressWarnings("unchecked")
+	FriendRequestPipeline(int laneCount, int queueCapacity, int maxBatch, Consumer<List<Runnable>> applier) {
+		if ((laneCount <= 0) || (queueCapacity <= 0) || (maxBatch <= 0))
+			throw new IllegalArgumentException("invalid pipeline settings");
+		this.lanes = (BlockingQueue<Runnable>[]) new BlockingQueue<?>[laneCount];
+		this.maxBatch = maxBatch;
+		this.applier = applier;
+		this.consumers = Executors.newFixedThreadPool(laneCount, new ThreadFactory() {
+			private int next = 0;
+
+			public synchronized Thread newThread(Runnable consumer) {
+				Thread thread = new Thread(consumer, "friend-request-lane-" + next++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for (int i = 0; i < laneCount; i++) {
+			final BlockingQueue<Runnable> lane = new ArrayBlockingQueue<Runnable>(queueCapacity);
+			lanes[i] = lane;
+			consumers.execute(new Runnable() {
+				public void run() {
+					consume(lane);
+				}
+			});
+		}
+	}
+
+	// queue change in the lane of key, waiting while the lane is full
+	void submit(Object key, final Runnable change) throws InterruptedException {
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("friend request pipeline is closed");
+			outstanding++;
+		}
+		Runnable guarded = new Runnable() {
+			public void run() {
+				try {
+					change.run();
+				} catch (RuntimeException e) {
+					failed(e);
+				}
+			}
+		};
+		try {
+			lanes[Math.floorMod(spread(key.hashCode()), lanes.length)].put(guarded);
+		} catch (InterruptedException e) {
+			applied(1);
+			throw e;
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private void consume(BlockingQueue<Runnable> lane) {
+		List<Runnable> batch = new ArrayList<Runnable>(maxBatch);
+		try {
+			while (true) {
+				batch.add(lane.take());
+				lane.drainTo(batch, maxBatch - 1);
+				try {
+					applier.accept(batch);
+				} catch (RuntimeException e) {
+					failed(e);
+				}
+				applied(batch.size());
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	private synchronized void applied(int changes) {
+		outstanding -= changes;
+		if (outstanding == 0)
+			notifyAll();
+	}
+
+	private synchronized void failed(RuntimeException e) {
+		if (failure == null)
+			failure = e;
+	}
+
+	// wait until every change submitted so far has been applied; throws the
+	// first failure of a change since the last call, if any
+	synchronized void awaitIdle() throws InterruptedException {
+		while (outstanding > 0)
+			wait();
+		RuntimeException first = failure;
+		failure = null;
+		if (first != null)
+			throw new IllegalStateException("a queued change failed", first);
+	}
+
+	// apply the changes still queued and stop the consumers
+	void close() throws InterruptedException {
+		synchronized (this) {
+			closed = true;
+		}
+		try {
+			awaitIdle();
+		} finally {
+			consumers.shutdownNow();
+			consumers.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+}
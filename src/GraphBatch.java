@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// An ordered list of changes to a social network, made on behalf of any
+// number of members, e.g. for a bulk import. Operations are applied in the
+// order they were added, with the same meaning as the corresponding
+// ISocialNetwork operations; operations of actors who are not members when
+// the operation is reached are skipped.
+public class GraphBatch {
+
+	private final List<GraphOperation> operations = new ArrayList<GraphOperation>();
+
+	private final List<String> actors = new ArrayList<String>();
+
+	private final List<String> targets = new ArrayList<String>();
+
+	// add an operation; target must be null for operations without a target
+	public GraphBatch add(GraphOperation operation, String actor, String target) {
+		if (operation.hasTarget() != (target != null))
+			throw new IllegalArgumentException(operation + (operation.hasTarget() ? " needs" : " takes no") + " target");
+		operations.add(operation);
+		actors.add(actor);
+		targets.add(target);
+		return this;
+	}
+
+	public GraphBatch join(String userName) {
+		return add(GraphOperation.JOIN, userName, null);
+	}
+
+	public GraphBatch sendFriendship(String from, String to) {
+		return add(GraphOperation.SEND_FRIENDSHIP, from, to);
+	}
+
+	public GraphBatch acceptFriendship(String by, String from) {
+		return add(GraphOperation.ACCEPT_FRIENDSHIP, by, from);
+	}
+
+	public GraphBatch rejectFriendship(String by, String from) {
+		return add(GraphOperation.REJECT_FRIENDSHIP, by, from);
+	}
+
+	public GraphBatch cancelFriendship(String by, String with) {
+		return add(GraphOperation.CANCEL_FRIENDSHIP, by, with);
+	}
+
+	public GraphBatch block(String by, String blocked) {
+		return add(GraphOperation.BLOCK, by, blocked);
+	}
+
+	public GraphBatch unblock(String by, String blocked) {
+		return add(GraphOperation.UNBLOCK, by, blocked);
+	}
+
+	public GraphBatch autoAcceptFriendships(String userName) {
+		return add(GraphOperation.AUTO_ACCEPT, userName, null);
+	}
+
+	public GraphBatch cancelAutoAcceptFriendships(String userName) {
+		return add(GraphOperation.CANCEL_AUTO_ACCEPT, userName, null);
+	}
+
+	public GraphBatch leave(String userName) {
+		return add(GraphOperation.LEAVE, userName, null);
+	}
+
+	// number of operations in the batch
+	public int size() {
+		return operations.size();
+	}
+
+	public GraphOperation operation(int index) {
+		return operations.get(index);
+	}
+
+	public String actor(int index) {
+		return actors.get(index);
+	}
+
+	// target of the operation at index, or null if it has none
+	public String target(int index) {
+		return targets.get(index);
+	}
+
+}
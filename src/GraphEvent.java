@@ -0,0 +1,44 @@
+// One change made to a social network, as delivered by a GraphEventStream:
+// the operation, the member who performed it and, for operations with a
+// target, the other member. Sequence numbers count the changes the stream has
+// seen, from 0, without gaps.
+public class GraphEvent {
+
+	private final long sequence;
+
+	private final GraphOperation operation;
+
+	private final String actor;
+
+	private final String target;
+
+	GraphEvent(long sequence, GraphOperation operation, String actor, String target) {
+		this.sequence = sequence;
+		this.operation = operation;
+		this.actor = actor;
+		this.target = target;
+	}
+
+	public long sequence() {
+		return sequence;
+	}
+
+	public GraphOperation operation() {
+		return operation;
+	}
+
+	public String actor() {
+		return actor;
+	}
+
+	// null for operations without a target member
+	public String target() {
+		return target;
+	}
+
+	@Override
+	public String toString() {
+		return sequence + " " + operation + " " + actor + ((target == null) ? "" : " " + target);
+	}
+
+}
@@ -0,0 +1,242 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Publishes the changes made to a social network to any number of
+// subscribers, e.g. search indexes or notification services that would
+// otherwise rescan listAllMembers. Register it as a GraphMutationListener.
+//
+// Changes go into a ring buffer of GraphEvents: a producer claims the next
+// sequence number with one atomic increment and stores the event in its slot,
+// without locks and without waiting for subscribers. A producer stalled for
+// a whole turn of the ring finds its slot taken by a later event and drops
+// its own, which subscribers then count as lost. Each subscriber has its
+// own thread that follows the ring and hands over the events published since
+// its last batch, up to maxBatch at a time. A subscriber that falls more than
+// the ring's capacity behind has missed the overwritten events: it is told
+// how many, and goes on with the oldest event still in the ring, e.g. after
+// rescanning what it keeps.
+//
+// Events involving the same member are delivered in the order the changes
+// were made, as the network reports those in order.
+public class GraphEventStream implements GraphMutationListener, Closeable {
+
+	// receives the events of a subscription, on the subscription's thread
+	public interface Subscriber {
+
+		// events in sequence order, never empty
+		void onEvents(List<GraphEvent> events);
+
+		// count events were overwritten before they could be delivered
+		void onEventsLost(long count);
+	}
+
+	// how long a subscriber that caught up sleeps before looking again
+	private static final long IDLE_PARK_NANOS = 100000;
+
+	// spins before a subscriber that caught up goes to sleep
+	private static final int IDLE_SPINS = 100;
+
+	private final AtomicReferenceArray<GraphEvent> ring;
+
+	private final int mask;
+
+	private final int maxBatch;
+
+	// sequence number of the next event
+	private final AtomicLong next = new AtomicLong();
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	private volatile boolean closed = false;
+
+	// stream with room for capacity events, rounded up to a power of two
+	public GraphEventStream(int capacity, int maxBatch) {
+		if ((capacity <= 0) || (capacity > (1 << 30)) || (maxBatch <= 0))
+			throw new IllegalArgumentException("invalid stream settings");
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.ring = new AtomicReferenceArray<GraphEvent>(size);
+		this.mask = size - 1;
+		this.maxBatch = maxBatch;
+	}
+
+	// stream with room for 64k events, delivered up to 1024 at a time
+	public GraphEventStream() {
+		this(1 << 16, 1024);
+	}
+
+	public void changed(GraphOperation operation, String actor, String target) {
+		if (closed)
+			return;
+		publish(claim(), operation, actor, target);
+	}
+
+	// the sequence number of a new event
+	long claim() {
+		return next.getAndIncrement();
+	}
+
+	// store the event claimed as sequence in its slot, unless the slot holds
+	// a later event already: a subscriber past that one must never see an
+	// older event there
+	void publish(long sequence, GraphOperation operation, String actor, String target) {
+		int slot = (int) sequence & mask;
+		GraphEvent event = new GraphEvent(sequence, operation, actor, target);
+		GraphEvent current = ring.get(slot);
+		while ((current == null) || (current.sequence() < sequence)) {
+			if (ring.compareAndSet(slot, current, event))
+				return;
+			current = ring.get(slot);
+		}
+	}
+
+	// deliver all events from now on to subscriber
+	public Subscription subscribe(Subscriber subscriber) {
+		return subscribe(EnumSet.allOf(GraphOperation.class), subscriber);
+	}
+
+	// deliver the events of the given operations from now on to subscriber
+	public Subscription subscribe(Set<GraphOperation> operations, Subscriber subscriber) {
+		if (closed)
+			throw new IllegalStateException("graph event stream is closed");
+		Subscription subscription = new Subscription(EnumSet.copyOf(operations), subscriber, next.get());
+		subscriptions.add(subscription);
+		subscription.thread.start();
+		return subscription;
+	}
+
+	// number of events published so far
+	public long published() {
+		return next.get();
+	}
+
+	// wait until every subscriber got, or was told it lost, the events
+	// published so far
+	public void flush() throws InterruptedException {
+		long end = next.get();
+		for (Subscription each : subscriptions)
+			each.awaitPosition(end);
+	}
+
+	// deliver the events published so far and stop the subscribers; changes
+	// made after closing are not published
+	public void close() {
+		closed = true;
+		for (Subscription each : subscriptions)
+			each.cancel();
+	}
+
+	public class Subscription {
+
+		private final Set<GraphOperation> operations;
+
+		private final Subscriber subscriber;
+
+		private final Thread thread;
+
+		// sequence number of the next event to deliver
+		private volatile long position;
+
+		// sequence number to stop at, once cancelled
+		private volatile long end = Long.MAX_VALUE;
+
+		private Subscription(Set<GraphOperation> operations, Subscriber subscriber, long position) {
+			this.operations = operations;
+			this.subscriber = subscriber;
+			this.position = position;
+			this.thread = new Thread(new Runnable() {
+				public void run() {
+					follow();
+				}
+			}, "graph-events-" + subscriptions.size());
+			thread.setDaemon(true);
+		}
+
+		// sequence number of the next event this subscriber will get
+		public long position() {
+			return position;
+		}
+
+		// stop delivering once the events published so far are delivered
+		public void cancel() {
+			end = Math.min(end, next.get());
+			LockSupport.unpark(thread);
+			if (Thread.currentThread() != thread) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			subscriptions.remove(this);
+		}
+
+		private void awaitPosition(long sequence) throws InterruptedException {
+			while ((position < sequence) && thread.isAlive()) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+		}
+
+		private void follow() {
+			List<GraphEvent> batch = new ArrayList<GraphEvent>(maxBatch);
+			int idle = 0;
+			while (position < end) {
+				long from = position;
+				long to = poll(from, batch);
+				if (!batch.isEmpty()) {
+					subscriber.onEvents(Collections.unmodifiableList(batch));
+					batch = new ArrayList<GraphEvent>(maxBatch);
+				}
+				position = to;
+				if (to > from)
+					idle = 0;
+				else if (++idle < IDLE_SPINS)
+					Thread.yield();
+				else
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+		}
+
+		// go over the events published from sequence number from on, up to
+		// maxBatch, adding those of the subscribed operations to batch; returns
+		// the sequence number of the first event not gone over
+		private long poll(long from, List<GraphEvent> batch) {
+			long sequence = from;
+			while ((sequence - from < maxBatch) && (sequence < end)) {
+				GraphEvent event = ring.get((int) sequence & mask);
+				// not published yet: its producer has claimed the slot but not
+				// filled it
+				if ((event == null) || (event.sequence() < sequence))
+					break;
+				if (event.sequence() > sequence) {
+					// overwritten. Report the loss after the events before it,
+					// then go on with the oldest event that can still be in the
+					// ring
+					if (sequence > from)
+						break;
+					long oldest = next.get() - ring.length();
+					subscriber.onEventsLost(oldest - from);
+					return oldest;
+				}
+				// events are immutable, so this one stays valid even if its
+				// slot is overwritten now
+				if (operations.contains(event.operation()))
+					batch.add(event);
+				sequence++;
+			}
+			return sequence;
+		}
+	}
+
+}
@@ -0,0 +1,20 @@
+// Receives every change made to a social network, right after it has been
+// made. target is null for operations without a target member (see
+// GraphOperation.hasTarget). Only changes that had an effect are reported,
+// not e.g. a friend request to a member who blocked the actor or a second
+// acceptance of the same request; applying the reported changes in order to
+// the same starting state gives the same result.
+public interface GraphMutationListener {
+
+	// called while the changed accounts may still be locked: keep it short
+	void changed(GraphOperation operation, String actor, String target);
+
+	// called on the thread that made changes once the operation that made
+	// them is done and the network holds no lock for it any more, e.g. to
+	// wait until they are durable. The changes are already applied: an
+	// exception thrown here reaches the caller of the operation, but does
+	// not undo them.
+	default void settled() {
+	}
+
+}
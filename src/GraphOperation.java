@@ -0,0 +1,28 @@
+// The operations that change a social network, as recorded in a GraphBatch.
+// Every operation is performed by an actor member; all but the join, leave
+// and auto-accept switches also name a target member.
+public enum GraphOperation {
+
+	JOIN(false),
+	SEND_FRIENDSHIP(true),
+	ACCEPT_FRIENDSHIP(true),
+	REJECT_FRIENDSHIP(true),
+	CANCEL_FRIENDSHIP(true),
+	BLOCK(true),
+	UNBLOCK(true),
+	AUTO_ACCEPT(false),
+	CANCEL_AUTO_ACCEPT(false),
+	LEAVE(false);
+
+	private final boolean hasTarget;
+
+	private GraphOperation(boolean hasTarget) {
+		this.hasTarget = hasTarget;
+	}
+
+	// true if the operation names a target member besides the actor
+	public boolean hasTarget() {
+		return hasTarget;
+	}
+
+}
@@ -0,0 +1,157 @@
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+// A consistent, read-only version of a social network's graph as it was when
+// pinned, for long-running readers such as exports and analytics over every
+// member. Changes to the network go on meanwhile and are not seen here.
+//
+// Reads lock only the account they read, for as long as it takes to copy
+// the relation asked for. Close the version once done: the old states kept
+// for it are dropped as soon as no reader needs them any more.
+public class GraphVersion implements Closeable {
+
+	private final long epoch;
+
+	private final MembershipSnapshot members;
+
+	// members who had left but whose relations were still being unlinked,
+	// a chunk at a time, when this version was pinned; they are left out of
+	// the relations read
+	private final Set<String> unlinking;
+
+	private final AccountDirectory accounts;
+
+	private final GraphVersions versions;
+
+	// locks guarding account relations when accounts change concurrently, or
+	// null if they don't
+	private final AccountLocks locks;
+
+	// held while reading an account, or null
+	private final Lock shared;
+
+	private volatile boolean closed = false;
+
+	GraphVersion(long epoch, MembershipSnapshot members, Set<String> unlinking, AccountDirectory accounts,
+			GraphVersions versions, AccountLocks locks, Lock shared) {
+		this.epoch = epoch;
+		this.members = members;
+		this.unlinking = unlinking;
+		this.accounts = accounts;
+		this.versions = versions;
+		this.locks = locks;
+		this.shared = shared;
+	}
+
+	// the epoch this version was pinned at
+	public long epoch() {
+		return epoch;
+	}
+
+	// user names of the members of this version
+	public Collection<String> members() {
+		checkOpen();
+		return members;
+	}
+
+	public boolean hasMember(String userName) {
+		checkOpen();
+		return members.contains(userName);
+	}
+
+	// the user names member userName had relation with in this version; empty
+	// if userName was not a member. Only members of this version are listed.
+	public Set<String> relation(String userName, AccountRelation relation) {
+		Account account = accountOf(userName);
+		if (account == null)
+			return Collections.emptySet();
+		Set<String> related;
+		lock(account);
+		try {
+			related = account.relationAt(relation, epoch);
+		} finally {
+			unlock(account);
+		}
+		for (String each : unlinking) {
+			if (related.contains(each)) {
+				Set<String> linked = new HashSet<String>(related);
+				linked.removeAll(unlinking);
+				return Collections.unmodifiableSet(linked);
+			}
+		}
+		return related;
+	}
+
+	// true if member userName accepted friend requests automatically in this
+	// version
+	public boolean autoAcceptsFriendships(String userName) {
+		Account account = accountOf(userName);
+		if (account == null)
+			return false;
+		lock(account);
+		try {
+			return account.autoAcceptsFriendshipsAt(epoch);
+		} finally {
+			unlock(account);
+		}
+	}
+
+	// the account member userName had in this version, or null
+	private Account accountOf(String userName) {
+		checkOpen();
+		if (!members.contains(userName))
+			return null;
+		Account account = accounts.find(userName);
+		if ((account != null) && account.existedAt(epoch))
+			return account;
+		// left since, and may have joined again
+		return versions.departedAt(userName, epoch);
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("graph version is closed");
+	}
+
+	// release this version and drop the old states no pinned version needs
+	// any more
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		versions.release(epoch);
+		for (Iterator<Account> each = versions.retaining(); each.hasNext();) {
+			Account account = each.next();
+			lock(account);
+			try {
+				// read under the locks: no version can be pinned meanwhile
+				if (account.prune(versions.oldestPinned()))
+					each.remove();
+			} finally {
+				unlock(account);
+			}
+		}
+	}
+
+	private void lock(Account account) {
+		if (shared != null)
+			shared.lock();
+		if (locks != null)
+			locks.lock(account);
+	}
+
+	private void unlock(Account account) {
+		if (locks != null)
+			locks.unlock(account);
+		if (shared != null)
+			shared.unlock();
+	}
+
+}
@@ -0,0 +1,141 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The versions of a social network's graph that readers have pinned, shared
+// by all accounts of the network. Time is counted in epochs: every pin starts
+// a new epoch, changes are made in the current one, and a version pinned at
+// epoch p sees exactly the changes made in the epochs before p.
+//
+// Accounts copy a relation on its first change after a pin, and only while
+// a pinned reader may still need the old state; until the next pin, further
+// changes of that relation cost a single epoch comparison. Large relations
+// are copied block by block as they change (see IntSet.frozenCopy), so a pin
+// costs a hot account a few block copies rather than a copy of all its
+// relations. Versions no reader
+// holds any more are dropped when pins are released.
+public class GraphVersions {
+
+	// the current epoch; the number of pins so far
+	private volatile long epoch = 0;
+
+	// the newest pinned epoch, or -1 if nothing is pinned
+	private volatile long newestPinned = -1;
+
+	// pinned epochs and the number of readers holding each
+	private final TreeMap<Long, Integer> pinned = new TreeMap<Long, Integer>();
+
+	// accounts that keep old versions of their relations
+	private final Set<Account> retaining = ConcurrentHashMap.newKeySet();
+
+	// accounts that left while versions were pinned, by user name
+	private final Map<String, List<Departure>> departures = new HashMap<String, List<Departure>>();
+
+	public long epoch() {
+		return epoch;
+	}
+
+	// true if a version pinned after epoch since is still held: it sees the
+	// state of a relation last changed in since
+	boolean isPinnedAfter(long since) {
+		return newestPinned > since;
+	}
+
+	// number of readers holding a pinned version
+	public synchronized int pinnedCount() {
+		int count = 0;
+		for (int each : pinned.values())
+			count += each;
+		return count;
+	}
+
+	// number of accounts keeping old versions of their relations
+	public int retainingCount() {
+		return retaining.size();
+	}
+
+	// start a new epoch and pin the version before it; changes must not be
+	// in progress
+	synchronized long pin() {
+		long version = ++epoch;
+		pinned.merge(version, 1, Integer::sum);
+		newestPinned = version;
+		return version;
+	}
+
+	// the oldest epoch still pinned, or Long.MAX_VALUE if none is
+	synchronized long oldestPinned() {
+		return pinned.isEmpty() ? Long.MAX_VALUE : pinned.firstKey();
+	}
+
+	// release a version pinned at epoch version
+	synchronized void release(long version) {
+		Integer holders = pinned.get(version);
+		if (holders == null)
+			throw new IllegalStateException("version " + version + " is not pinned");
+		if (holders == 1)
+			pinned.remove(version);
+		else
+			pinned.put(version, holders - 1);
+		newestPinned = pinned.isEmpty() ? -1 : pinned.lastKey();
+		long oldest = oldestPinned();
+		for (Iterator<List<Departure>> each = departures.values().iterator(); each.hasNext();) {
+			List<Departure> departed = each.next();
+			departed.removeIf(departure -> departure.leftIn < oldest);
+			if (departed.isEmpty())
+				each.remove();
+		}
+	}
+
+	// account keeps old versions until released by prune
+	void retain(Account account) {
+		retaining.add(account);
+	}
+
+	// accounts keeping old versions, to be pruned once a pin is released;
+	// remove an account once it keeps none
+	Iterator<Account> retaining() {
+		return retaining.iterator();
+	}
+
+	// account is leaving: keep it for the pinned versions it was a member of
+	synchronized void departed(Account account) {
+		if (newestPinned < 0)
+			return;
+		List<Departure> departed = departures.get(account.getUserName());
+		if (departed == null) {
+			departed = new ArrayList<Departure>(1);
+			departures.put(account.getUserName(), departed);
+		}
+		departed.add(new Departure(account, epoch));
+	}
+
+	// the account named userName that left after the version pinned at
+	// epoch version had been pinned, or null
+	synchronized Account departedAt(String userName, long version) {
+		List<Departure> departed = departures.get(userName);
+		if (departed == null)
+			return null;
+		for (Departure each : departed) {
+			if (each.account.existedAt(version) && (each.leftIn >= version))
+				return each.account;
+		}
+		return null;
+	}
+
+	private static class Departure {
+		final Account account;
+		final long leftIn;
+
+		Departure(Account account, long leftIn) {
+			this.account = account;
+			this.leftIn = leftIn;
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// A logged-in member of a ConcurrentSocialNetwork. Each session acts for its
+// own member, so many sessions can be used at once, from different threads.
+// The operations have the same meaning as in ISocialNetwork; they throw
+// NoUserLoggedInException once the session has logged out or its member has
+// left the network.
+public interface ISocialNetworkSession {
+
+	// user name of the member this session acts for
+	public String getUserName();
+
+	// log out: the session can no longer be used
+	public void logout();
+
+	// List all members visible to the session's member.
+	public Collection<String> listMembers() throws NoUserLoggedInException;
+
+	// List one page of the visible members; start with a null cursor, then
+	// pass the page's next cursor until there is none
+	public MemberPage listMembers(String cursor, int pageSize) throws NoUserLoggedInException;
+
+	// Stream the visible members without materializing them
+	public Stream<String> streamMembers() throws NoUserLoggedInException;
+
+	// Iterate the visible members without materializing them
+	public Iterator<String> iterateMembers() throws NoUserLoggedInException;
+
+	// Returns true if a member has joined the social network
+	public boolean hasMember(String userName) throws NoUserLoggedInException;
+
+	// Send a friend request to a valid, visible member
+	public void sendFriendshipTo(String userName) throws NoUserLoggedInException;
+
+	// Block a member: blocked members can't see the session's member
+	public void block(String userName) throws NoUserLoggedInException;
+
+	// Unblock a previously blocked member
+	public void unblock(String userName) throws NoUserLoggedInException;
+
+	// Unfriend and existing friend
+	public void sendFriendshipCancellationTo(String userName) throws NoUserLoggedInException;
+
+	// Accept a friend request from another visible member
+	public void acceptFriendshipFrom(String userName) throws NoUserLoggedInException;
+
+	// Reject a friend request from another member
+	public void rejectFriendshipFrom(String userName) throws NoUserLoggedInException;
+
+	// Accept all pending friend requests
+	public void acceptAllFriendships() throws NoUserLoggedInException;
+
+	// Reject all pending friend requests
+	public void rejectAllFriendships() throws NoUserLoggedInException;
+
+	// Accept all friend requests automatically in the future
+	public void autoAcceptFriendships() throws NoUserLoggedInException;
+
+	// Cancel auto-acceptance, and require explicit acceptance in the future
+	public void cancelAutoAcceptFriendships() throws NoUserLoggedInException;
+
+	// Recommend members with at least two friends in common, minus blocked
+	// members
+	public Collection<String> recommendFriends() throws NoUserLoggedInException;
+
+	// Friends the session's member has in common with a visible member
+	public List<String> mutualFriendsWith(String userName) throws NoUserLoggedInException;
+
+	// A shortest chain of friends from the session's member to a visible
+	// member, of at most maxHops friendships; empty if there is none
+	public List<String> connectionTo(String userName, int maxHops) throws NoUserLoggedInException;
+
+	// Leave the social network; also logs the session out
+	public void leave() throws NoUserLoggedInException;
+}
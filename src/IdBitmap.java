@@ -0,0 +1,491 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+// A compressed bitmap of non-negative ints, in the style of Roaring bitmaps:
+// the ints are split by their upper 16 bits into containers of up to 65536
+// values each. A container of up to ARRAY_MAX values is a sorted char[] of
+// their lower 16 bits; a fuller one is a plain bitmap of 1024 longs. Interned
+// user ids are dense, so the friends of a well-connected member share few
+// containers and set algebra between two bitmaps runs a word (64 ids) at a
+// time: and, andNot, or and andCardinality never look at single ids of two
+// bitmap containers.
+public class IdBitmap {
+
+	// largest array container; a bitmap container takes as much memory
+	static final int ARRAY_MAX = 4096;
+
+	private static final int BITMAP_WORDS = 1 << 10;
+
+	private static final char[] NO_KEYS = new char[0];
+
+	// upper 16 bits of the values in each container, ascending
+	private char[] keys = NO_KEYS;
+
+	// char[] (array container) or long[] (bitmap container) per key
+	private Object[] containers = new Object[0];
+
+	// number of values per container
+	private int[] cardinalities = new int[0];
+
+	private int containerCount = 0;
+
+	private int size = 0;
+
+	public IdBitmap() {
+	}
+
+	public IdBitmap(IdBitmap other) {
+		this.keys = Arrays.copyOf(other.keys, other.containerCount);
+		this.containers = new Object[other.containerCount];
+		for (int i = 0; i < other.containerCount; i++)
+			containers[i] = copyOf(other.containers[i]);
+		this.cardinalities = Arrays.copyOf(other.cardinalities, other.containerCount);
+		this.containerCount = other.containerCount;
+		this.size = other.size;
+	}
+
+	private static Object copyOf(Object container) {
+		if (container instanceof long[])
+			return ((long[]) container).clone();
+		return ((char[]) container).clone();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(int value) {
+		if (value < 0)
+			return false;
+		int index = indexOf((char) (value >>> 16));
+		if (index < 0)
+			return false;
+		return containerContains(containers[index], cardinalities[index], (char) value);
+	}
+
+	private static boolean containerContains(Object container, int cardinality, char low) {
+		if (container instanceof long[])
+			return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+		return Arrays.binarySearch((char[]) container, 0, cardinality, low) >= 0;
+	}
+
+	// add value; returns true if it was not already there
+	public boolean add(int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("negative value " + value);
+		char key = (char) (value >>> 16);
+		char low = (char) value;
+		int index = indexOf(key);
+		if (index < 0) {
+			index = -index - 1;
+			insertContainer(index, key, new char[4]);
+		}
+		Object container = containers[index];
+		if (container instanceof long[]) {
+			long[] words = (long[]) container;
+			long bit = 1L << low;
+			if ((words[low >>> 6] & bit) != 0)
+				return false;
+			words[low >>> 6] |= bit;
+		} else {
+			char[] values = (char[]) container;
+			int cardinality = cardinalities[index];
+			int at = Arrays.binarySearch(values, 0, cardinality, low);
+			if (at >= 0)
+				return false;
+			at = -at - 1;
+			if (cardinality == ARRAY_MAX) {
+				containers[index] = toWords(values, cardinality);
+				cardinalities[index]++;
+				size++;
+				((long[]) containers[index])[low >>> 6] |= 1L << low;
+				return true;
+			}
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+				containers[index] = values;
+			}
+			System.arraycopy(values, at, values, at + 1, cardinality - at);
+			values[at] = low;
+		}
+		cardinalities[index]++;
+		size++;
+		return true;
+	}
+
+	// remove value; returns true if it was there
+	public boolean remove(int value) {
+		if (value < 0)
+			return false;
+		int index = indexOf((char) (value >>> 16));
+		if (index < 0)
+			return false;
+		char low = (char) value;
+		Object container = containers[index];
+		int cardinality = cardinalities[index];
+		if (container instanceof long[]) {
+			long[] words = (long[]) container;
+			long bit = 1L << low;
+			if ((words[low >>> 6] & bit) == 0)
+				return false;
+			words[low >>> 6] &= ~bit;
+			// back to an array once it takes less than half the memory
+			if (cardinality - 1 < ARRAY_MAX / 2)
+				containers[index] = toValues(words, cardinality - 1);
+		} else {
+			char[] values = (char[]) container;
+			int at = Arrays.binarySearch(values, 0, cardinality, low);
+			if (at < 0)
+				return false;
+			System.arraycopy(values, at + 1, values, at, cardinality - at - 1);
+		}
+		size--;
+		if (--cardinalities[index] == 0)
+			removeContainer(index);
+		return true;
+	}
+
+	public void clear() {
+		keys = NO_KEYS;
+		containers = new Object[0];
+		cardinalities = new int[0];
+		containerCount = 0;
+		size = 0;
+	}
+
+	// all values in ascending order
+	public int[] toArray() {
+		int[] values = new int[size];
+		int count = 0;
+		for (int i = 0; i < containerCount; i++)
+			count = appendValues(i, 0, values, count, values.length);
+		return values;
+	}
+
+	// the (at most) max smallest values greater than after, ascending; see
+	// IntSet.chunkAfter
+	public int[] chunkAfter(int after, int max) {
+		if ((max <= 0) || (size == 0))
+			return new int[0];
+		long from = Math.max(0, (long) after + 1);
+		if (from > Integer.MAX_VALUE)
+			return new int[0];
+		int[] chunk = new int[Math.min(max, size)];
+		int count = 0;
+		int low = (int) from & 0xffff;
+		int index = indexOf((char) (from >>> 16));
+		if (index < 0) {
+			index = -index - 1;
+			low = 0;
+		}
+		for (; (index < containerCount) && (count < chunk.length); index++) {
+			count = appendValues(index, low, chunk, count, chunk.length);
+			low = 0;
+		}
+		return (count == chunk.length) ? chunk : Arrays.copyOf(chunk, count);
+	}
+
+	// append the values of container index from low on to values, up to
+	// limit; returns the new count
+	private int appendValues(int index, int low, int[] values, int count, int limit) {
+		int high = keys[index] << 16;
+		Object container = containers[index];
+		if (container instanceof long[]) {
+			long[] words = (long[]) container;
+			for (int word = low >>> 6; (word < BITMAP_WORDS) && (count < limit); word++) {
+				long bits = words[word];
+				if (word == low >>> 6)
+					bits &= -1L << low;
+				while ((bits != 0) && (count < limit)) {
+					values[count++] = high | (word << 6) | Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+				}
+			}
+			return count;
+		}
+		char[] array = (char[]) container;
+		int cardinality = cardinalities[index];
+		int at = Arrays.binarySearch(array, 0, cardinality, (char) low);
+		for (at = (at >= 0) ? at : -at - 1; (at < cardinality) && (count < limit); at++)
+			values[count++] = high | array[at];
+		return count;
+	}
+
+	// iterates the values in ascending order; remove() is supported, other
+	// modifications during iteration are not
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+
+			private int[] chunk = chunkAfter(-1, 256);
+
+			private int next = 0;
+
+			private int last = -1;
+
+			private boolean removable = false;
+
+			public boolean hasNext() {
+				if ((next == chunk.length) && (chunk.length > 0)) {
+					chunk = chunkAfter(chunk[chunk.length - 1], 256);
+					next = 0;
+				}
+				return next < chunk.length;
+			}
+
+			public int nextInt() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				last = chunk[next++];
+				removable = true;
+				return last;
+			}
+
+			public void remove() {
+				if (!removable)
+					throw new IllegalStateException();
+				IdBitmap.this.remove(last);
+				removable = false;
+			}
+		};
+	}
+
+	// number of values in both one and other
+	public static int andCardinality(IdBitmap one, IdBitmap other) {
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while ((i < one.containerCount) && (j < other.containerCount)) {
+			if (one.keys[i] < other.keys[j]) {
+				i++;
+			} else if (one.keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				count += intersect(one.containers[i], one.cardinalities[i], other.containers[j],
+						other.cardinalities[j], null);
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	// the values in both one and other
+	public static IdBitmap and(IdBitmap one, IdBitmap other) {
+		IdBitmap result = new IdBitmap();
+		int i = 0;
+		int j = 0;
+		while ((i < one.containerCount) && (j < other.containerCount)) {
+			if (one.keys[i] < other.keys[j]) {
+				i++;
+			} else if (one.keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				char[] values = new char[Math.min(one.cardinalities[i], other.cardinalities[j])];
+				int count = intersect(one.containers[i], one.cardinalities[i], other.containers[j],
+						other.cardinalities[j], values);
+				result.appendContainer(one.keys[i], values, count);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	// the values of one that are not in other
+	public static IdBitmap andNot(IdBitmap one, IdBitmap other) {
+		IdBitmap result = new IdBitmap();
+		int j = 0;
+		for (int i = 0; i < one.containerCount; i++) {
+			while ((j < other.containerCount) && (other.keys[j] < one.keys[i]))
+				j++;
+			if ((j == other.containerCount) || (other.keys[j] != one.keys[i])) {
+				result.appendCopy(one.keys[i], one.containers[i], one.cardinalities[i]);
+				continue;
+			}
+			long[] words = toWords(one.containers[i], one.cardinalities[i]);
+			Object subtracted = other.containers[j];
+			if (subtracted instanceof long[]) {
+				long[] otherWords = (long[]) subtracted;
+				for (int w = 0; w < BITMAP_WORDS; w++)
+					words[w] &= ~otherWords[w];
+			} else {
+				char[] values = (char[]) subtracted;
+				for (int v = 0; v < other.cardinalities[j]; v++)
+					words[values[v] >>> 6] &= ~(1L << values[v]);
+			}
+			result.appendWords(one.keys[i], words);
+		}
+		return result;
+	}
+
+	// the values in one or other
+	public static IdBitmap or(IdBitmap one, IdBitmap other) {
+		IdBitmap result = new IdBitmap();
+		int i = 0;
+		int j = 0;
+		while ((i < one.containerCount) || (j < other.containerCount)) {
+			if ((j == other.containerCount) || ((i < one.containerCount) && (one.keys[i] < other.keys[j]))) {
+				result.appendCopy(one.keys[i], one.containers[i], one.cardinalities[i]);
+				i++;
+			} else if ((i == one.containerCount) || (one.keys[i] > other.keys[j])) {
+				result.appendCopy(other.keys[j], other.containers[j], other.cardinalities[j]);
+				j++;
+			} else {
+				long[] words = toWords(one.containers[i], one.cardinalities[i]);
+				Object added = other.containers[j];
+				if (added instanceof long[]) {
+					long[] otherWords = (long[]) added;
+					for (int w = 0; w < BITMAP_WORDS; w++)
+						words[w] |= otherWords[w];
+				} else {
+					char[] values = (char[]) added;
+					for (int v = 0; v < other.cardinalities[j]; v++)
+						words[values[v] >>> 6] |= 1L << values[v];
+				}
+				result.appendWords(one.keys[i], words);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	// intersect two containers with the same key, storing the common lower
+	// bits in into if it is not null; returns their number
+	private static int intersect(Object one, int oneCardinality, Object other, int otherCardinality, char[] into) {
+		if ((one instanceof long[]) && (other instanceof long[])) {
+			long[] a = (long[]) one;
+			long[] b = (long[]) other;
+			int count = 0;
+			for (int w = 0; w < BITMAP_WORDS; w++) {
+				long both = a[w] & b[w];
+				if (into == null) {
+					count += Long.bitCount(both);
+					continue;
+				}
+				while (both != 0) {
+					into[count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(both));
+					both &= both - 1;
+				}
+			}
+			return count;
+		}
+		if (one instanceof long[])
+			return intersect(other, otherCardinality, one, oneCardinality, into);
+		char[] values = (char[]) one;
+		int count = 0;
+		if (other instanceof long[]) {
+			long[] words = (long[]) other;
+			for (int v = 0; v < oneCardinality; v++) {
+				if ((words[values[v] >>> 6] & (1L << values[v])) != 0) {
+					if (into != null)
+						into[count] = values[v];
+					count++;
+				}
+			}
+			return count;
+		}
+		char[] otherValues = (char[]) other;
+		int i = 0;
+		int j = 0;
+		while ((i < oneCardinality) && (j < otherCardinality)) {
+			if (values[i] < otherValues[j]) {
+				i++;
+			} else if (values[i] > otherValues[j]) {
+				j++;
+			} else {
+				if (into != null)
+					into[count] = values[i];
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	// container values as a bitmap container
+	private static long[] toWords(Object container, int cardinality) {
+		if (container instanceof long[])
+			return ((long[]) container).clone();
+		long[] words = new long[BITMAP_WORDS];
+		char[] values = (char[]) container;
+		for (int i = 0; i < cardinality; i++)
+			words[values[i] >>> 6] |= 1L << values[i];
+		return words;
+	}
+
+	private static char[] toValues(long[] words, int cardinality) {
+		char[] values = new char[Math.max(4, cardinality)];
+		int count = 0;
+		for (int w = 0; w < BITMAP_WORDS; w++) {
+			for (long bits = words[w]; bits != 0; bits &= bits - 1)
+				values[count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(bits));
+		}
+		return values;
+	}
+
+	// index of the container for key, or -(insertion point) - 1
+	private int indexOf(char key) {
+		return Arrays.binarySearch(keys, 0, containerCount, key);
+	}
+
+	private void insertContainer(int index, char key, Object container) {
+		if (containerCount == keys.length) {
+			int capacity = Math.max(4, containerCount * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			containers = Arrays.copyOf(containers, capacity);
+			cardinalities = Arrays.copyOf(cardinalities, capacity);
+		}
+		System.arraycopy(keys, index, keys, index + 1, containerCount - index);
+		System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+		System.arraycopy(cardinalities, index, cardinalities, index + 1, containerCount - index);
+		keys[index] = key;
+		containers[index] = container;
+		cardinalities[index] = 0;
+		containerCount++;
+	}
+
+	private void removeContainer(int index) {
+		System.arraycopy(keys, index + 1, keys, index, containerCount - index - 1);
+		System.arraycopy(containers, index + 1, containers, index, containerCount - index - 1);
+		System.arraycopy(cardinalities, index + 1, cardinalities, index, containerCount - index - 1);
+		containerCount--;
+		containers[containerCount] = null;
+	}
+
+	// append a container with a key above all others, if not empty
+	private void appendContainer(char key, char[] values, int cardinality) {
+		if (cardinality == 0)
+			return;
+		Object container = values;
+		if (cardinality > ARRAY_MAX)
+			container = toWords(values, cardinality);
+		insertContainer(containerCount, key, container);
+		cardinalities[containerCount - 1] = cardinality;
+		size += cardinality;
+	}
+
+	private void appendCopy(char key, Object container, int cardinality) {
+		insertContainer(containerCount, key, copyOf(container));
+		cardinalities[containerCount - 1] = cardinality;
+		size += cardinality;
+	}
+
+	private void appendWords(char key, long[] words) {
+		int cardinality = 0;
+		for (long each : words)
+			cardinality += Long.bitCount(each);
+		if (cardinality == 0)
+			return;
+		insertContainer(containerCount, key, (cardinality <= ARRAY_MAX) ? toValues(words, cardinality) : words);
+		cardinalities[containerCount - 1] = cardinality;
+		size += cardinality;
+	}
+
+}
@@ -0,0 +1,568 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+// A set of non-negative ints stored in a single open-addressing int[] table.
+// It replaces HashSet<Integer>/HashSet<String> for graph edges: no boxing and
+// no per-entry node objects, so an edge costs a few bytes instead of ~40.
+//
+// Sets of high-degree accounts, e.g. a celebrity's friends, switch to chunked
+// mode once they grow past CHUNKED_SIZE elements: sorted blocks of at most
+// BLOCK_SIZE ints. That takes about half the memory of the table, needs no
+// rehash of millions of elements at once, and lets bulk operations go
+// through the set in bounded, resumable steps with chunkAfter. A set that
+// shrinks to a quarter of CHUNKED_SIZE goes back to a table.
+//
+// With RelationStorage.BITMAP the set is an IdBitmap instead, and the set
+// algebra below (intersectionSize, removeAll, retainAll) runs on bitmap words
+// when both sets are bitmaps.
+public class IntSet {
+
+	static final int CHUNKED_SIZE = 4096;
+
+	static final int BLOCK_SIZE = 1024;
+
+	private static final int FREE = -1;
+
+	// marks a slot whose element was removed; keeps probe chains intact and
+	// lets iterators remove elements safely
+	private static final int REMOVED = -2;
+
+	private static final int[] NO_SLOTS = new int[0];
+
+	private int[] slots = NO_SLOTS;
+
+	private int size = 0;
+
+	// number of slots that are not FREE (elements plus REMOVED markers)
+	private int used = 0;
+
+	// in chunked mode, the sorted blocks: every element of a block is smaller
+	// than those of the next. null in table mode.
+	private int[][] blocks = null;
+	private int[] blockSizes;
+	private int blockCount;
+
+	// the first element of each block, so that finding a block reads one
+	// array
+	private int[] firsts;
+
+	// true for each block shared with a frozen copy; such a block is copied
+	// before it is changed
+	private boolean[] sharedBlocks;
+
+	// the elements in bitmap mode, else null
+	private IdBitmap bitmap = null;
+
+	public IntSet() {
+	}
+
+	public IntSet(RelationStorage storage) {
+		if (storage == RelationStorage.BITMAP)
+			bitmap = new IdBitmap();
+	}
+
+	public IntSet(IntSet other) {
+		this.slots = other.slots.clone();
+		this.size = other.size;
+		this.used = other.used;
+		if (other.blocks != null) {
+			this.blocks = new int[other.blocks.length][];
+			for (int i = 0; i < other.blockCount; i++)
+				this.blocks[i] = other.blocks[i].clone();
+			this.blockSizes = other.blockSizes.clone();
+			this.firsts = other.firsts.clone();
+			this.sharedBlocks = new boolean[other.blocks.length];
+			this.blockCount = other.blockCount;
+		}
+		if (other.bitmap != null)
+			this.bitmap = new IdBitmap(other.bitmap);
+	}
+
+	// a copy that is never changed, e.g. to keep an old version of the set.
+	// In chunked mode the copy shares its blocks with this set, which copies
+	// a block before changing it: the copy takes time proportional to the
+	// number of blocks, and each later change copies at most one block. A
+	// table holds at most CHUNKED_SIZE elements and is copied; so is a
+	// bitmap, in time proportional to its compressed size.
+	IntSet frozenCopy() {
+		if (blocks == null)
+			return new IntSet(this);
+		IntSet copy = new IntSet();
+		copy.blocks = Arrays.copyOf(blocks, blockCount);
+		copy.blockSizes = Arrays.copyOf(blockSizes, blockCount);
+		copy.firsts = Arrays.copyOf(firsts, blockCount);
+		copy.sharedBlocks = new boolean[blockCount];
+		Arrays.fill(copy.sharedBlocks, true);
+		copy.blockCount = blockCount;
+		copy.size = size;
+		Arrays.fill(sharedBlocks, 0, blockCount, true);
+		return copy;
+	}
+
+	// block, to be changed: copied first if shared with a frozen copy
+	private int[] writableBlock(int block) {
+		if (sharedBlocks[block]) {
+			blocks[block] = blocks[block].clone();
+			sharedBlocks[block] = false;
+		}
+		return blocks[block];
+	}
+
+	// true in chunked mode
+	boolean isChunked() {
+		return blocks != null;
+	}
+
+	public int size() {
+		return (bitmap != null) ? bitmap.size() : size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public boolean contains(int value) {
+		if (bitmap != null)
+			return bitmap.contains(value);
+		if ((value < 0) || (size == 0))
+			return false;
+		if (blocks != null) {
+			int block = blockOf(value);
+			return Arrays.binarySearch(blocks[block], 0, blockSizes[block], value) >= 0;
+		}
+		return slots[indexOf(value)] == value;
+	}
+
+	// add value to the set; returns true if it was not already there
+	public boolean add(int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("negative value " + value);
+		if (bitmap != null)
+			return bitmap.add(value);
+		if (blocks != null)
+			return addToBlock(value);
+		if (size >= CHUNKED_SIZE) {
+			if (contains(value))
+				return false;
+			toBlocks();
+			return addToBlock(value);
+		}
+		if ((used + 1) * 4 > slots.length * 3)
+			rehash(Math.max(8, Integer.highestOneBit(Math.max(size * 2, 4)) * 2));
+		int mask = slots.length - 1;
+		int index = mix(value) & mask;
+		int firstRemoved = -1;
+		while (slots[index] != FREE) {
+			if (slots[index] == value)
+				return false;
+			if ((slots[index] == REMOVED) && (firstRemoved < 0))
+				firstRemoved = index;
+			index = (index + 1) & mask;
+		}
+		if (firstRemoved >= 0) {
+			slots[firstRemoved] = value;
+		} else {
+			slots[index] = value;
+			used++;
+		}
+		size++;
+		return true;
+	}
+
+	// remove value from the set; returns true if it was there
+	public boolean remove(int value) {
+		if (bitmap != null)
+			return bitmap.remove(value);
+		if (!contains(value))
+			return false;
+		if (blocks != null) {
+			removeFromBlock(value);
+			return true;
+		}
+		slots[indexOf(value)] = REMOVED;
+		size--;
+		if (size == 0)
+			clear();
+		return true;
+	}
+
+	public void clear() {
+		if (bitmap != null) {
+			bitmap.clear();
+			return;
+		}
+		slots = NO_SLOTS;
+		size = 0;
+		used = 0;
+		blocks = null;
+		blockSizes = null;
+		firsts = null;
+		sharedBlocks = null;
+		blockCount = 0;
+	}
+
+	// copy of all elements, in no particular order
+	public int[] toArray() {
+		if (bitmap != null)
+			return bitmap.toArray();
+		int[] values = new int[size];
+		int count = 0;
+		if (blocks != null) {
+			for (int i = 0; i < blockCount; i++) {
+				System.arraycopy(blocks[i], 0, values, count, blockSizes[i]);
+				count += blockSizes[i];
+			}
+			return values;
+		}
+		for (int each : slots) {
+			if (each >= 0)
+				values[count++] = each;
+		}
+		return values;
+	}
+
+	// copy of all elements in ascending order
+	public int[] toSortedArray() {
+		int[] values = toArray();
+		if ((blocks == null) && (bitmap == null))
+			Arrays.sort(values);
+		return values;
+	}
+
+	// the (at most) max smallest elements greater than after, in ascending
+	// order; pass -1 to start and the last element returned to go on. In
+	// chunked mode this takes time proportional to max, not to the size of
+	// the set, and it can be resumed after the set has changed.
+	public int[] chunkAfter(int after, int max) {
+		if (bitmap != null)
+			return bitmap.chunkAfter(after, max);
+		if ((max <= 0) || (size == 0))
+			return new int[0];
+		if (blocks == null) {
+			int[] sorted = toSortedArray();
+			int from = Arrays.binarySearch(sorted, after);
+			from = (from >= 0) ? from + 1 : -from - 1;
+			return Arrays.copyOfRange(sorted, from, from + Math.min(max, sorted.length - from));
+		}
+		int[] chunk = new int[Math.min(max, size)];
+		int count = 0;
+		int block = blockOf(after);
+		int at = Arrays.binarySearch(blocks[block], 0, blockSizes[block], after);
+		at = (at >= 0) ? at + 1 : -at - 1;
+		while ((count < chunk.length) && (block < blockCount)) {
+			int taken = Math.min(chunk.length - count, blockSizes[block] - at);
+			System.arraycopy(blocks[block], at, chunk, count, taken);
+			count += taken;
+			block++;
+			at = 0;
+		}
+		return (count == chunk.length) ? chunk : Arrays.copyOf(chunk, count);
+	}
+
+	// iterates the elements; remove() is supported, other modifications
+	// during iteration are not
+	public PrimitiveIterator.OfInt iterator() {
+		if (bitmap != null)
+			return bitmap.iterator();
+		if (blocks != null)
+			return chunkedIterator();
+		return new PrimitiveIterator.OfInt() {
+
+			private final int[] table = slots;
+
+			private int next = advance(0);
+
+			private int last = -1;
+
+			private int advance(int from) {
+				while ((from < table.length) && (table[from] < 0))
+					from++;
+				return from;
+			}
+
+			public boolean hasNext() {
+				return next < table.length;
+			}
+
+			public int nextInt() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				last = next;
+				next = advance(next + 1);
+				return table[last];
+			}
+
+			public void remove() {
+				if ((last < 0) || (table != slots))
+					throw new IllegalStateException();
+				if (table[last] >= 0) {
+					table[last] = REMOVED;
+					size--;
+				}
+				last = -1;
+			}
+		};
+	}
+
+	// number of elements in both one and other
+	public static int intersectionSize(IntSet one, IntSet other) {
+		if ((one.bitmap != null) && (other.bitmap != null))
+			return IdBitmap.andCardinality(one.bitmap, other.bitmap);
+		if (one.size() > other.size())
+			return intersectionSize(other, one);
+		int count = 0;
+		for (PrimitiveIterator.OfInt each = one.iterator(); each.hasNext();) {
+			if (other.contains(each.nextInt()))
+				count++;
+		}
+		return count;
+	}
+
+	// elements in both one and other, in ascending order. The smaller set is
+	// sorted and probed into the larger one, so this takes time and space
+	// proportional to the smaller set; two bitmaps are and-ed a word at a time.
+	public static int[] intersection(IntSet one, IntSet other) {
+		if ((one.bitmap != null) && (other.bitmap != null))
+			return IdBitmap.and(one.bitmap, other.bitmap).toArray();
+		if (one.size() > other.size())
+			return intersection(other, one);
+		int[] values = one.toSortedArray();
+		int count = 0;
+		for (int each : values) {
+			if (other.contains(each))
+				values[count++] = each;
+		}
+		return (count == values.length) ? values : Arrays.copyOf(values, count);
+	}
+
+	// remove the elements of other from this set; returns true if any was
+	// removed
+	public boolean removeAll(IntSet other) {
+		int before = size();
+		if ((bitmap != null) && (other.bitmap != null)) {
+			bitmap = IdBitmap.andNot(bitmap, other.bitmap);
+		} else if (other.size() < size() / 8) {
+			for (PrimitiveIterator.OfInt each = other.iterator(); each.hasNext();)
+				remove(each.nextInt());
+		} else {
+			keepOnly(other, false);
+		}
+		return size() != before;
+	}
+
+	// keep only the elements that are also in other; returns true if any was
+	// removed
+	public boolean retainAll(IntSet other) {
+		int before = size();
+		if ((bitmap != null) && (other.bitmap != null)) {
+			bitmap = IdBitmap.and(bitmap, other.bitmap);
+		} else {
+			keepOnly(other, true);
+		}
+		return size() != before;
+	}
+
+	// keep the elements that are (inOther) or aren't in other, rebuilding the
+	// set once instead of removing elements one by one
+	private void keepOnly(IntSet other, boolean inOther) {
+		int[] values = toSortedArray();
+		int kept = 0;
+		for (int each : values) {
+			if (other.contains(each) == inOther)
+				values[kept++] = each;
+		}
+		if (kept == values.length)
+			return;
+		clear();
+		if ((kept > CHUNKED_SIZE) && (bitmap == null)) {
+			toBlocks(values, kept);
+			return;
+		}
+		for (int i = 0; i < kept; i++)
+			add(values[i]);
+	}
+
+	// true if every element of other is in this set
+	public boolean containsAll(IntSet other) {
+		if (other.size() > size())
+			return false;
+		return intersectionSize(this, other) == other.size();
+	}
+
+	// iterates a chunked set in ascending order, a chunk at a time
+	private PrimitiveIterator.OfInt chunkedIterator() {
+		return new PrimitiveIterator.OfInt() {
+
+			private int[] chunk = chunkAfter(-1, 256);
+
+			private int next = 0;
+
+			private int last = -1;
+
+			private boolean removable = false;
+
+			public boolean hasNext() {
+				if ((next == chunk.length) && (chunk.length > 0)) {
+					chunk = chunkAfter(chunk[chunk.length - 1], 256);
+					next = 0;
+				}
+				return next < chunk.length;
+			}
+
+			public int nextInt() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				last = chunk[next++];
+				removable = true;
+				return last;
+			}
+
+			public void remove() {
+				if (!removable)
+					throw new IllegalStateException();
+				IntSet.this.remove(last);
+				removable = false;
+			}
+		};
+	}
+
+	// index of the block that holds value, or would hold it
+	private int blockOf(int value) {
+		int low = 0;
+		int high = blockCount - 1;
+		// the last block whose first element is not above value, else the first
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (firsts[middle] <= value)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	// switch from table to chunked mode
+	private void toBlocks() {
+		int[] sorted = toSortedArray();
+		toBlocks(sorted, sorted.length);
+	}
+
+	// replace the elements with the first length of sorted, in chunked mode,
+	// filling blocks to three quarters
+	private void toBlocks(int[] sorted, int length) {
+		int fill = BLOCK_SIZE * 3 / 4;
+		int count = (length + fill - 1) / fill;
+		blocks = new int[Math.max(4, count * 2)][];
+		blockSizes = new int[blocks.length];
+		firsts = new int[blocks.length];
+		sharedBlocks = new boolean[blocks.length];
+		for (int i = 0; i < count; i++) {
+			blocks[i] = new int[BLOCK_SIZE];
+			blockSizes[i] = Math.min(fill, length - i * fill);
+			System.arraycopy(sorted, i * fill, blocks[i], 0, blockSizes[i]);
+			firsts[i] = sorted[i * fill];
+		}
+		blockCount = count;
+		size = length;
+		slots = NO_SLOTS;
+		used = 0;
+	}
+
+	private boolean addToBlock(int value) {
+		int block = blockOf(value);
+		int at = Arrays.binarySearch(blocks[block], 0, blockSizes[block], value);
+		if (at >= 0)
+			return false;
+		at = -at - 1;
+		if (blockSizes[block] == BLOCK_SIZE) {
+			splitBlock(block);
+			if (at > BLOCK_SIZE / 2) {
+				block++;
+				at -= BLOCK_SIZE / 2;
+			}
+		}
+		int[] values = writableBlock(block);
+		System.arraycopy(values, at, values, at + 1, blockSizes[block] - at);
+		values[at] = value;
+		blockSizes[block]++;
+		firsts[block] = values[0];
+		size++;
+		return true;
+	}
+
+	// move the upper half of a full block into a new block after it
+	private void splitBlock(int block) {
+		if (blockCount == blocks.length) {
+			blocks = Arrays.copyOf(blocks, blockCount * 2);
+			blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+			firsts = Arrays.copyOf(firsts, blockCount * 2);
+			sharedBlocks = Arrays.copyOf(sharedBlocks, blockCount * 2);
+		}
+		System.arraycopy(blocks, block + 1, blocks, block + 2, blockCount - block - 1);
+		System.arraycopy(blockSizes, block + 1, blockSizes, block + 2, blockCount - block - 1);
+		System.arraycopy(firsts, block + 1, firsts, block + 2, blockCount - block - 1);
+		System.arraycopy(sharedBlocks, block + 1, sharedBlocks, block + 2, blockCount - block - 1);
+		sharedBlocks[block + 1] = false;
+		int half = BLOCK_SIZE / 2;
+		blocks[block + 1] = new int[BLOCK_SIZE];
+		System.arraycopy(blocks[block], half, blocks[block + 1], 0, BLOCK_SIZE - half);
+		blockSizes[block + 1] = BLOCK_SIZE - half;
+		blockSizes[block] = half;
+		firsts[block + 1] = blocks[block + 1][0];
+		blockCount++;
+	}
+
+	// remove a value known to be in the set
+	private void removeFromBlock(int value) {
+		int block = blockOf(value);
+		int[] values = writableBlock(block);
+		int at = Arrays.binarySearch(values, 0, blockSizes[block], value);
+		System.arraycopy(values, at + 1, values, at, blockSizes[block] - at - 1);
+		blockSizes[block]--;
+		firsts[block] = values[0];
+		size--;
+		if (blockSizes[block] == 0) {
+			System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+			System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block - 1);
+			System.arraycopy(firsts, block + 1, firsts, block, blockCount - block - 1);
+			System.arraycopy(sharedBlocks, block + 1, sharedBlocks, block, blockCount - block - 1);
+			blockCount--;
+			blocks[blockCount] = null;
+		}
+		if (size <= CHUNKED_SIZE / 4) {
+			int[] remaining = toArray();
+			clear();
+			for (int each : remaining)
+				add(each);
+		}
+	}
+
+	// slot holding value, or the FREE slot ending its probe chain
+	private int indexOf(int value) {
+		int mask = slots.length - 1;
+		int index = mix(value) & mask;
+		while ((slots[index] != FREE) && (slots[index] != value))
+			index = (index + 1) & mask;
+		return index;
+	}
+
+	private void rehash(int capacity) {
+		int[] old = slots;
+		slots = new int[capacity];
+		Arrays.fill(slots, FREE);
+		size = 0;
+		used = 0;
+		for (int each : old) {
+			if (each >= 0)
+				add(each);
+		}
+	}
+
+	// spread sequential ids over the table
+	private static int mix(int value) {
+		int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
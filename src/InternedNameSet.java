@@ -0,0 +1,144 @@
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+// Live Set<String> view over an IntSet of interned user ids. Lets Account keep
+// its String-based API while the relation itself is stored as primitive ints.
+public class InternedNameSet extends AbstractSet<String> {
+
+	private final IntSet ids;
+
+	private final UserNameInterner names;
+
+	// run before every change, or null
+	private final Runnable beforeChange;
+
+	// given the change in size after every change, or null
+	private final IntConsumer resized;
+
+	public InternedNameSet(IntSet ids, UserNameInterner names) {
+		this(ids, names, null);
+	}
+
+	// view that runs beforeChange before changing ids, e.g. to keep a copy
+	// of the old state
+	InternedNameSet(IntSet ids, UserNameInterner names, Runnable beforeChange) {
+		this(ids, names, beforeChange, null);
+	}
+
+	// view that also tells resized by how much each change changed the size,
+	// e.g. to keep a count over many sets
+	InternedNameSet(IntSet ids, UserNameInterner names, Runnable beforeChange, IntConsumer resized) {
+		this.ids = ids;
+		this.names = names;
+		this.beforeChange = beforeChange;
+		this.resized = resized;
+	}
+
+	private void changing() {
+		if (beforeChange != null)
+			beforeChange.run();
+	}
+
+	private void resized(int delta) {
+		if ((resized != null) && (delta != 0))
+			resized.accept(delta);
+	}
+
+	@Override
+	public int size() {
+		return ids.size();
+	}
+
+	@Override
+	public boolean contains(Object userName) {
+		int id = names.idOf(userName);
+		return (id >= 0) && ids.contains(id);
+	}
+
+	@Override
+	public boolean add(String userName) {
+		changing();
+		if (!ids.add(names.intern(userName)))
+			return false;
+		resized(1);
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object userName) {
+		changing();
+		int id = names.idOf(userName);
+		if ((id < 0) || !ids.remove(id))
+			return false;
+		resized(-1);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		changing();
+		int before = ids.size();
+		ids.clear();
+		resized(-before);
+	}
+
+	// with another InternedNameSet of the same interner, the ids are compared
+	// directly, without a String per element
+	@Override
+	public boolean removeAll(Collection<?> userNames) {
+		changing();
+		if (!sameInterner(userNames))
+			return super.removeAll(userNames);
+		int before = ids.size();
+		ids.removeAll(((InternedNameSet) userNames).ids);
+		resized(ids.size() - before);
+		return ids.size() != before;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> userNames) {
+		changing();
+		if (!sameInterner(userNames))
+			return super.retainAll(userNames);
+		int before = ids.size();
+		ids.retainAll(((InternedNameSet) userNames).ids);
+		resized(ids.size() - before);
+		return ids.size() != before;
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> userNames) {
+		if (sameInterner(userNames))
+			return ids.containsAll(((InternedNameSet) userNames).ids);
+		return super.containsAll(userNames);
+	}
+
+	private boolean sameInterner(Collection<?> userNames) {
+		return (userNames instanceof InternedNameSet) && (((InternedNameSet) userNames).names == names);
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		final PrimitiveIterator.OfInt each = ids.iterator();
+		return new Iterator<String>() {
+
+			public boolean hasNext() {
+				return each.hasNext();
+			}
+
+			public String next() {
+				return names.nameOf(each.nextInt());
+			}
+
+			public void remove() {
+				changing();
+				each.remove();
+				resized(-1);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Thread-safe histogram of latencies in nanoseconds, with log-linear buckets
+// in the style of HdrHistogram: values below 64 ns are counted exactly,
+// larger ones in 32 buckets per power of two, i.e. to within about 3%.
+// Recording is a few atomic increments and never allocates or locks, so it
+// can stay on permanently. Values from 2^40 ns (about 18 minutes) up share
+// the last bucket; the maximum is still tracked exactly.
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final long LARGEST_TRACKED = (1L << 40) - 1;
+
+	private static final int BUCKETS = bucketOf(LARGEST_TRACKED) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder total = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	// index of the bucket counting nanos
+	static int bucketOf(long nanos) {
+		long value = Math.min(Math.max(nanos, 0), LARGEST_TRACKED);
+		if (value < 2 * SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	// largest value counted in bucket
+	static long highestOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	public void record(long nanos) {
+		// only a misbehaving clock gives negative latencies; count them as 0
+		nanos = Math.max(nanos, 0);
+		counts.incrementAndGet(bucketOf(nanos));
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	// a copy of the counts so far. Recording may go on meanwhile, so the copy
+	// may include part of the latencies recorded while it is taken.
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, total.sum(), max.get());
+	}
+
+	// immutable counts of a LatencyHistogram
+	public static class Snapshot {
+
+		private final long[] counts;
+
+		private final long count;
+
+		private final long total;
+
+		private final long max;
+
+		Snapshot(long[] counts, long count, long total, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+		}
+
+		// number of latencies recorded
+		public long count() {
+			return count;
+		}
+
+		// sum of all latencies
+		public long totalNanos() {
+			return total;
+		}
+
+		public double meanNanos() {
+			return (count == 0) ? 0 : (double) total / count;
+		}
+
+		public long maxNanos() {
+			return max;
+		}
+
+		// latency that a share percentile / 100 of the latencies didn't exceed,
+		// e.g. percentile(99.9), to bucket precision; 0 if nothing was recorded
+		public long percentile(double percentile) {
+			if ((percentile < 0) || (percentile > 100))
+				throw new IllegalArgumentException("percentile must be between 0 and 100");
+			if (count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				// the last bucket has no upper bound
+				if ((seen >= rank) && (i < counts.length - 1))
+					return Math.min(highestOf(i), max);
+			}
+			return max;
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Transport to shards in this process, for tests and single-node use. Calls
+// go straight to the SocialShards; they are counted, to tell how much a
+// remote transport would have to carry.
+public class LoopbackShardTransport implements ShardTransport {
+
+	private final ShardNode[] shards;
+
+	private final AtomicLong calls = new AtomicLong();
+
+	public LoopbackShardTransport(int shardCount) {
+		if (shardCount <= 0)
+			throw new IllegalArgumentException("shardCount must be positive");
+		shards = new ShardNode[shardCount];
+		for (int i = 0; i < shardCount; i++)
+			shards[i] = new SocialShard();
+	}
+
+	public int shardCount() {
+		return shards.length;
+	}
+
+	public ShardNode shard(int shard) {
+		calls.incrementAndGet();
+		return shards[shard];
+	}
+
+	// number of shard calls made so far; each shard() lookup is taken as one
+	public long calls() {
+		return calls.get();
+	}
+
+}
@@ -0,0 +1,350 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Read-only view of a social network snapshot file, memory-mapped so that
+// opening it is nearly instant: nothing is read until it is queried, and
+// queries read only the bytes they need straight from the mapping. Call
+// restoreInto to turn the snapshot back into live accounts.
+//
+// A snapshot saved together with a WriteAheadLog records how far the log had
+// got (logPosition). To recover, restore the snapshot and replay only the
+// rest of the log:
+//   MappedGraph snapshot = MappedGraph.open(snapshotFile);
+//   SocialNetwork sn = SocialNetwork.fromSnapshot(snapshot);
+//   WriteAheadLog.replay(logFile, snapshot.logPosition(), sn::apply);
+// Replaying the whole log on top of a snapshot would apply its changes twice.
+//
+// File layout (big-endian):
+// - header: magic, format version, member count, padding, log position
+//   (long), then the file offsets of the sections below (longs)
+// - members, sorted by user name: N + 1 int offsets into a UTF-8 name blob,
+//   followed by the blob
+// - auto-accept flags: one byte per member
+// - per AccountRelation, in CSR form: N + 1 int offsets into a target array,
+//   followed by the targets, the member indexes of each member's relation in
+//   ascending order
+public class MappedGraph {
+
+	private static final int MAGIC = 0x534E4731; // "SNG1"
+
+	private static final int FORMAT_VERSION = 2;
+
+	private static final int RELATIONS = AccountRelation.values().length;
+
+	// magic, version, member count, padding, log position, then
+	// 3 + 2 * RELATIONS offsets
+	private static final int HEADER_SIZE = 24 + 8 * (3 + 2 * RELATIONS);
+
+	private final ByteBuffer buffer;
+
+	private final int memberCount;
+
+	private final long logPosition;
+
+	private final int nameOffsets;
+
+	private final int nameBlob;
+
+	private final int flags;
+
+	private final int[] relationOffsets = new int[RELATIONS];
+
+	private final int[] relationTargets = new int[RELATIONS];
+
+	private MappedGraph(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC))
+			throw new IOException("not a social network snapshot");
+		if (buffer.getInt(4) != FORMAT_VERSION)
+			throw new IOException("unsupported snapshot version " + buffer.getInt(4));
+		memberCount = buffer.getInt(8);
+		logPosition = buffer.getLong(16);
+		if (logPosition < 0)
+			throw new IOException("corrupt snapshot header");
+		nameOffsets = section(0);
+		nameBlob = section(1);
+		flags = section(2);
+		for (int r = 0; r < RELATIONS; r++) {
+			relationOffsets[r] = section(3 + 2 * r);
+			relationTargets[r] = section(4 + 2 * r);
+		}
+	}
+
+	private int section(int index) throws IOException {
+		long offset = buffer.getLong(24 + 8 * index);
+		if ((offset < HEADER_SIZE) || (offset > buffer.capacity()))
+			throw new IOException("corrupt snapshot header");
+		return (int) offset;
+	}
+
+	// map a snapshot file written by write
+	public static MappedGraph open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("snapshot larger than 2 GB can't be mapped at once");
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new MappedGraph(mapped);
+		}
+	}
+
+	public int memberCount() {
+		return memberCount;
+	}
+
+	// byte offset in the write-ahead log saved with this snapshot of the
+	// first change the snapshot doesn't hold; 0 if it was saved without a log
+	public long logPosition() {
+		return logPosition;
+	}
+
+	// user name of the member at index (members are sorted by user name)
+	public String nameAt(int index) {
+		int start = buffer.getInt(nameOffsets + 4 * index);
+		int end = buffer.getInt(nameOffsets + 4 * (index + 1));
+		byte[] bytes = new byte[end - start];
+		ByteBuffer name = buffer.duplicate();
+		name.position(nameBlob + start);
+		name.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// index of the member with user name userName, or -1 if there is none
+	public int indexOf(String userName) {
+		int low = 0;
+		int high = memberCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int order = nameAt(middle).compareTo(userName);
+			if (order < 0)
+				low = middle + 1;
+			else if (order > 0)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	public boolean hasMember(String userName) {
+		return indexOf(userName) >= 0;
+	}
+
+	public boolean autoAcceptsFriendships(String userName) {
+		int index = indexOf(userName);
+		return (index >= 0) && (buffer.get(flags + index) != 0);
+	}
+
+	// user names that member userName has relation with; empty if there is no
+	// such member
+	public List<String> relationOf(AccountRelation relation, String userName) {
+		int index = indexOf(userName);
+		List<String> names = new ArrayList<String>();
+		if (index < 0)
+			return names;
+		int offsets = relationOffsets[relation.ordinal()];
+		int targets = relationTargets[relation.ordinal()];
+		int end = buffer.getInt(offsets + 4 * (index + 1));
+		for (int i = buffer.getInt(offsets + 4 * index); i < end; i++)
+			names.add(nameAt(buffer.getInt(targets + 4 * i)));
+		return names;
+	}
+
+	// true if member userName has relation with member other; a binary search
+	// in userName's row
+	public boolean hasRelation(AccountRelation relation, String userName, String other) {
+		int index = indexOf(userName);
+		int otherIndex = indexOf(other);
+		if ((index < 0) || (otherIndex < 0))
+			return false;
+		int offsets = relationOffsets[relation.ordinal()];
+		int targets = relationTargets[relation.ordinal()];
+		int low = buffer.getInt(offsets + 4 * index);
+		int high = buffer.getInt(offsets + 4 * (index + 1)) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int target = buffer.getInt(targets + 4 * middle);
+			if (target < otherIndex)
+				low = middle + 1;
+			else if (target > otherIndex)
+				high = middle - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	// add all members of the snapshot, with their relations and auto-accept
+	// switches, to graph, which should have no members yet. Changes are not
+	// reported to the graph's listeners.
+	void restoreInto(SocialGraph graph) {
+		String[] names = new String[memberCount];
+		Account[] accounts = new Account[memberCount];
+		for (int i = 0; i < memberCount; i++) {
+			names[i] = nameAt(i);
+			accounts[i] = graph.restoreAccount(names[i], buffer.get(flags + i) != 0);
+		}
+		for (AccountRelation relation : AccountRelation.values()) {
+			int offsets = relationOffsets[relation.ordinal()];
+			int targets = relationTargets[relation.ordinal()];
+			for (int i = 0; i < memberCount; i++) {
+				if (accounts[i] == null)
+					continue;
+				Collection<String> row = relation.of(accounts[i]);
+				int end = buffer.getInt(offsets + 4 * (i + 1));
+				for (int t = buffer.getInt(offsets + 4 * i); t < end; t++)
+					row.add(names[buffer.getInt(targets + 4 * t)]);
+			}
+		}
+		graph.publishMembers();
+	}
+
+	// write all members of accounts to file. Relations with names that are not
+	// (or no longer) members are left out. The accounts must not change while
+	// they are written. logPosition is the write-ahead log position the
+	// accounts are at.
+	static void write(Collection<Account> accounts, long logPosition, Path file) throws IOException {
+		final Account[] members = accounts.toArray(new Account[0]);
+		Arrays.sort(members, (one, other) -> one.getUserName().compareTo(other.getUserName()));
+		String[] userNames = new String[members.length];
+		for (int i = 0; i < members.length; i++)
+			userNames[i] = members[i].getUserName();
+		write(userNames, new Source() {
+			public boolean autoAccepts(int member) {
+				return members[member].autoAcceptsFriendships();
+			}
+
+			public Collection<String> relation(int member, AccountRelation relation) {
+				return relation.of(members[member]);
+			}
+		}, logPosition, file);
+	}
+
+	// write all members of a pinned version, which is at write-ahead log
+	// position logPosition, to file; the network may change while it is
+	// written
+	static void write(final GraphVersion version, long logPosition, Path file) throws IOException {
+		final String[] userNames = version.members().toArray(new String[0]);
+		Arrays.sort(userNames);
+		write(userNames, new Source() {
+			public boolean autoAccepts(int member) {
+				return version.autoAcceptsFriendships(userNames[member]);
+			}
+
+			public Collection<String> relation(int member, AccountRelation relation) {
+				return version.relation(userNames[member], relation);
+			}
+		}, logPosition, file);
+	}
+
+	// what is written of each member, by index in user name order
+	private interface Source {
+		boolean autoAccepts(int member);
+
+		Collection<String> relation(int member, AccountRelation relation);
+	}
+
+	// write the members userNames, sorted, with what source has of them
+	private static void write(String[] userNames, Source source, long logPosition, Path file) throws IOException {
+		int count = userNames.length;
+		Map<String, Integer> indexes = new HashMap<String, Integer>(count * 2);
+		for (int i = 0; i < count; i++)
+			indexes.put(userNames[i], i);
+
+		long[] sections = new long[3 + 2 * RELATIONS];
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.position(HEADER_SIZE);
+			CountingOutput out = new CountingOutput(channel, HEADER_SIZE);
+
+			byte[][] names = new byte[count][];
+			sections[0] = out.position();
+			int nameOffset = 0;
+			out.writeInt(0);
+			for (int i = 0; i < count; i++) {
+				names[i] = userNames[i].getBytes(StandardCharsets.UTF_8);
+				nameOffset += names[i].length;
+				out.writeInt(nameOffset);
+			}
+			sections[1] = out.position();
+			for (byte[] each : names)
+				out.write(each);
+			sections[2] = out.position();
+			for (int i = 0; i < count; i++)
+				out.writeByte(source.autoAccepts(i) ? 1 : 0);
+
+			for (AccountRelation relation : AccountRelation.values()) {
+				sections[3 + 2 * relation.ordinal()] = out.position();
+				long edges = 0;
+				out.writeInt(0);
+				for (int i = 0; i < count; i++) {
+					edges += row(source.relation(i, relation), indexes).length;
+					if (edges > Integer.MAX_VALUE)
+						throw new IOException("too many " + relation + " edges for one snapshot");
+					out.writeInt((int) edges);
+				}
+				sections[4 + 2 * relation.ordinal()] = out.position();
+				for (int i = 0; i < count; i++) {
+					for (int target : row(source.relation(i, relation), indexes))
+						out.writeInt(target);
+				}
+			}
+			out.flush();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("snapshot larger than 2 GB");
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(count).putInt(0).putLong(logPosition);
+			for (long each : sections)
+				header.putLong(each);
+			header.flip();
+			channel.write(header, 0);
+			channel.force(true);
+		}
+	}
+
+	// sorted member indexes of the members in names
+	private static int[] row(Collection<String> names, Map<String, Integer> indexes) {
+		int[] row = new int[names.size()];
+		int size = 0;
+		for (String each : names) {
+			Integer index = indexes.get(each);
+			if (index != null)
+				row[size++] = index;
+		}
+		row = Arrays.copyOf(row, size);
+		Arrays.sort(row);
+		return row;
+	}
+
+	// buffered output to a channel that knows its file position
+	private static class CountingOutput extends DataOutputStream {
+
+		private final long start;
+
+		CountingOutput(FileChannel channel, long start) {
+			super(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			this.start = start;
+		}
+
+		// only exact below 2 GB, where DataOutputStream stops counting; larger
+		// snapshots are rejected after writing
+		long position() {
+			return start + size();
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+import java.util.Collections;
+import java.util.List;
+
+// One page of a member listing. Pass getNextCursor() back to the listing to
+// get the following page; it is null on the last page. Cursors stay valid
+// while members join and leave: members who joined after the listing started
+// show up on later pages, members who left are skipped.
+public class MemberPage {
+
+	private final List<String> members;
+
+	private final String nextCursor;
+
+	public MemberPage(List<String> members, String nextCursor) {
+		this.members = Collections.unmodifiableList(members);
+		this.nextCursor = nextCursor;
+	}
+
+	// user names on this page
+	public List<String> getMembers() {
+		return members;
+	}
+
+	// cursor of the next page, or null if this is the last page
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public boolean hasNextPage() {
+		return nextCursor != null;
+	}
+
+}
@@ -0,0 +1,270 @@
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntPredicate;
+
+// Immutable, versioned set of the members of a social network, one bit per
+// interned user id. A join or leave publishes a new snapshot that shares all
+// but one chunk of bits with the previous one, so writes copy a few KB at most
+// and readers can use a snapshot without locking or copying it.
+//
+// A snapshot and its views are unmodifiable sets of user names, equal to
+// any set with the same user names.
+public final class MembershipSnapshot extends AbstractSet<String> {
+
+	// 2^12 = 4096 ids per chunk of 64 longs
+	private static final int CHUNK_SHIFT = 12;
+
+	private static final int WORDS_PER_CHUNK = 1 << (CHUNK_SHIFT - 6);
+
+	private final UserNameInterner names;
+
+	private final long version;
+
+	private final int size;
+
+	// chunks[c] holds the bits of ids c * 4096 ... c * 4096 + 4095, or is null
+	// if none of them is a member
+	private final long[][] chunks;
+
+	private MembershipSnapshot(UserNameInterner names, long version, int size, long[][] chunks) {
+		this.names = names;
+		this.version = version;
+		this.size = size;
+		this.chunks = chunks;
+	}
+
+	// snapshot without members, at version 0
+	public static MembershipSnapshot empty(UserNameInterner names) {
+		return new MembershipSnapshot(names, 0, 0, new long[0][]);
+	}
+
+	// number of changes that led to this snapshot
+	public long version() {
+		return version;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object userName) {
+		return containsId(names.idOf(userName));
+	}
+
+	public boolean containsId(int id) {
+		if (id < 0)
+			return false;
+		int chunk = id >>> CHUNK_SHIFT;
+		if ((chunk >= chunks.length) || (chunks[chunk] == null))
+			return false;
+		return (chunks[chunk][(id >>> 6) & (WORDS_PER_CHUNK - 1)] & (1L << id)) != 0;
+	}
+
+	// next snapshot, with id added
+	public MembershipSnapshot with(int id) {
+		if (containsId(id))
+			return this;
+		int chunk = id >>> CHUNK_SHIFT;
+		long[][] newChunks = Arrays.copyOf(chunks, Math.max(chunks.length, chunk + 1));
+		long[] bits = (newChunks[chunk] == null) ? new long[WORDS_PER_CHUNK] : newChunks[chunk].clone();
+		bits[(id >>> 6) & (WORDS_PER_CHUNK - 1)] |= 1L << id;
+		newChunks[chunk] = bits;
+		return new MembershipSnapshot(names, version + 1, size + 1, newChunks);
+	}
+
+	// next snapshot, with id removed
+	public MembershipSnapshot without(int id) {
+		if (!containsId(id))
+			return this;
+		int chunk = id >>> CHUNK_SHIFT;
+		long[][] newChunks = chunks.clone();
+		long[] bits = newChunks[chunk].clone();
+		bits[(id >>> 6) & (WORDS_PER_CHUNK - 1)] &= ~(1L << id);
+		newChunks[chunk] = bits;
+		return new MembershipSnapshot(names, version + 1, size - 1, newChunks);
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+
+			private int next = nextId(0);
+
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			public String next() {
+				if (next < 0)
+					throw new NoSuchElementException();
+				int id = next;
+				next = nextId(id + 1);
+				return names.nameOf(id);
+			}
+		};
+	}
+
+	// smallest member id >= from, or -1 if there is none
+	public int nextId(int from) {
+		int chunk = from >>> CHUNK_SHIFT;
+		int word = (from >>> 6) & (WORDS_PER_CHUNK - 1);
+		long mask = -1L << from;
+		while (chunk < chunks.length) {
+			long[] bits = chunks[chunk];
+			if (bits != null) {
+				for (; word < WORDS_PER_CHUNK; word++) {
+					long found = bits[word] & mask;
+					if (found != 0)
+						return (chunk << CHUNK_SHIFT) + (word << 6) + Long.numberOfTrailingZeros(found);
+					mask = -1L;
+				}
+			}
+			chunk++;
+			word = 0;
+			mask = -1L;
+		}
+		return -1;
+	}
+
+	// at most pageSize members not in hidden, starting at cursor (null for the
+	// first page). The cursor is the id where the page starts.
+	public MemberPage page(String cursor, int pageSize, final Collection<String> hidden) {
+		return page(cursor, pageSize, new IntPredicate() {
+			public boolean test(int id) {
+				return hidden.contains(names.nameOf(id));
+			}
+		});
+	}
+
+	// at most pageSize members whose ids are not hidden, starting at cursor
+	public MemberPage page(String cursor, int pageSize, IntPredicate hidden) {
+		if (pageSize <= 0)
+			throw new IllegalArgumentException("pageSize must be positive");
+		int id = nextVisibleId(decodeCursor(cursor), hidden);
+		List<String> page = new ArrayList<String>(Math.min(pageSize, size));
+		while ((id >= 0) && (page.size() < pageSize)) {
+			page.add(names.nameOf(id));
+			id = nextVisibleId(id + 1, hidden);
+		}
+		return new MemberPage(page, (id < 0) ? null : Integer.toString(id));
+	}
+
+	private static int decodeCursor(String cursor) {
+		if (cursor == null)
+			return 0;
+		try {
+			int id = Integer.parseInt(cursor);
+			if (id >= 0)
+				return id;
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("invalid cursor " + cursor);
+	}
+
+	private int nextVisibleId(int from, IntPredicate hidden) {
+		int id = nextId(from);
+		while ((id >= 0) && hidden.test(id))
+			id = nextId(id + 1);
+		return id;
+	}
+
+	// view of the members not in hidden, e.g. the members visible to a user
+	// who is blocked by hidden. Only the ids of hidden are copied.
+	public Set<String> excluding(Collection<String> hidden) {
+		IntSet hiddenIds = new IntSet();
+		for (String each : hidden) {
+			int id = names.idOf(each);
+			if (id >= 0)
+				hiddenIds.add(id);
+		}
+		return excluding(hiddenIds);
+	}
+
+	// view of the members whose ids are not in hiddenIds, e.g. the ids of the
+	// users blocking the viewing user; hiddenIds must not change while the
+	// view is in use. Its size is counted over hiddenIds instead of all the
+	// members, once.
+	public Set<String> excluding(final IntSet hiddenIds) {
+		return view(hiddenIds::contains, hiddenIds);
+	}
+
+	// lazy view of the members whose ids are not hidden; hidden is tested
+	// while the view is iterated, and its size is counted by iterating it
+	public Set<String> excluding(IntPredicate hidden) {
+		return view(hidden, null);
+	}
+
+	// the members whose ids are not hidden; if hiddenIds is not null, it
+	// holds exactly the ids hidden rejects and doesn't change
+	private Set<String> view(final IntPredicate hidden, final IntSet hiddenIds) {
+		return new AbstractSet<String>() {
+
+			private int size = -1;
+
+			@Override
+			public boolean contains(Object userName) {
+				int id = names.idOf(userName);
+				return containsId(id) && !hidden.test(id);
+			}
+
+			@Override
+			public int size() {
+				if (hiddenIds == null) {
+					int count = 0;
+					for (Iterator<String> each = iterator(); each.hasNext(); each.next())
+						count++;
+					return count;
+				}
+				if (size < 0) {
+					int count = MembershipSnapshot.this.size;
+					for (PrimitiveIterator.OfInt each = hiddenIds.iterator(); each.hasNext();) {
+						if (containsId(each.nextInt()))
+							count--;
+					}
+					size = count;
+				}
+				return size;
+			}
+
+			// not sized, so that streams don't count the members up front
+			@Override
+			public Spliterator<String> spliterator() {
+				return Spliterators.spliteratorUnknownSize(iterator(),
+						Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+			}
+
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+
+					private int next = nextVisibleId(0, hidden);
+
+					public boolean hasNext() {
+						return next >= 0;
+					}
+
+					public String next() {
+						if (next < 0)
+							throw new NoSuchElementException();
+						int id = next;
+						next = nextVisibleId(id + 1, hidden);
+						return names.nameOf(id);
+					}
+				};
+			}
+		};
+	}
+
+}
@@ -0,0 +1,29 @@
+// The operations of a social network whose latency SocialNetworkMetrics
+// measures. Paged and streamed member listings count as LIST_MEMBERS, and
+// ranked recommendations as RECOMMEND_FRIENDS. RECOMMEND_ALL_FRIENDS is a
+// whole batch recommendation run. Mutual friend and connection queries are
+// FIND_CONNECTIONS.
+public enum NetworkOperation {
+
+	JOIN,
+	LOGIN,
+	LOGOUT,
+	LIST_MEMBERS,
+	HAS_MEMBER,
+	SEND_FRIENDSHIP,
+	BLOCK,
+	UNBLOCK,
+	CANCEL_FRIENDSHIP,
+	ACCEPT_FRIENDSHIP,
+	REJECT_FRIENDSHIP,
+	ACCEPT_ALL_FRIENDSHIPS,
+	REJECT_ALL_FRIENDSHIPS,
+	AUTO_ACCEPT,
+	CANCEL_AUTO_ACCEPT,
+	RECOMMEND_FRIENDS,
+	RECOMMEND_ALL_FRIENDS,
+	FIND_CONNECTIONS,
+	LEAVE,
+	APPLY_BATCH;
+
+}
@@ -0,0 +1,133 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Friend recommendations per member, kept until a change could alter them.
+// A member's recommendations only depend on the friendships within two hops
+// and on blocks between the member and a candidate, so the network's
+// accounts invalidate exactly the members whose neighborhood a change
+// touches, whether it is made through the network or through an Account,
+// instead of expiring entries after a while: a hit is always what
+// recommending again would return.
+//
+// At most capacity members are kept; the least recently used is evicted
+// first. Thread-safe: a member's recommendation computed while that member
+// was invalidated is not stored, as it may have read the state from before
+// the change. Invalidations of other members don't keep it from being
+// stored.
+public class RecommendationCache {
+
+	// invalidation stamps kept at least, whatever the capacity
+	private static final int MIN_STAMPS = 1024;
+
+	private final int capacity;
+
+	private final Map<String, Collection<String>> entries;
+
+	// counts invalidations, so that put can tell if one happened while the
+	// recommendations it stores were computed
+	private long generation = 0;
+
+	// the generation each recently invalidated member was last invalidated
+	// in, at most STAMPS of them
+	private final Map<String, Long> invalidatedIn;
+
+	// members invalidated but no longer in invalidatedIn count as invalidated
+	// in this generation
+	private long forgottenIn = 0;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	public RecommendationCache(final int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity must not be negative");
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, Collection<String>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Collection<String>> eldest) {
+				return size() > capacity;
+			}
+		};
+		final int stamps = Math.max(MIN_STAMPS, 4 * capacity);
+		this.invalidatedIn = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				if (size() <= stamps)
+					return false;
+				forgottenIn = Math.max(forgottenIn, eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	// a copy of the recommendations cached for userName, or null
+	public synchronized Collection<String> get(String userName) {
+		Collection<String> cached = entries.get(userName);
+		if (cached == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new HashSet<String>(cached);
+	}
+
+	// the generation to pass to put for recommendations computed from now on
+	public synchronized long generation() {
+		return generation;
+	}
+
+	// cache recommended for userName, unless userName was invalidated since
+	// generation was read
+	public synchronized void put(String userName, Collection<String> recommended, long generation) {
+		if (capacity == 0)
+			return;
+		Long invalidated = invalidatedIn.get(userName);
+		if (Math.max(forgottenIn, (invalidated == null) ? 0 : invalidated) <= generation)
+			entries.put(userName, Collections.unmodifiableSet(new HashSet<String>(recommended)));
+	}
+
+	// forget the recommendations of userName
+	public synchronized void invalidate(String userName) {
+		generation++;
+		invalidatedIn.put(userName, generation);
+		entries.remove(userName);
+	}
+
+	// forget the recommendations of every member named in userNames
+	public synchronized void invalidateAll(Collection<String> userNames) {
+		generation++;
+		for (String each : userNames) {
+			invalidatedIn.put(each, generation);
+			entries.remove(each);
+		}
+	}
+
+	public synchronized void clear() {
+		generation++;
+		forgottenIn = generation;
+		invalidatedIn.clear();
+		entries.clear();
+	}
+
+	// number of members with cached recommendations
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+}
@@ -0,0 +1,52 @@
+// Scores a friend-of-friend candidate for ranked recommendations. The score is
+// built in two steps so candidates never need a list of their common friends:
+// weightOf is summed over the common friends, then score turns that sum into
+// the final value. Higher scores rank first.
+public interface RecommendationScorer {
+
+	// contribution of one friend that user and candidate have in common
+	double weightOf(Account commonFriend);
+
+	// final score of candidate, given the number of common friends and the sum
+	// of their weights
+	double score(Account user, Account candidate, int commonFriends, double weight);
+
+	// number of common friends
+	RecommendationScorer COMMON_FRIENDS = new RecommendationScorer() {
+
+		public double weightOf(Account commonFriend) {
+			return 1;
+		}
+
+		public double score(Account user, Account candidate, int commonFriends, double weight) {
+			return commonFriends;
+		}
+	};
+
+	// Adamic-Adar: common friends with few friends of their own count more
+	RecommendationScorer ADAMIC_ADAR = new RecommendationScorer() {
+
+		public double weightOf(Account commonFriend) {
+			// a common friend has at least the user and the candidate as friends
+			return 1 / Math.log(Math.max(2, commonFriend.getFriends().size()));
+		}
+
+		public double score(Account user, Account candidate, int commonFriends, double weight) {
+			return weight;
+		}
+	};
+
+	// Jaccard: common friends relative to all friends of user and candidate
+	RecommendationScorer JACCARD = new RecommendationScorer() {
+
+		public double weightOf(Account commonFriend) {
+			return 1;
+		}
+
+		public double score(Account user, Account candidate, int commonFriends, double weight) {
+			int union = user.getFriends().size() + candidate.getFriends().size() - commonFriends;
+			return (union == 0) ? 0 : (double) commonFriends / union;
+		}
+	};
+
+}
@@ -0,0 +1,27 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Number of (member, other member) pairs per relation over all accounts of a
+// social network, kept up to date by the accounts as their relations change,
+// so that reading a count takes no pass over the accounts. Thread-safe; a
+// count read while relations change may miss the changes in progress.
+public class RelationCounts {
+
+	// by AccountRelation ordinal
+	private final LongAdder[] counts = new LongAdder[AccountRelation.values().length];
+
+	public RelationCounts() {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = new LongAdder();
+	}
+
+	// relation gained (or, if negative, lost) delta pairs
+	void changed(AccountRelation relation, int delta) {
+		counts[relation.ordinal()].add(delta);
+	}
+
+	// number of pairs in relation; a friendship counts once for each friend
+	public long count(AccountRelation relation) {
+		return counts[relation.ordinal()].sum();
+	}
+
+}
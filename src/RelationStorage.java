@@ -0,0 +1,16 @@
+// How the accounts of a social network store their relations, as sets of
+// interned user ids (see IntSet).
+public enum RelationStorage {
+
+	// hash tables, switching to sorted blocks for high-degree accounts: the
+	// fastest single-member lookups and changes
+	HASH,
+
+	// compressed IdBitmaps: intersections, differences and their sizes between
+	// relations, e.g. finding common friends, run a word of 64 ids at a time.
+	// Pays off when the related ids are dense, as they are when most members
+	// joined around the same time; on ids scattered across a large network it
+	// is only about twice as fast as HASH
+	BITMAP;
+
+}
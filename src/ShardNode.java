@@ -0,0 +1,45 @@
+import java.util.Collection;
+import java.util.Map;
+
+// The operations a ShardedSocialNetwork performs on one of its shards. A
+// shard holds the accounts of the members hashed to it; each relation between
+// members of different shards is kept as two halves, one on each member's
+// shard, and the network keeps the halves in step. All members are named by
+// user name and everything returned is a copy, so that a ShardTransport can
+// carry the calls to another node.
+public interface ShardNode {
+
+	// add a member; false if the name is empty or taken
+	public boolean join(String userName);
+
+	public boolean contains(String userName);
+
+	// user names of the members held by this shard
+	public Collection<String> members();
+
+	// number of members held by this shard
+	public int memberCount();
+
+	// remove a member; returns its relations, so that the other halves can be
+	// unlinked, or null if there is no such member
+	public Map<AccountRelation, Collection<String>> leave(String userName);
+
+	// the user names member has relation with; empty for a non-member
+	public Collection<String> relation(String member, AccountRelation relation);
+
+	public boolean hasRelation(String member, AccountRelation relation, String other);
+
+	// add other to (one half of) a relation of member; ignored for a
+	// non-member
+	public void addRelation(String member, AccountRelation relation, String other);
+
+	public void removeRelation(String member, AccountRelation relation, String other);
+
+	// the friends of each of members held by this shard, in one call, e.g. to
+	// expand a 2-hop neighborhood
+	public Map<String, Collection<String>> friendsOf(Collection<String> members);
+
+	public boolean autoAcceptsFriendships(String member);
+
+	public void setAutoAcceptFriendships(String member, boolean autoAccept);
+}
@@ -0,0 +1,9 @@
+// How a ShardedSocialNetwork reaches its shards, e.g. the shards of this
+// process (LoopbackShardTransport) or client stubs of shards on other nodes.
+public interface ShardTransport {
+
+	public int shardCount();
+
+	// the shard with index 0 <= shard < shardCount()
+	public ShardNode shard(int shard);
+}
@@ -0,0 +1,302 @@
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+// A social network whose accounts are hash-partitioned over the shards of a
+// ShardTransport, so that it can grow past what one node holds. Behaves like
+// SocialNetwork: one member is logged in at a time, and it must be used by
+// one thread at a time.
+//
+// A relation between members of different shards is kept as two halves, one
+// on each member's shard; an operation changes the actor's half on the
+// actor's shard and the other half on the target's shard. The two changes
+// are not atomic: should the target's shard fail in between, the halves
+// disagree until the operation is repeated. Recommendations are computed by
+// scatter-gather: the logged-in member's friends are grouped by shard, and
+// each shard holding some of them is asked for their friends in one call,
+// all shards at once.
+//
+// The Account handles join returns only identify a member; its relations are
+// held by the shards and are not reflected in the handle.
+public class ShardedSocialNetwork implements ISocialNetwork {
+
+	private final ShardTransport transport;
+
+	// user name of the logged-in member
+	private String currentUser = null;
+
+	public ShardedSocialNetwork(ShardTransport transport) {
+		this.transport = transport;
+	}
+
+	// network over shardCount shards in this process
+	public ShardedSocialNetwork(int shardCount) {
+		this(new LoopbackShardTransport(shardCount));
+	}
+
+	// index of the shard holding the account of userName
+	public int shardOf(String userName) {
+		int hash = userName.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), transport.shardCount());
+	}
+
+	private ShardNode shard(String userName) {
+		return transport.shard(shardOf(userName));
+	}
+
+	public Account join(String userName) {
+		if ((userName == null) || !shard(userName).join(userName))
+			return null;
+		return new Account(userName);
+	}
+
+	public Account login(Account me) {
+		currentUser = (me == null) ? null : me.getUserName();
+		return me;
+	}
+
+	public void logout() {
+		currentUser = null;
+	}
+
+	private String me() throws NoUserLoggedInException {
+		if (currentUser == null)
+			throw new NoUserLoggedInException("NoUser");
+		return currentUser;
+	}
+
+	// user names of all members
+	public Set<String> listAllMembers() {
+		Set<String> members = new HashSet<String>();
+		for (int i = 0; i < transport.shardCount(); i++)
+			members.addAll(transport.shard(i).members());
+		return members;
+	}
+
+	// a lazy view of the members, without those who had blocked the
+	// logged-in member when it was taken: only their names are copied up
+	// front. Each shard's members are fetched as iteration reaches it, and the
+	// size is counted from the shards' member counts.
+	public Collection<String> listMembers() throws NoUserLoggedInException {
+		final Set<String> blockers = new HashSet<String>(shard(me()).relation(me(), AccountRelation.BLOCKED_BY));
+		return new AbstractSet<String>() {
+
+			@Override
+			public boolean contains(Object userName) {
+				return (userName instanceof String) && !blockers.contains(userName)
+						&& shard((String) userName).contains((String) userName);
+			}
+
+			@Override
+			public int size() {
+				int size = 0;
+				for (int i = 0; i < transport.shardCount(); i++)
+					size += transport.shard(i).memberCount();
+				for (String each : blockers) {
+					if (shard(each).contains(each))
+						size--;
+				}
+				return size;
+			}
+
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+
+					private int shard = 0;
+
+					private Iterator<String> members = Collections.emptyIterator();
+
+					private String next = advance();
+
+					// the next visible member, fetching the following shards'
+					// members as needed, or null
+					private String advance() {
+						while (true) {
+							while (members.hasNext()) {
+								String each = members.next();
+								if (!blockers.contains(each))
+									return each;
+							}
+							if (shard == transport.shardCount())
+								return null;
+							members = transport.shard(shard++).members().iterator();
+						}
+					}
+
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					public String next() {
+						if (next == null)
+							throw new NoSuchElementException();
+						String each = next;
+						next = advance();
+						return each;
+					}
+				};
+			}
+		};
+	}
+
+	public boolean hasMember(String userName) throws NoUserLoggedInException {
+		String me = me();
+		return (userName != null) && shard(userName).contains(userName) && isVisible(me, userName);
+	}
+
+	// true unless target has blocked viewer
+	private boolean isVisible(String viewer, String target) {
+		return !shard(viewer).hasRelation(viewer, AccountRelation.BLOCKED_BY, target);
+	}
+
+	public void sendFriendshipTo(String userName) throws NoUserLoggedInException {
+		String me = me();
+		if ((userName == null) || !shard(userName).contains(userName) || !isVisible(me, userName))
+			return;
+		if (shard(me).hasRelation(me, AccountRelation.FRIENDS, userName))
+			return;
+		shard(userName).addRelation(userName, AccountRelation.INCOMING_REQUESTS, me);
+		shard(me).addRelation(me, AccountRelation.OUTGOING_REQUESTS, userName);
+		if (shard(userName).autoAcceptsFriendships(userName))
+			accept(userName, me);
+	}
+
+	// accepter accepts the request of requester, if there is one
+	private void accept(String accepter, String requester) {
+		if (!shard(requester).hasRelation(requester, AccountRelation.OUTGOING_REQUESTS, accepter)
+				|| !shard(accepter).hasRelation(accepter, AccountRelation.INCOMING_REQUESTS, requester))
+			return;
+		shard(requester).removeRelation(requester, AccountRelation.OUTGOING_REQUESTS, accepter);
+		shard(requester).addRelation(requester, AccountRelation.FRIENDS, accepter);
+		shard(accepter).removeRelation(accepter, AccountRelation.INCOMING_REQUESTS, requester);
+		shard(accepter).addRelation(accepter, AccountRelation.FRIENDS, requester);
+	}
+
+	// rejecter rejects any request of requester
+	private void reject(String rejecter, String requester) {
+		shard(requester).removeRelation(requester, AccountRelation.OUTGOING_REQUESTS, rejecter);
+		shard(rejecter).removeRelation(rejecter, AccountRelation.INCOMING_REQUESTS, requester);
+	}
+
+	private void unfriend(String one, String other) {
+		shard(one).removeRelation(one, AccountRelation.FRIENDS, other);
+		shard(other).removeRelation(other, AccountRelation.FRIENDS, one);
+	}
+
+	public void block(String userName) throws NoUserLoggedInException {
+		String me = me();
+		if ((userName == null) || !shard(userName).contains(userName))
+			return;
+		shard(me).addRelation(me, AccountRelation.BLOCKED_USERS, userName);
+		shard(userName).addRelation(userName, AccountRelation.BLOCKED_BY, me);
+		if (shard(me).hasRelation(me, AccountRelation.INCOMING_REQUESTS, userName))
+			reject(me, userName);
+		if (shard(me).hasRelation(me, AccountRelation.FRIENDS, userName))
+			unfriend(me, userName);
+	}
+
+	public void unblock(String userName) throws NoUserLoggedInException {
+		String me = me();
+		if (userName == null)
+			return;
+		shard(me).removeRelation(me, AccountRelation.BLOCKED_USERS, userName);
+		shard(userName).removeRelation(userName, AccountRelation.BLOCKED_BY, me);
+	}
+
+	public void sendFriendshipCancellationTo(String userName) throws NoUserLoggedInException {
+		String me = me();
+		if (userName != null)
+			unfriend(me, userName);
+	}
+
+	public void acceptFriendshipFrom(String userName) throws NoUserLoggedInException {
+		String me = me();
+		if (userName != null)
+			accept(me, userName);
+	}
+
+	public void rejectFriendshipFrom(String userName) throws NoUserLoggedInException {
+		String me = me();
+		if (userName != null)
+			reject(me, userName);
+	}
+
+	public void autoAcceptFriendships() throws NoUserLoggedInException {
+		shard(me()).setAutoAcceptFriendships(me(), true);
+	}
+
+	public void cancelAutoAcceptFriendships() throws NoUserLoggedInException {
+		shard(me()).setAutoAcceptFriendships(me(), false);
+	}
+
+	// members with at least FriendRecommender.MIN_COMMON_FRIENDS friends in
+	// common with the logged-in member, excluding its friends and members
+	// blocked by or blocking it, as SocialNetwork recommends
+	public Collection<String> recommendFriends() throws NoUserLoggedInException {
+		String me = me();
+		ShardNode home = shard(me);
+		Collection<String> friends = home.relation(me, AccountRelation.FRIENDS);
+		Collection<String> excluded = new HashSet<String>(friends);
+		excluded.addAll(home.relation(me, AccountRelation.BLOCKED_USERS));
+		excluded.addAll(home.relation(me, AccountRelation.BLOCKED_BY));
+		excluded.add(me);
+
+		final Map<Integer, Collection<String>> friendsByShard = new HashMap<Integer, Collection<String>>();
+		for (String each : friends) {
+			Integer shard = shardOf(each);
+			Collection<String> group = friendsByShard.get(shard);
+			if (group == null) {
+				group = new ArrayList<String>();
+				friendsByShard.put(shard, group);
+			}
+			group.add(each);
+		}
+		// scatter, then gather the common friend counts
+		final Map<String, Integer> commonFriends = new ConcurrentHashMap<String, Integer>();
+		IntStream.range(0, transport.shardCount()).parallel().filter(friendsByShard::containsKey).forEach(shard -> {
+			for (Collection<String> friendsOfFriend : transport.shard(shard).friendsOf(friendsByShard.get(shard))
+					.values()) {
+				for (String candidate : friendsOfFriend)
+					commonFriends.merge(candidate, 1, Integer::sum);
+			}
+		});
+		Collection<String> recommended = new HashSet<String>();
+		for (Map.Entry<String, Integer> each : commonFriends.entrySet()) {
+			if ((each.getValue() >= FriendRecommender.MIN_COMMON_FRIENDS) && !excluded.contains(each.getKey()))
+				recommended.add(each.getKey());
+		}
+		return recommended;
+	}
+
+	// leave the network and log out: every relation of the logged-in member
+	// is unlinked on the other members' shards
+	public void leave() throws NoUserLoggedInException {
+		String me = me();
+		Map<AccountRelation, Collection<String>> relations = shard(me).leave(me);
+		currentUser = null;
+		if (relations == null)
+			return;
+		for (String each : relations.get(AccountRelation.FRIENDS))
+			shard(each).removeRelation(each, AccountRelation.FRIENDS, me);
+		for (String each : relations.get(AccountRelation.INCOMING_REQUESTS))
+			shard(each).removeRelation(each, AccountRelation.OUTGOING_REQUESTS, me);
+		for (String each : relations.get(AccountRelation.OUTGOING_REQUESTS))
+			shard(each).removeRelation(each, AccountRelation.INCOMING_REQUESTS, me);
+		for (String each : relations.get(AccountRelation.BLOCKED_BY))
+			shard(each).removeRelation(each, AccountRelation.BLOCKED_USERS, me);
+		for (String each : relations.get(AccountRelation.BLOCKED_USERS))
+			shard(each).removeRelation(each, AccountRelation.BLOCKED_BY, me);
+	}
+
+}
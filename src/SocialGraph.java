@@ -0,0 +1,530 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+// The members of a social network and the operations on them, performed on
+// behalf of an acting member account. SocialNetwork and the session based
+// ConcurrentSocialNetwork keep track of who is logged in and delegate here.
+// Not accessible to outside: it hands out other members' accounts.
+class SocialGraph {
+
+	// members whose recommendations are cached
+	static final int RECOMMENDATION_CACHE_SIZE = 10000;
+
+	// members a bulk operation, e.g. accepting all requests, handles per step
+	static final int BULK_CHUNK = 1024;
+
+	private AccountDirectory accounts = new AccountDirectory();
+
+	// user name to id mapping shared by all accounts of this network
+	private UserNameInterner names = new UserNameInterner();
+
+	// who blocked whom, for visibility checks
+	private BlockIndex blocks = new BlockIndex(names);
+
+	private FriendRecommender recommender;
+
+	// mutual friends and paths between members
+	private FriendConnections connections;
+
+	// how new accounts store their relations
+	private final RelationStorage storage;
+
+	// recommendations of the members who asked for them recently
+	private final RecommendationCache recommendations;
+
+	// the current members; replaced by a new snapshot on every join and leave
+	private volatile MembershipSnapshot members = MembershipSnapshot.empty(names);
+
+	// versions of the graph pinned by long-running readers
+	private GraphVersions versions = new GraphVersions();
+
+	// number of pairs per relation over all accounts
+	private final RelationCounts relationCounts = new RelationCounts();
+
+	// locks guarding account relations when accounts change concurrently, or
+	// null if they don't
+	private final AccountLocks locks;
+
+	// notified of every change, in the order the changes are made
+	private List<GraphMutationListener> listeners = new CopyOnWriteArrayList<GraphMutationListener>();
+
+	SocialGraph() {
+		this(null);
+	}
+
+	// graph whose accounts are changed concurrently under the given locks
+	SocialGraph(AccountLocks locks) {
+		this(locks, RelationStorage.HASH);
+	}
+
+	SocialGraph(AccountLocks locks, RelationStorage storage) {
+		this(locks, storage, RECOMMENDATION_CACHE_SIZE);
+	}
+
+	// graph caching the recommendations of at most recommendationCacheSize
+	// members; 0 recommends afresh every time
+	SocialGraph(AccountLocks locks, RelationStorage storage, int recommendationCacheSize) {
+		this.recommendations = new RecommendationCache(recommendationCacheSize);
+		this.recommender = new FriendRecommender(accounts, locks, blocks);
+		this.connections = new FriendConnections(accounts, locks, blocks);
+		this.storage = storage;
+		this.locks = locks;
+	}
+
+	// join with a new user name; returns null if the name is empty or taken
+	Account join(String userName) {
+		Account newAccount = addAccount(userName);
+		if (newAccount != null) {
+			members = members.with(names.idOf(userName));
+			changed(GraphOperation.JOIN, userName, null);
+		}
+		return newAccount;
+	}
+
+	void addListener(GraphMutationListener listener) {
+		listeners.add(listener);
+	}
+
+	void removeListener(GraphMutationListener listener) {
+		listeners.remove(listener);
+	}
+
+	private void changed(GraphOperation operation, String actor, String target) {
+		for (GraphMutationListener each : listeners)
+			each.changed(operation, actor, target);
+	}
+
+	// tell the listeners that the changes made by the calling thread are done
+	// and no lock is held for them any more
+	void settled() {
+		for (GraphMutationListener each : listeners)
+			each.settled();
+	}
+
+	// create and add the account, without publishing a new membership
+	// snapshot
+	private Account addAccount(String userName) {
+		// new userName should be unique and not empty
+		if ((userName != null) && !userName.isEmpty() && !accounts.isTaken(userName)) {
+			Account newAccount = new Account(userName, names, storage, versions, relationCounts, recommendations);
+			accounts.add(newAccount);
+			return newAccount;
+		} else
+			return null;
+	}
+
+	// add a member restored from a snapshot, without reporting it to the
+	// listeners; call publishMembers once all members are restored
+	Account restoreAccount(String userName, boolean autoAccept) {
+		Account account = addAccount(userName);
+		if ((account != null) && autoAccept)
+			account.autoAcceptFriendships();
+		return account;
+	}
+
+	// rebuild the membership snapshot and the block index from the accounts
+	void publishMembers() {
+		MembershipSnapshot next = members;
+		for (Account account : accounts.accounts()) {
+			next = next.with(names.intern(account.getUserName()));
+			for (String each : account.getBlockedUsers())
+				blocks.block(names.intern(account.getUserName()), names.intern(each));
+		}
+		members = next;
+	}
+
+	// all member accounts
+	Collection<Account> accounts() {
+		return accounts.accounts();
+	}
+
+	// find a member by user name, or null if there is no such member
+	Account find(String userName) {
+		return accounts.find(userName);
+	}
+
+	// the current members, as an immutable snapshot
+	MembershipSnapshot members() {
+		return members;
+	}
+
+	// user names of all members
+	Set<String> listAllMembers() {
+		return members;
+	}
+
+	// user names of all members visible to me: a view of the current
+	// members without those who had blocked me when it was taken. Only the
+	// ids of those members are copied.
+	Collection<String> listMembers(Account me) {
+		IntSet blockers = new IntSet();
+		for (int each : blocks.blockersOf(names.idOf(me.getUserName())))
+			blockers.add(each);
+		return members.excluding(blockers);
+	}
+
+	// one page of the members visible to me
+	MemberPage listMembers(Account me, String cursor, int pageSize) {
+		return members.page(cursor, pageSize, blockersOf(me));
+	}
+
+	// tests if the member with an id has blocked me
+	private IntPredicate blockersOf(Account me) {
+		final int id = names.idOf(me.getUserName());
+		return new IntPredicate() {
+			public boolean test(int blocker) {
+				return blocks.isBlocked(blocker, id);
+			}
+		};
+	}
+
+	// who blocked whom in this network
+	BlockIndex blocks() {
+		return blocks;
+	}
+
+	// pin the current version of the graph; changes must not be in progress.
+	// Reads of the version hold shared, if not null, and the lock of the
+	// account they read.
+	GraphVersion pin(Lock shared) {
+		return new GraphVersion(versions.pin(), members, accounts.leaving(), accounts, versions, locks, shared);
+	}
+
+	RelationCounts relationCounts() {
+		return relationCounts;
+	}
+
+	GraphVersions versions() {
+		return versions;
+	}
+
+	// the members visible to me, produced one at a time
+	Stream<String> streamMembers(Account me) {
+		return listMembers(me).stream();
+	}
+
+	// true if a member with user name userName has joined and has not
+	// blocked me
+	boolean hasMember(Account me, String userName) {
+		return members.contains(userName) && blocks.isVisible(me.getUserName(), userName);
+	}
+
+	void sendFriendshipTo(Account me, String userName) {
+		Account other = accounts.find(userName);
+		if ((other == null) || !blocks.isVisible(me.getUserName(), userName) || me.hasFriend(userName))
+			return;
+		boolean requested = me.getOutgoingRequests().contains(userName);
+		other.requestFriendship(me);
+		// other may accept automatically, even a request sent before
+		if (requested && !me.hasFriend(userName))
+			return;
+		changed(GraphOperation.SEND_FRIENDSHIP, me.getUserName(), userName);
+	}
+
+	// make me invisible to userName and end any friendship or pending request
+	// from userName
+	void block(Account me, String userName) {
+		Account other = accounts.find(userName);
+		if (other == null)
+			return;
+		boolean applied = !me.getBlockedUsers().contains(userName);
+		me.addBlockedUser(userName);
+		other.addBlockedBy(me.getUserName());
+		blocks.block(names.idOf(me.getUserName()), names.idOf(userName));
+		if (me.getIncomingRequests().contains(userName)) {
+			other.friendshipRejected(me);
+			applied = true;
+		}
+		if (me.getFriends().contains(userName)) {
+			other.cancelFriendship(me);
+			applied = true;
+		}
+		if (!applied)
+			return;
+		changed(GraphOperation.BLOCK, me.getUserName(), userName);
+	}
+
+	void unblock(Account me, String userName) {
+		if (!me.getBlockedUsers().contains(userName))
+			return;
+		Account other = accounts.find(userName);
+		me.removeBlockedUser(userName);
+		if (other != null)
+			other.removeBlockedBy(me.getUserName());
+		blocks.unblock(names.idOf(me.getUserName()), names.idOf(userName));
+		changed(GraphOperation.UNBLOCK, me.getUserName(), userName);
+	}
+
+	void sendFriendshipCancellationTo(Account me, String userName) {
+		Account other = accounts.find(userName);
+		if ((other == null) || !me.hasFriend(userName))
+			return;
+		other.cancelFriendship(me);
+		changed(GraphOperation.CANCEL_FRIENDSHIP, me.getUserName(), userName);
+	}
+
+	void acceptFriendshipFrom(Account me, String userName) {
+		Account other = accounts.find(userName);
+		if ((other == null) || me.hasFriend(userName))
+			return;
+		other.friendshipAccepted(me);
+		if (!me.hasFriend(userName))
+			return;
+		changed(GraphOperation.ACCEPT_FRIENDSHIP, me.getUserName(), userName);
+	}
+
+	void rejectFriendshipFrom(Account me, String userName) {
+		Account other = accounts.find(userName);
+		if ((other == null) || !me.getIncomingRequests().contains(userName))
+			return;
+		other.friendshipRejected(me);
+		changed(GraphOperation.REJECT_FRIENDSHIP, me.getUserName(), userName);
+	}
+
+	void autoAcceptFriendships(Account me) {
+		if (me.autoAcceptsFriendships())
+			return;
+		me.autoAcceptFriendships();
+		changed(GraphOperation.AUTO_ACCEPT, me.getUserName(), null);
+	}
+
+	void cancelAutoAcceptFriendships(Account me) {
+		if (!me.autoAcceptsFriendships())
+			return;
+		me.cancelAutoAcceptFriendships();
+		changed(GraphOperation.CANCEL_AUTO_ACCEPT, me.getUserName(), null);
+	}
+
+	// a chunk of BULK_CHUNK requests at a time, so that no copy of all
+	// requests is needed
+	void acceptAllFriendships(Account me) {
+		List<String> chunk = me.relationChunk(AccountRelation.INCOMING_REQUESTS, null, BULK_CHUNK);
+		while (!chunk.isEmpty()) {
+			for (String each : chunk)
+				acceptFriendshipFrom(me, each);
+			chunk = me.relationChunk(AccountRelation.INCOMING_REQUESTS, chunk.get(chunk.size() - 1), BULK_CHUNK);
+		}
+	}
+
+	void rejectAllFriendships(Account me) {
+		List<String> chunk = me.relationChunk(AccountRelation.INCOMING_REQUESTS, null, BULK_CHUNK);
+		while (!chunk.isEmpty()) {
+			for (String each : chunk)
+				rejectFriendshipFrom(me, each);
+			chunk = me.relationChunk(AccountRelation.INCOMING_REQUESTS, chunk.get(chunk.size() - 1), BULK_CHUNK);
+		}
+	}
+
+	// served from the cache if possible; the accounts invalidate the cached
+	// recommendations their changes may alter. A member who left is only
+	// invalidated for others as its friendships are unlinked, a chunk at a
+	// time, so members who left are dropped from a hit here.
+	Collection<String> recommendFriends(Account me) {
+		Collection<String> recommended = recommendations.get(me.getUserName());
+		if (recommended == null) {
+			long generation = recommendations.generation();
+			recommended = recommender.recommend(me);
+			recommendations.put(me.getUserName(), recommended, generation);
+		} else {
+			recommended.removeIf(each -> !accounts.contains(each));
+		}
+		return recommended;
+	}
+
+	RecommendationCache recommendations() {
+		return recommendations;
+	}
+
+	List<String> recommendFriends(Account me, int k, RecommendationScorer scorer) {
+		return recommender.recommendTop(me, k, scorer);
+	}
+
+	// friends I have in common with member userName, if visible to me
+	List<String> mutualFriends(Account me, String userName) {
+		return connections.mutualFriends(me, userName);
+	}
+
+	// a shortest chain of friends from me to member userName, of at most
+	// maxHops friendships
+	List<String> connectionTo(Account me, String userName, int maxHops) {
+		return connections.shortestPath(me, userName, maxHops);
+	}
+
+	// recommend friends to every current member, or to the members named in
+	// userNames if not null; names of non-members are ignored. Computed in
+	// parallel, BULK_CHUNK members at a time while holding shared if not
+	// null; each chunk's recommendations are then handed to consumer on the
+	// calling thread, with no lock held, so consumer may change the network.
+	void recommendFriends(Collection<String> userNames, BiConsumer<String, Collection<String>> consumer,
+			Lock shared) {
+		Iterator<String> names = ((userNames == null) ? members : userNames).iterator();
+		List<Account> users = new ArrayList<Account>(BULK_CHUNK);
+		while (names.hasNext()) {
+			users.clear();
+			Map<String, Collection<String>> recommended = new ConcurrentHashMap<String, Collection<String>>();
+			if (shared != null)
+				shared.lock();
+			try {
+				while (names.hasNext() && (users.size() < BULK_CHUNK)) {
+					Account account = accounts.find(names.next());
+					if (account != null)
+						users.add(account);
+				}
+				recommender.recommendAll(users, recommended::put);
+			} finally {
+				if (shared != null)
+					shared.unlock();
+			}
+			recommended.forEach(consumer);
+		}
+	}
+
+	// end all friendships and pending requests of me and remove me from the
+	// network
+	void leave(Account me) {
+		removeAccount(me);
+		members = members.without(names.idOf(me.getUserName()));
+		changed(GraphOperation.LEAVE, me.getUserName(), null);
+	}
+
+	// remove me from the members, leaving its relations to be unlinked with
+	// unlink, e.g. a chunk at a time, then call detached. Operations of other
+	// members ignore me from now on; my user name stays taken until detached.
+	void detach(Account me) {
+		recommendations.invalidate(me.getUserName());
+		versions.departed(me);
+		accounts.removeLeaving(me);
+		members = members.without(names.idOf(me.getUserName()));
+		changed(GraphOperation.LEAVE, me.getUserName(), null);
+	}
+
+	// all relations of me, detached before, are unlinked
+	void detached(Account me) {
+		accounts.released(me.getUserName());
+	}
+
+	// unlink and remove the account, without publishing a new membership
+	// snapshot. Every relation of me is mirrored in the other member's account,
+	// so me's own relations find everything to unlink, in time proportional
+	// to me's degree; no member is left with me's name in any relation.
+	private void removeAccount(Account me) {
+		recommendations.invalidate(me.getUserName());
+		versions.departed(me);
+		accounts.remove(me);
+		for (AccountRelation relation : AccountRelation.values()) {
+			List<String> chunk = me.relationChunk(relation, null, BULK_CHUNK);
+			while (!chunk.isEmpty()) {
+				for (String each : chunk)
+					unlink(me, relation, each);
+				chunk = me.relationChunk(relation, chunk.get(chunk.size() - 1), BULK_CHUNK);
+			}
+		}
+	}
+
+	// end relation between me, who left, and the member userName, on both
+	// sides. Ending a friendship invalidates the recommendations of userName
+	// and its friends, for whom me was a candidate.
+	void unlink(Account me, AccountRelation relation, String userName) {
+		Account other = accounts.find(userName);
+		int id = names.idOf(me.getUserName());
+		switch (relation) {
+		case FRIENDS:
+			if (other != null)
+				other.friendLeft(me);
+			break;
+		case INCOMING_REQUESTS:
+			if (other != null)
+				other.friendshipRejected(me);
+			break;
+		case OUTGOING_REQUESTS:
+			if (other != null)
+				me.friendshipRejected(other);
+			break;
+		case BLOCKED_BY:
+			if (other != null)
+				other.removeBlockedUser(me.getUserName());
+			me.removeBlockedBy(userName);
+			blocks.unblock(names.idOf(userName), id);
+			break;
+		case BLOCKED_USERS:
+			if (other != null)
+				other.removeBlockedBy(me.getUserName());
+			me.removeBlockedUser(userName);
+			blocks.unblock(id, names.idOf(userName));
+			break;
+		}
+	}
+
+	// apply all operations of batch in order, in a single pass. Consecutive
+	// operations of the same actor share one account lookup, and the
+	// membership snapshot is published once for the whole batch.
+	void apply(GraphBatch batch) {
+		MembershipSnapshot next = members;
+		Account actor = null;
+		for (int i = 0; i < batch.size(); i++) {
+			GraphOperation operation = batch.operation(i);
+			String actorName = batch.actor(i);
+			if ((actor == null) || !actor.getUserName().equals(actorName))
+				actor = accounts.find(actorName);
+			if (operation == GraphOperation.JOIN) {
+				if (actor == null) {
+					actor = addAccount(actorName);
+					if (actor != null) {
+						next = next.with(names.idOf(actorName));
+						changed(GraphOperation.JOIN, actorName, null);
+					}
+				}
+				continue;
+			}
+			if (actor == null)
+				continue;
+			String target = batch.target(i);
+			switch (operation) {
+			case SEND_FRIENDSHIP:
+				sendFriendshipTo(actor, target);
+				break;
+			case ACCEPT_FRIENDSHIP:
+				acceptFriendshipFrom(actor, target);
+				break;
+			case REJECT_FRIENDSHIP:
+				rejectFriendshipFrom(actor, target);
+				break;
+			case CANCEL_FRIENDSHIP:
+				sendFriendshipCancellationTo(actor, target);
+				break;
+			case BLOCK:
+				block(actor, target);
+				break;
+			case UNBLOCK:
+				unblock(actor, target);
+				break;
+			case AUTO_ACCEPT:
+				autoAcceptFriendships(actor);
+				break;
+			case CANCEL_AUTO_ACCEPT:
+				cancelAutoAcceptFriendships(actor);
+				break;
+			case LEAVE:
+				removeAccount(actor);
+				next = next.without(names.idOf(actorName));
+				changed(GraphOperation.LEAVE, actorName, null);
+				actor = null;
+				break;
+			default:
+				throw new IllegalArgumentException("unknown operation " + operation);
+			}
+		}
+		members = next;
+	}
+
+}
@@ -0,0 +1,257 @@
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Deterministic generator of synthetic social networks for load and scale
+// testing: the same settings and seed always give the same network.
+//
+// Members user0, user1, ... join one at a time. Each new member links to
+// friendsPerJoin earlier members, picked in proportion to their number of
+// links (PREFERENTIAL attachment, which gives the power-law degree
+// distribution of real social networks) or uniformly (UNIFORM). A
+// pendingRequestRatio share of the links stay unanswered friend requests;
+// the others are accepted. Each member also blocks blocksPerMember earlier
+// members on average, and an autoAcceptRatio share of the members switch on
+// auto-acceptance once all links are made, so that pending requests stay
+// pending.
+//
+// The network can be bulk loaded (load), built through the ISocialNetwork
+// operations one at a time (populate), or generated as batches of changes.
+public class SocialGraphGenerator {
+
+	public enum Attachment {
+		PREFERENTIAL, UNIFORM
+	}
+
+	private int members = 1000;
+
+	private int friendsPerJoin = 5;
+
+	private Attachment attachment = Attachment.PREFERENTIAL;
+
+	private double pendingRequestRatio = 0.1;
+
+	private double blocksPerMember = 0.05;
+
+	private double autoAcceptRatio = 0.1;
+
+	private long seed = 1;
+
+	// operations per generated batch
+	private int batchSize = 100000;
+
+	public SocialGraphGenerator members(int members) {
+		if (members < 0)
+			throw new IllegalArgumentException("members must not be negative");
+		this.members = members;
+		return this;
+	}
+
+	public SocialGraphGenerator friendsPerJoin(int friendsPerJoin) {
+		if (friendsPerJoin < 0)
+			throw new IllegalArgumentException("friendsPerJoin must not be negative");
+		this.friendsPerJoin = friendsPerJoin;
+		return this;
+	}
+
+	public SocialGraphGenerator attachment(Attachment attachment) {
+		this.attachment = attachment;
+		return this;
+	}
+
+	public SocialGraphGenerator pendingRequestRatio(double ratio) {
+		this.pendingRequestRatio = checkRatio(ratio);
+		return this;
+	}
+
+	public SocialGraphGenerator blocksPerMember(double blocks) {
+		if (blocks < 0)
+			throw new IllegalArgumentException("blocksPerMember must not be negative");
+		this.blocksPerMember = blocks;
+		return this;
+	}
+
+	public SocialGraphGenerator autoAcceptRatio(double ratio) {
+		this.autoAcceptRatio = checkRatio(ratio);
+		return this;
+	}
+
+	public SocialGraphGenerator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public SocialGraphGenerator batchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batchSize must be positive");
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	private static double checkRatio(double ratio) {
+		if ((ratio < 0) || (ratio > 1))
+			throw new IllegalArgumentException("ratio must be between 0 and 1");
+		return ratio;
+	}
+
+	// user name of the member with the given index
+	public static String userName(int index) {
+		return "user" + index;
+	}
+
+	// hand the changes that build the network to target, in order, as
+	// batches of at most batchSize operations
+	public void generate(final Consumer<GraphBatch> target) {
+		final GraphBatch[] batch = { new GraphBatch() };
+		generate(new Sink() {
+			public void add(GraphOperation operation, int actor, int other) {
+				batch[0].add(operation, userName(actor), operation.hasTarget() ? userName(other) : null);
+				if (batch[0].size() >= batchSize) {
+					target.accept(batch[0]);
+					batch[0] = new GraphBatch();
+				}
+			}
+		});
+		if (batch[0].size() > 0)
+			target.accept(batch[0]);
+	}
+
+	// bulk load the network into sn, which should have no members yet;
+	// returns the members' accounts by index
+	public Account[] load(SocialNetwork sn) {
+		return load(sn::join, sn::apply);
+	}
+
+	public Account[] load(ConcurrentSocialNetwork sn) {
+		return load(sn::join, sn::apply);
+	}
+
+	// members join one at a time, for their account handles; all other
+	// changes are applied in batches. A batch only refers to members who
+	// joined before it or in it, so joining its members first changes
+	// nothing.
+	private Account[] load(final Function<String, Account> join, Consumer<GraphBatch> apply) {
+		final Account[] accounts = new Account[members];
+		final GraphBatch[] batch = { new GraphBatch() };
+		generate(new Sink() {
+			public void add(GraphOperation operation, int actor, int other) {
+				if (operation == GraphOperation.JOIN) {
+					accounts[actor] = join.apply(userName(actor));
+					return;
+				}
+				batch[0].add(operation, userName(actor), operation.hasTarget() ? userName(other) : null);
+				if (batch[0].size() >= batchSize) {
+					apply.accept(batch[0]);
+					batch[0] = new GraphBatch();
+				}
+			}
+		});
+		apply.accept(batch[0]);
+		return accounts;
+	}
+
+	// build the network in sn through the ISocialNetwork operations, logging
+	// in as each acting member; slower than load, but exercises the real
+	// request path. Returns the accounts by user name; sn is left logged out.
+	public Map<String, Account> populate(final ISocialNetwork sn) {
+		final Map<String, Account> accounts = new HashMap<String, Account>(members * 2);
+		final Account[] byIndex = new Account[members];
+		generate(new Sink() {
+			public void add(GraphOperation operation, int actor, int other) {
+				if (operation == GraphOperation.JOIN) {
+					byIndex[actor] = sn.join(userName(actor));
+					accounts.put(userName(actor), byIndex[actor]);
+					return;
+				}
+				sn.login(byIndex[actor]);
+				try {
+					String target = userName(other);
+					switch (operation) {
+					case SEND_FRIENDSHIP:
+						sn.sendFriendshipTo(target);
+						break;
+					case ACCEPT_FRIENDSHIP:
+						sn.acceptFriendshipFrom(target);
+						break;
+					case BLOCK:
+						sn.block(target);
+						break;
+					case AUTO_ACCEPT:
+						sn.autoAcceptFriendships();
+						break;
+					default:
+						throw new IllegalStateException("not generated: " + operation);
+					}
+				} catch (NoUserLoggedInException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		sn.logout();
+		return accounts;
+	}
+
+	// receives the generated changes, with members by index; other is
+	// undefined for operations without a target
+	private interface Sink {
+		void add(GraphOperation operation, int actor, int other);
+	}
+
+	private void generate(Sink sink) {
+		Random random = new Random(seed);
+		// with preferential attachment, every member appears here once per link
+		// end, so a uniform pick from it is a pick proportional to degree
+		int[] ends = (attachment == Attachment.PREFERENTIAL) ? new int[2 * members * friendsPerJoin] : null;
+		int endCount = 0;
+		int[] linked = new int[friendsPerJoin];
+		BitSet autoAccept = new BitSet(members);
+		for (int i = 0; i < members; i++) {
+			sink.add(GraphOperation.JOIN, i, -1);
+			if (random.nextDouble() < autoAcceptRatio)
+				autoAccept.set(i);
+			int links = Math.min(i, friendsPerJoin);
+			for (int l = 0; l < links; l++) {
+				int friend;
+				do {
+					if ((ends == null) || (endCount == 0))
+						friend = random.nextInt(i);
+					else
+						friend = ends[random.nextInt(endCount)];
+				} while (contains(linked, l, friend));
+				linked[l] = friend;
+				sink.add(GraphOperation.SEND_FRIENDSHIP, i, friend);
+				if (random.nextDouble() >= pendingRequestRatio)
+					sink.add(GraphOperation.ACCEPT_FRIENDSHIP, friend, i);
+			}
+			// only now, so that a member never links to itself
+			if (ends != null) {
+				for (int l = 0; l < links; l++) {
+					ends[endCount++] = i;
+					ends[endCount++] = linked[l];
+				}
+			}
+			if (i > 0) {
+				// whole blocks, plus one more with the fractional probability
+				int blocks = (int) blocksPerMember;
+				if (random.nextDouble() < blocksPerMember - blocks)
+					blocks++;
+				for (int b = 0; b < blocks; b++)
+					sink.add(GraphOperation.BLOCK, i, random.nextInt(i));
+			}
+		}
+		for (int i = autoAccept.nextSetBit(0); i >= 0; i = autoAccept.nextSetBit(i + 1))
+			sink.add(GraphOperation.AUTO_ACCEPT, i, -1);
+	}
+
+	private static boolean contains(int[] values, int count, int value) {
+		for (int i = 0; i < count; i++) {
+			if (values[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+}
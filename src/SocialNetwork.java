@@ -1,75 +1,171 @@
-import java.util.HashSet;
-
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 public class SocialNetwork implements ISocialNetwork {
 
 	private Account currentUser = null;
 
-	private Collection<Account> accounts = new HashSet<Account>();
+	// members of this social network and the operations on them
+	private SocialGraph graph;
+
+	private SocialNetworkMetrics metrics;
+
+	public SocialNetwork() {
+		this(RelationStorage.HASH);
+	}
+
+	// social network whose accounts keep their relations in storage
+	public SocialNetwork(RelationStorage storage) {
+		this(storage, SocialGraph.RECOMMENDATION_CACHE_SIZE);
+	}
+
+	// social network caching the friend recommendations of at most
+	// recommendationCacheSize members; 0 recommends afresh on every call
+	public SocialNetwork(RelationStorage storage, int recommendationCacheSize) {
+		this.graph = new SocialGraph(null, storage, recommendationCacheSize);
+		this.metrics = new SocialNetworkMetrics(graph);
+	}
+
+	// social network with the members and relations of a snapshot, e.g. one
+	// written by saveSnapshot and opened with MappedGraph.open
+	public static SocialNetwork fromSnapshot(MappedGraph snapshot) {
+		SocialNetwork sn = new SocialNetwork();
+		snapshot.restoreInto(sn.graph);
+		return sn;
+	}
+
+	// write all members and relations to a snapshot file
+	public void saveSnapshot(Path file) throws IOException {
+		MappedGraph.write(graph.accounts(), 0, file);
+	}
+
+	// write all members and relations to a snapshot file that records the
+	// position of log, which this network's changes are logged to; recover by
+	// replaying log from the snapshot's logPosition (see MappedGraph)
+	public void saveSnapshot(Path file, WriteAheadLog log) throws IOException {
+		long position = log.position();
+		log.sync();
+		MappedGraph.write(graph.accounts(), position, file);
+	}
+
+	// pin the current version of the graph: its members and relations stay as
+	// they are now while the network changes; close it when done
+	public GraphVersion pin() {
+		return graph.pin(null);
+	}
+
+	// the versions pinned by readers of this network, and how many accounts
+	// keep old states for them
+	public GraphVersions versions() {
+		return graph.versions();
+	}
+
+	// operation counts, latencies and graph size of this social network
+	public SocialNetworkMetrics metrics() {
+		return metrics;
+	}
 
 	// join SN with a new user name
 	public Account join(String userName) {
-		// new userName should be unique and not empty
-		if ((userName != null) && !userName.isEmpty() && !listAllMembers().contains(userName)) {
-			Account newAccount = new Account(userName);
-			accounts.add(newAccount);
-			return newAccount;
-		} else
-			return null;
-	}
-
-	// find a member by user name
-	private Account findAccountForUserName(String userName) {
-		// find account with user name userName
-		// not accessible to outside because that would give a user full access
-		// to another member's account
-		if (userName != null) {
-			for (Account each : accounts) {
-				if (each.getUserName().equals(userName))
-					return each;
-			}
-		}
-		return null;
-	}
-
-	// List all the members of social network
-	public Collection<String> listAllMembers() {
-		Collection<String> members = new HashSet<String>();
-		for (Account each : accounts) {
-			members.add(each.getUserName());
-		}
-		return members;
+		long start = System.nanoTime();
+		Account account = graph.join(userName);
+		graph.settled();
+		metrics.record(NetworkOperation.JOIN, start);
+		return account;
+	}
+
+	// apply a batch of changes made on behalf of any members, e.g. a bulk
+	// import; no user needs to be logged in
+	public void apply(GraphBatch batch) {
+		long start = System.nanoTime();
+		graph.apply(batch);
+		graph.settled();
+		metrics.record(NetworkOperation.APPLY_BATCH, start);
+	}
+
+	// notify listener of every change made to this social network from now
+	// on, e.g. to record it in a WriteAheadLog
+	public void addMutationListener(GraphMutationListener listener) {
+		graph.addListener(listener);
+	}
+
+	public void removeMutationListener(GraphMutationListener listener) {
+		graph.removeListener(listener);
+	}
+
+	// List all the members of social network: an unmodifiable set, which
+	// does not change as members join and leave
+	public Set<String> listAllMembers() {
+		return graph.listAllMembers();
+	}
+
+	// the current members, as a versioned snapshot that can also be paged
+	public MembershipSnapshot membershipSnapshot() {
+		return graph.members();
 	}
 
 	// List all members visible to the logged-in user.
 	public Collection<String> listMembers() throws NoUserLoggedInException {
+		long start = System.nanoTime();
+		if (currentUser == null)
+			throw new NoUserLoggedInException("NoUser");
+		Collection<String> members = graph.listMembers(currentUser);
+		metrics.record(NetworkOperation.LIST_MEMBERS, start);
+		return members;
+	}
+
+	// List one page of the members visible to the logged-in user: start with
+	// a null cursor, then pass the page's next cursor until there is none
+	public MemberPage listMembers(String cursor, int pageSize) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		Collection<String> visibleMembers = listAllMembers();
-		visibleMembers.removeAll(currentUser.getBlockedBy());
-		return visibleMembers;
+		MemberPage page = graph.listMembers(currentUser, cursor, pageSize);
+		metrics.record(NetworkOperation.LIST_MEMBERS, start);
+		return page;
+	}
+
+	// Stream the members visible to the logged-in user without materializing
+	// them
+	public Stream<String> streamMembers() throws NoUserLoggedInException {
+		long start = System.nanoTime();
+		if (currentUser == null)
+			throw new NoUserLoggedInException("NoUser");
+		Stream<String> members = graph.streamMembers(currentUser);
+		metrics.record(NetworkOperation.LIST_MEMBERS, start);
+		return members;
+	}
 
+	// Iterate the members visible to the logged-in user without materializing
+	// them
+	public Iterator<String> iterateMembers() throws NoUserLoggedInException {
+		return streamMembers().iterator();
 	}
 
 	// from my account, accept all the pending friend requests at once
 	public void acceptAllFriendships() throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		Object[] incomingRequests = currentUser.getIncomingRequests().toArray();
-		for (Object each : incomingRequests) {
-			acceptFriendshipFrom(each.toString());
-		}
+		graph.acceptAllFriendships(currentUser);
+		graph.settled();
+		metrics.record(NetworkOperation.ACCEPT_ALL_FRIENDSHIPS, start);
 	}
 
 	// From my account, reject all the pending friendship requests
 	public void rejectAllFriendships() throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		Object[] incomingRequests = currentUser.getIncomingRequests().toArray();
-		for (Object each : incomingRequests) {
-			rejectFriendshipFrom(each.toString());
-		}
+		graph.rejectAllFriendships(currentUser);
+		graph.settled();
+		metrics.record(NetworkOperation.REJECT_ALL_FRIENDSHIPS, start);
 	}
 
 	/*
@@ -77,143 +173,192 @@ public class SocialNetwork implements ISocialNetwork {
 	 * returns an updated handle to then member's account
 	 */
 	public Account login(Account me) {
+		long start = System.nanoTime();
 		currentUser = me;
+		metrics.record(NetworkOperation.LOGIN, start);
 		return currentUser;
 	}
 
 	// log out: the user is no longer logged in after a logout
 	public void logout() {
+		long start = System.nanoTime();
 		currentUser = null;
+		metrics.record(NetworkOperation.LOGOUT, start);
 	}
 
 	// This method returns true if a member with user name userName has
-	// previously joined the social network
+	// previously joined the social network and is visible to the logged-in
+	// user
 	public boolean hasMember(String userName) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		return listAllMembers().contains(userName);
+		boolean member = graph.hasMember(currentUser, userName);
+		metrics.record(NetworkOperation.HAS_MEMBER, start);
+		return member;
 	}
 
 	// from my account, send a friend request to user with userName from my
 	// account
 	public void sendFriendshipTo(String userName) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		if (listMembers().contains(userName)) {
-			findAccountForUserName(userName).requestFriendship(currentUser);
-		}
-
+		graph.sendFriendshipTo(currentUser, userName);
+		graph.settled();
+		metrics.record(NetworkOperation.SEND_FRIENDSHIP, start);
 	}
 
 	// This method prevents the logged-in member from being visible to the
 	// member with user name userName.
 	public void block(String userName) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		currentUser.addBlockedUser(userName);
-		findAccountForUserName(userName).addBlockedBy(currentUser.getUserName());
-		if (currentUser.getIncomingRequests().contains(userName))
-			rejectFriendshipFrom(userName);
-		if (currentUser.getFriends().contains(userName))
-			sendFriendshipCancellationTo(userName);
+		graph.block(currentUser, userName);
+		graph.settled();
+		metrics.record(NetworkOperation.BLOCK, start);
 	}
 
 	// Unblock a previously blocked member
 	public void unblock(String userName) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		findAccountForUserName(userName).removeBlockedBy(currentUser.getUserName());
-
+		graph.unblock(currentUser, userName);
+		graph.settled();
+		metrics.record(NetworkOperation.UNBLOCK, start);
 	}
 
 	// From my account, send a friendship cancellation to another member
 	public void sendFriendshipCancellationTo(String userName) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		Account accountForUsername = findAccountForUserName(userName);
-		accountForUsername.cancelFriendship(currentUser);
-
+		graph.sendFriendshipCancellationTo(currentUser, userName);
+		graph.settled();
+		metrics.record(NetworkOperation.CANCEL_FRIENDSHIP, start);
 	}
-	
+
 	// from my account, accept a pending friend request from another user with
 	// userName
 	public void acceptFriendshipFrom(String userName) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		Account accountForUserName = findAccountForUserName(userName);
-		accountForUserName.friendshipAccepted(currentUser);
-
+		graph.acceptFriendshipFrom(currentUser, userName);
+		graph.settled();
+		metrics.record(NetworkOperation.ACCEPT_FRIENDSHIP, start);
 	}
 
 	// From my account, reject friendship request from another member
 	public void rejectFriendshipFrom(String userName) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		Account accountForUserName = findAccountForUserName(userName);
-		accountForUserName.friendshipRejected(currentUser);
-
+		graph.rejectFriendshipFrom(currentUser, userName);
+		graph.settled();
+		metrics.record(NetworkOperation.REJECT_FRIENDSHIP, start);
 	}
 
 	// From my account, auto accept all the future friendship request
 	public void autoAcceptFriendships() throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		currentUser.autoAcceptFriendships();
+		graph.autoAcceptFriendships(currentUser);
+		graph.settled();
+		metrics.record(NetworkOperation.AUTO_ACCEPT, start);
 	}
 
 	// Cancel auto-acceptance, and require explicit acceptance in the future
 	public void cancelAutoAcceptFriendships() throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		currentUser.cancelAutoAcceptFriendships();
+		graph.cancelAutoAcceptFriendships(currentUser);
+		graph.settled();
+		metrics.record(NetworkOperation.CANCEL_AUTO_ACCEPT, start);
 	}
-	
+
 	/*
 	 * Recommend friends to logged-in user: if two friends have a common friend,
 	 * include that member in return Collection. Don't recommend members blocked
 	 * by the logged-in user
 	 */
 	public Collection<String> recommendFriends() throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		Collection<String> finalList = new HashSet<String>();
-		Collection<String> potentialList = listAllMembers();
-		potentialList.removeAll(currentUser.getFriends());
-		for (String each : potentialList) {
-			Collection<String> friendsOfEach = findAccountForUserName(each).getFriends();
-			int totalFriends = friendsOfEach.size();
-			friendsOfEach.removeAll(currentUser.getFriends());
-			int uncommonFriends = friendsOfEach.size();
-			if (totalFriends - uncommonFriends >= 2) {
-				finalList.add(each);
-			}
-		}
-		finalList.removeAll(currentUser.getBlockedUsers());
-		return finalList;
+		Collection<String> recommended = graph.recommendFriends(currentUser);
+		metrics.record(NetworkOperation.RECOMMEND_FRIENDS, start);
+		return recommended;
 	}
 
-	// From my account, leave social networks
-	public void leave() throws NoUserLoggedInException {
+	// Recommend at most k friends to logged-in user, best first, ranking the
+	// members recommendFriends() would recommend by scorer (e.g.
+	// RecommendationScorer.ADAMIC_ADAR). Members blocked by the logged-in user
+	// are never recommended
+	public List<String> recommendFriends(int k, RecommendationScorer scorer) throws NoUserLoggedInException {
+		long start = System.nanoTime();
+		if (currentUser == null)
+			throw new NoUserLoggedInException("NoUser");
+		List<String> recommended = graph.recommendFriends(currentUser, k, scorer);
+		metrics.record(NetworkOperation.RECOMMEND_FRIENDS, start);
+		return recommended;
+	}
+
+	// Friends the logged-in user has in common with member userName, leaving
+	// out members who blocked the logged-in user; empty if userName is not a
+	// visible member
+	public List<String> mutualFriendsWith(String userName) throws NoUserLoggedInException {
+		long start = System.nanoTime();
+		if (currentUser == null)
+			throw new NoUserLoggedInException("NoUser");
+		List<String> mutual = graph.mutualFriends(currentUser, userName);
+		metrics.record(NetworkOperation.FIND_CONNECTIONS, start);
+		return mutual;
+	}
+
+	// How the logged-in user is connected to member userName: the user names
+	// on a shortest chain of friends between them, both included, of at most
+	// maxHops friendships. Members who blocked the logged-in user are left
+	// out. Empty if there is no such chain, or too large a part of the
+	// network would have to be searched to find it
+	public List<String> connectionTo(String userName, int maxHops) throws NoUserLoggedInException {
+		long start = System.nanoTime();
 		if (currentUser == null)
 			throw new NoUserLoggedInException("NoUser");
-		Object[] friends = currentUser.getFriends().toArray();
-		for (Object each : friends) {
-			sendFriendshipCancellationTo(each.toString());
-		}
+		List<String> path = graph.connectionTo(currentUser, userName, maxHops);
+		metrics.record(NetworkOperation.FIND_CONNECTIONS, start);
+		return path;
+	}
 
-		Object[] incomingRequests = currentUser.getIncomingRequests().toArray();
-		for (Object each : incomingRequests) {
-			rejectFriendshipFrom(each.toString());
-		}
+	// Recommend friends to every member, as recommendFriends would after
+	// logging in as that member, using all cores; no user needs to be logged
+	// in. Members are handled a chunk at a time, and each chunk's
+	// recommendations go to consumer (user name, recommended) on the calling
+	// thread.
+	public void recommendFriendsForAll(BiConsumer<String, Collection<String>> consumer) {
+		recommendFriendsFor(null, consumer);
+	}
 
-		Object[] outgoingRequests = currentUser.getOutgoingRequests().toArray();
-		Account leavingUser = currentUser;
-		for (Object each : outgoingRequests) {
-			login(findAccountForUserName(each.toString()));
-			rejectFriendshipFrom(leavingUser.getUserName());
-		}
-		accounts.remove(currentUser);
+	// Recommend friends to the members named in userNames, or to all members
+	// if null, as recommendFriendsForAll does; other names are ignored
+	public void recommendFriendsFor(Collection<String> userNames, BiConsumer<String, Collection<String>> consumer) {
+		long start = System.nanoTime();
+		graph.recommendFriends(userNames, consumer, null);
+		metrics.record(NetworkOperation.RECOMMEND_ALL_FRIENDS, start);
+	}
 
+	// From my account, leave social networks
+	public void leave() throws NoUserLoggedInException {
+		long start = System.nanoTime();
+		if (currentUser == null)
+			throw new NoUserLoggedInException("NoUser");
+		graph.leave(currentUser);
+		graph.settled();
+		metrics.record(NetworkOperation.LEAVE, start);
 	}
 
 }
@@ -0,0 +1,163 @@
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Operation counts, latency histograms and graph size gauges of a social
+// network, always on. Read them with snapshot, or over JMX once registered.
+//
+// Operations are timed from the call until they return, including any wait
+// for locks; calls that fail with NoUserLoggedInException are not recorded.
+// The gauges read counts the accounts keep up to date as they change (see
+// RelationCounts), without a pass over the accounts and without locks, so
+// under concurrent changes they are approximate.
+public class SocialNetworkMetrics implements SocialNetworkMetricsMXBean {
+
+	private static final NetworkOperation[] OPERATIONS = NetworkOperation.values();
+
+	private final SocialGraph graph;
+
+	// by NetworkOperation ordinal
+	private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+
+	SocialNetworkMetrics(SocialGraph graph) {
+		this.graph = graph;
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = new LatencyHistogram();
+	}
+
+	// record operation as having taken from startNanos (a System.nanoTime
+	// reading) until now
+	void record(NetworkOperation operation, long startNanos) {
+		latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+	}
+
+	// the current counts, latencies and gauges
+	public Snapshot snapshot() {
+		Map<NetworkOperation, LatencyHistogram.Snapshot> operations;
+		operations = new EnumMap<NetworkOperation, LatencyHistogram.Snapshot>(NetworkOperation.class);
+		for (NetworkOperation each : OPERATIONS)
+			operations.put(each, latencies[each.ordinal()].snapshot());
+		return new Snapshot(graph.members().size(), edgeCounts(), operations);
+	}
+
+	// number of (member, other member) pairs per relation, by ordinal
+	private long[] edgeCounts() {
+		long[] edges = new long[AccountRelation.values().length];
+		for (AccountRelation relation : AccountRelation.values())
+			edges[relation.ordinal()] = graph.relationCounts().count(relation);
+		return edges;
+	}
+
+	// register with the platform MBean server as
+	// SocialNetwork:type=Metrics,name=<name>; returns the name registered
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("SocialNetwork:type=Metrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public void unregister(ObjectName objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName))
+			server.unregisterMBean(objectName);
+	}
+
+	public int getMemberCount() {
+		return graph.members().size();
+	}
+
+	public long getFriendshipCount() {
+		return graph.relationCounts().count(AccountRelation.FRIENDS) / 2;
+	}
+
+	public long getPendingRequestCount() {
+		return graph.relationCounts().count(AccountRelation.INCOMING_REQUESTS);
+	}
+
+	public long getBlockCount() {
+		return graph.relationCounts().count(AccountRelation.BLOCKED_USERS);
+	}
+
+	public Map<String, Long> getOperationCounts() {
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		for (NetworkOperation each : OPERATIONS)
+			values.put(each.name(), latencies[each.ordinal()].snapshot().count());
+		return values;
+	}
+
+	public Map<String, Long> getMeanLatencies() {
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		for (NetworkOperation each : OPERATIONS)
+			values.put(each.name(), Math.round(latencies[each.ordinal()].snapshot().meanNanos()));
+		return values;
+	}
+
+	public Map<String, Long> getMedianLatencies() {
+		return percentiles(50);
+	}
+
+	public Map<String, Long> getP99Latencies() {
+		return percentiles(99);
+	}
+
+	public Map<String, Long> getP999Latencies() {
+		return percentiles(99.9);
+	}
+
+	public Map<String, Long> getMaxLatencies() {
+		return percentiles(100);
+	}
+
+	private Map<String, Long> percentiles(double percentile) {
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		for (NetworkOperation each : OPERATIONS)
+			values.put(each.name(), latencies[each.ordinal()].snapshot().percentile(percentile));
+		return values;
+	}
+
+	// metrics of a social network at one point in time
+	public static class Snapshot {
+
+		private final int members;
+
+		private final long[] edges;
+
+		private final Map<NetworkOperation, LatencyHistogram.Snapshot> operations;
+
+		Snapshot(int members, long[] edges, Map<NetworkOperation, LatencyHistogram.Snapshot> operations) {
+			this.members = members;
+			this.edges = edges;
+			this.operations = operations;
+		}
+
+		public int members() {
+			return members;
+		}
+
+		// number of (member, other member) pairs in relation; a friendship
+		// counts once for each friend
+		public long edges(AccountRelation relation) {
+			return edges[relation.ordinal()];
+		}
+
+		public long friendships() {
+			return edges(AccountRelation.FRIENDS) / 2;
+		}
+
+		// friend requests waiting for an answer
+		public long pendingRequests() {
+			return edges(AccountRelation.INCOMING_REQUESTS);
+		}
+
+		// count and latencies of operation
+		public LatencyHistogram.Snapshot latencies(NetworkOperation operation) {
+			return operations.get(operation);
+		}
+	}
+
+}
@@ -0,0 +1,26 @@
+import java.util.Map;
+
+// JMX view of SocialNetworkMetrics. Operation maps are keyed by
+// NetworkOperation name; latencies are in nanoseconds.
+public interface SocialNetworkMetricsMXBean {
+
+	public int getMemberCount();
+
+	public long getFriendshipCount();
+
+	public long getPendingRequestCount();
+
+	public long getBlockCount();
+
+	public Map<String, Long> getOperationCounts();
+
+	public Map<String, Long> getMeanLatencies();
+
+	public Map<String, Long> getMedianLatencies();
+
+	public Map<String, Long> getP99Latencies();
+
+	public Map<String, Long> getP999Latencies();
+
+	public Map<String, Long> getMaxLatencies();
+}
@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+// A shard of a ShardedSocialNetwork in this process: the accounts of the
+// members hashed to it. Thread-safe, as calls may arrive from several nodes
+// at once.
+public class SocialShard implements ShardNode {
+
+	private AccountDirectory accounts = new AccountDirectory();
+
+	// shared by this shard's accounts; also interns the names of the members
+	// of other shards they are related to
+	private UserNameInterner names = new UserNameInterner();
+
+	public synchronized boolean join(String userName) {
+		if ((userName == null) || userName.isEmpty() || accounts.contains(userName))
+			return false;
+		return accounts.add(new Account(userName, names));
+	}
+
+	public boolean contains(String userName) {
+		return accounts.contains(userName);
+	}
+
+	public synchronized Collection<String> members() {
+		return new ArrayList<String>(accounts.userNames());
+	}
+
+	public int memberCount() {
+		return accounts.size();
+	}
+
+	public synchronized Map<AccountRelation, Collection<String>> leave(String userName) {
+		Account account = accounts.find(userName);
+		if (account == null)
+			return null;
+		Map<AccountRelation, Collection<String>> relations;
+		relations = new EnumMap<AccountRelation, Collection<String>>(AccountRelation.class);
+		for (AccountRelation each : AccountRelation.values())
+			relations.put(each, new ArrayList<String>(each.of(account)));
+		accounts.remove(account);
+		return relations;
+	}
+
+	public synchronized Collection<String> relation(String member, AccountRelation relation) {
+		Account account = accounts.find(member);
+		if (account == null)
+			return Collections.emptyList();
+		return new ArrayList<String>(relation.of(account));
+	}
+
+	public synchronized boolean hasRelation(String member, AccountRelation relation, String other) {
+		Account account = accounts.find(member);
+		return (account != null) && relation.of(account).contains(other);
+	}
+
+	public synchronized void addRelation(String member, AccountRelation relation, String other) {
+		Account account = accounts.find(member);
+		if (account != null)
+			relation.of(account).add(other);
+	}
+
+	public synchronized void removeRelation(String member, AccountRelation relation, String other) {
+		Account account = accounts.find(member);
+		if (account != null)
+			relation.of(account).remove(other);
+	}
+
+	public synchronized Map<String, Collection<String>> friendsOf(Collection<String> members) {
+		Map<String, Collection<String>> friends = new HashMap<String, Collection<String>>();
+		for (String each : members) {
+			Account account = accounts.find(each);
+			if (account != null)
+				friends.put(each, new ArrayList<String>(account.getFriends()));
+		}
+		return friends;
+	}
+
+	public synchronized boolean autoAcceptsFriendships(String member) {
+		Account account = accounts.find(member);
+		return (account != null) && account.autoAcceptsFriendships();
+	}
+
+	public synchronized void setAutoAcceptFriendships(String member, boolean autoAccept) {
+		Account account = accounts.find(member);
+		if (account == null)
+			return;
+		if (autoAccept)
+			account.autoAcceptFriendships();
+		else
+			account.cancelAutoAcceptFriendships();
+	}
+
+}
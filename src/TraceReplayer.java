@@ -0,0 +1,266 @@
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a random but reproducible mix of member operations against a
+// ConcurrentSocialNetwork at a target rate, e.g. one built by
+// SocialGraphGenerator, and measures their latency under that load.
+//
+// Replay is open-loop: every operation has a scheduled start time, and its
+// latency is measured from then, not from when a worker got around to it.
+// A network that falls behind the target rate therefore shows its queueing
+// delay in the latencies, as it would for real clients, instead of hiding it
+// by sending fewer requests.
+public class TraceReplayer {
+
+	// the operations of a trace; each is made by a random member, on a random
+	// other member where it takes one
+	public enum TraceOperation {
+		HAS_MEMBER(true),
+		LIST_MEMBERS(true),
+		RECOMMEND_FRIENDS(true),
+		SEND_FRIENDSHIP(false),
+		ACCEPT_FRIENDSHIP(false),
+		CANCEL_FRIENDSHIP(false),
+		BLOCK(false),
+		UNBLOCK(false);
+
+		private final boolean read;
+
+		private TraceOperation(boolean read) {
+			this.read = read;
+		}
+
+		// true if the operation doesn't change the network
+		public boolean isRead() {
+			return read;
+		}
+	}
+
+	private final ConcurrentSocialNetwork sn;
+
+	private final Account[] accounts;
+
+	private final Map<TraceOperation, Integer> weights = new EnumMap<TraceOperation, Integer>(TraceOperation.class);
+
+	private long seed = 1;
+
+	// replayer acting for the given members of sn. The default mix is 90%
+	// reads: mostly membership checks and recommendations, few full member
+	// listings.
+	public TraceReplayer(ConcurrentSocialNetwork sn, Account[] accounts) {
+		if (accounts.length == 0)
+			throw new IllegalArgumentException("no members to act for");
+		this.sn = sn;
+		this.accounts = accounts;
+		weights.put(TraceOperation.HAS_MEMBER, 50);
+		weights.put(TraceOperation.LIST_MEMBERS, 5);
+		weights.put(TraceOperation.RECOMMEND_FRIENDS, 35);
+		weights.put(TraceOperation.SEND_FRIENDSHIP, 4);
+		weights.put(TraceOperation.ACCEPT_FRIENDSHIP, 3);
+		weights.put(TraceOperation.CANCEL_FRIENDSHIP, 1);
+		weights.put(TraceOperation.BLOCK, 1);
+		weights.put(TraceOperation.UNBLOCK, 1);
+	}
+
+	// relative frequency of operation in the trace; 0 leaves it out
+	public TraceReplayer weight(TraceOperation operation, int weight) {
+		if (weight < 0)
+			throw new IllegalArgumentException("weight must not be negative");
+		weights.put(operation, weight);
+		return this;
+	}
+
+	public TraceReplayer seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	// replay operations operations, started at operationsPerSecond in total by
+	// threads worker threads, and wait until all are done
+	public Result replay(int operations, double operationsPerSecond, int threads) throws InterruptedException {
+		if ((operations < 0) || (operationsPerSecond <= 0) || (threads <= 0))
+			throw new IllegalArgumentException("invalid replay settings");
+		final TraceOperation[] mix = mix();
+		final long interval = (long) (TimeUnit.SECONDS.toNanos(1) / operationsPerSecond);
+		final long start = System.nanoTime();
+		final long[][] latencies = new long[threads][];
+		final boolean[][] reads = new boolean[threads][];
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			// worker t starts operations t, t + threads, t + 2 * threads, ...
+			final int worker = t;
+			final int count = (operations - t + threads - 1) / threads;
+			final int step = threads;
+			latencies[t] = new long[count];
+			reads[t] = new boolean[count];
+			workers[t] = new Thread(new Runnable() {
+				public void run() {
+					Random random = new Random(seed + worker);
+					for (int i = 0; i < count; i++) {
+						long scheduled = start + (worker + (long) i * step) * interval;
+						long wait = scheduled - System.nanoTime();
+						if (wait > 0)
+							LockSupport.parkNanos(wait);
+						TraceOperation operation = mix[random.nextInt(mix.length)];
+						perform(operation, random);
+						latencies[worker][i] = System.nanoTime() - scheduled;
+						reads[worker][i] = operation.isRead();
+					}
+				}
+			}, "trace-replayer-" + t);
+			workers[t].start();
+		}
+		for (Thread each : workers)
+			each.join();
+		return new Result(System.nanoTime() - start, latencies, reads);
+	}
+
+	// one entry per unit of weight
+	private TraceOperation[] mix() {
+		int total = 0;
+		for (int each : weights.values())
+			total += each;
+		if (total == 0)
+			throw new IllegalStateException("all operation weights are 0");
+		TraceOperation[] mix = new TraceOperation[total];
+		int next = 0;
+		for (Map.Entry<TraceOperation, Integer> each : weights.entrySet()) {
+			for (int i = 0; i < each.getValue(); i++)
+				mix[next++] = each.getKey();
+		}
+		return mix;
+	}
+
+	private void perform(TraceOperation operation, Random random) {
+		Account actor = accounts[random.nextInt(accounts.length)];
+		String other = accounts[random.nextInt(accounts.length)].getUserName();
+		ISocialNetworkSession session = sn.login(actor);
+		// the actor has left the network
+		if (session == null)
+			return;
+		try {
+			switch (operation) {
+			case HAS_MEMBER:
+				session.hasMember(other);
+				break;
+			case LIST_MEMBERS:
+				session.listMembers().size();
+				break;
+			case RECOMMEND_FRIENDS:
+				session.recommendFriends();
+				break;
+			case SEND_FRIENDSHIP:
+				session.sendFriendshipTo(other);
+				break;
+			case ACCEPT_FRIENDSHIP:
+				session.acceptFriendshipFrom(other);
+				break;
+			case CANCEL_FRIENDSHIP:
+				session.sendFriendshipCancellationTo(other);
+				break;
+			case BLOCK:
+				session.block(other);
+				break;
+			case UNBLOCK:
+				session.unblock(other);
+				break;
+			}
+		} catch (NoUserLoggedInException e) {
+			// the actor left while the operation ran; counts as done
+		}
+		session.logout();
+	}
+
+	// latencies of a replay
+	public static class Result {
+
+		private final long elapsedNanos;
+
+		private final long[] readLatencies;
+
+		private final long[] writeLatencies;
+
+		Result(long elapsedNanos, long[][] latencies, boolean[][] reads) {
+			this.elapsedNanos = elapsedNanos;
+			int readCount = 0;
+			int writeCount = 0;
+			for (boolean[] each : reads) {
+				for (boolean read : each) {
+					if (read)
+						readCount++;
+					else
+						writeCount++;
+				}
+			}
+			readLatencies = new long[readCount];
+			writeLatencies = new long[writeCount];
+			readCount = 0;
+			writeCount = 0;
+			for (int t = 0; t < latencies.length; t++) {
+				for (int i = 0; i < latencies[t].length; i++) {
+					if (reads[t][i])
+						readLatencies[readCount++] = latencies[t][i];
+					else
+						writeLatencies[writeCount++] = latencies[t][i];
+				}
+			}
+			Arrays.sort(readLatencies);
+			Arrays.sort(writeLatencies);
+		}
+
+		public int operations() {
+			return readLatencies.length + writeLatencies.length;
+		}
+
+		public int reads() {
+			return readLatencies.length;
+		}
+
+		public int writes() {
+			return writeLatencies.length;
+		}
+
+		public long elapsedNanos() {
+			return elapsedNanos;
+		}
+
+		// operations completed per second
+		public double throughput() {
+			return operations() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+		}
+
+		// latency in nanoseconds that a share percentile / 100 of the reads
+		// (or writes) didn't exceed, e.g. readLatency(99.9); 0 if there were
+		// none
+		public long readLatency(double percentile) {
+			return percentile(readLatencies, percentile);
+		}
+
+		public long writeLatency(double percentile) {
+			return percentile(writeLatencies, percentile);
+		}
+
+		private static long percentile(long[] sorted, double percentile) {
+			if ((percentile < 0) || (percentile > 100))
+				throw new IllegalArgumentException("percentile must be between 0 and 100");
+			if (sorted.length == 0)
+				return 0;
+			int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+			return sorted[Math.max(rank, 0)];
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%d operations in %.3f s (%.0f/s); reads p50 %d us, p99 %d us, p99.9 %d us; "
+					+ "writes p50 %d us, p99 %d us, p99.9 %d us", operations(), elapsedNanos / 1e9, throughput(),
+					readLatency(50) / 1000, readLatency(99) / 1000, readLatency(99.9) / 1000, writeLatency(50) / 1000,
+					writeLatency(99) / 1000, writeLatency(99.9) / 1000);
+		}
+	}
+
+}
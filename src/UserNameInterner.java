@@ -0,0 +1,54 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Maps user names to dense int ids (0, 1, 2, ...) so that relations between
+// members can be stored as primitive int sets. An id stays assigned to its
+// name for the lifetime of the interner. Safe for use by several threads.
+public class UserNameInterner {
+
+	private Map<String, Integer> idsByName = new ConcurrentHashMap<String, Integer>();
+
+	private volatile String[] namesById = new String[16];
+
+	// return the id of userName, assigning the next free id if it has none yet
+	public int intern(String userName) {
+		Integer id = idsByName.get(userName);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			return assign(userName);
+		}
+	}
+
+	private int assign(String userName) {
+		Integer id = idsByName.get(userName);
+		if (id != null)
+			return id;
+		int newId = idsByName.size();
+		if (newId == namesById.length)
+			namesById = Arrays.copyOf(namesById, newId * 2);
+		namesById[newId] = userName;
+		idsByName.put(userName, newId);
+		return newId;
+	}
+
+	// return the id of userName, or -1 if it was never interned
+	public int idOf(Object userName) {
+		if (userName == null)
+			return -1;
+		Integer id = idsByName.get(userName);
+		return (id == null) ? -1 : id;
+	}
+
+	// return the user name with the given id
+	public String nameOf(int id) {
+		return namesById[id];
+	}
+
+	// number of ids handed out so far
+	public int size() {
+		return idsByName.size();
+	}
+
+}
@@ -0,0 +1,363 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only log of the changes made to a social network. Register it as a
+// GraphMutationListener and every change is appended as a small binary
+// record; on startup, replay the log into an empty network to rebuild its
+// state.
+//
+// Appending only copies the record into a memory buffer. A background thread
+// writes the buffered records and fsyncs them as one group, once
+// syncEveryRecords records are pending or syncIntervalMillis have passed,
+// whichever comes first. Callers that need a change to be durable before they
+// go on can wait for it with awaitDurable, or open the log with
+// waitForSync = true to make every operation wait.
+//
+// Records are appended while the changed accounts are still locked, so that
+// they are logged in the order the changes were made; appending never waits
+// for the disk. With waitForSync, an operation waits for its records to be
+// durable only once it is settled (see GraphMutationListener.settled), after
+// the network has released its locks: other members' changes go on, and
+// join the same group commit, meanwhile. A change is thus applied in memory
+// before it is durable. If writing the log fails, the operation that waits
+// for it throws UncheckedIOException after its changes were applied; every
+// later change is still applied but not logged, and its operation throws the
+// same way. Restart from the log, which holds the changes made durable.
+//
+// Record layout: int payload length, int CRC32 of the payload, then the
+// payload: operation ordinal (byte), actor (modified UTF-8) and, for
+// operations with a target, the target (modified UTF-8).
+public class WriteAheadLog implements GraphMutationListener, Closeable {
+
+	// operations per batch when replaying
+	private static final int REPLAY_BATCH_SIZE = 10000;
+
+	// larger records can only come from a corrupt length field
+	private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+	private final FileChannel channel;
+
+	private final int syncEveryRecords;
+
+	private final long syncIntervalMillis;
+
+	private final boolean waitForSync;
+
+	// with waitForSync, the sequence number of the last record appended by
+	// each thread and not yet waited for
+	private final ThreadLocal<Long> unsettled = new ThreadLocal<Long>();
+
+	// records appended but not yet written, and their count
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private int pendingRecords = 0;
+
+	// sequence number of the last appended record and of the last durable one
+	private long appendedSequence = 0;
+	private long durableSequence = 0;
+
+	// file position just after the last appended record
+	private long appendedPosition;
+
+	// callers blocked in awaitDurable; while there are any, pending records
+	// are synced without waiting for the interval
+	private int waiters = 0;
+
+	private IOException failure = null;
+
+	private boolean closed = false;
+
+	private final Thread syncer;
+
+	// open file for appending, creating it if needed. A torn record left at
+	// the end by a crash is cut off first, so new records follow the last
+	// intact one.
+	public WriteAheadLog(Path file, int syncEveryRecords, long syncIntervalMillis, boolean waitForSync)
+			throws IOException {
+		if ((syncEveryRecords <= 0) || (syncIntervalMillis < 0))
+			throw new IllegalArgumentException("invalid sync settings");
+		long valid = scan(file, 0, null);
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.truncate(valid);
+		channel.position(valid);
+		this.appendedPosition = valid;
+		this.syncEveryRecords = syncEveryRecords;
+		this.syncIntervalMillis = syncIntervalMillis;
+		this.waitForSync = waitForSync;
+		this.syncer = new Thread(new Runnable() {
+			public void run() {
+				syncLoop();
+			}
+		}, "write-ahead-log-sync");
+		syncer.setDaemon(true);
+		syncer.start();
+	}
+
+	// log with group commit every 1000 records or 10 ms, callers don't wait
+	public WriteAheadLog(Path file) throws IOException {
+		this(file, 1000, 10, false);
+	}
+
+	public void changed(GraphOperation operation, String actor, String target) {
+		long sequence = append(operation, actor, target);
+		if (waitForSync)
+			unsettled.set(sequence);
+	}
+
+	// with waitForSync, wait until the records the calling thread appended
+	// are durable, even if interrupted meanwhile
+	public void settled() {
+		Long sequence = unsettled.get();
+		if (sequence == null)
+			return;
+		unsettled.remove();
+		try {
+			awaitDurableUninterruptibly(sequence);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// buffer a record; returns its sequence number
+	public long append(GraphOperation operation, String actor, String target) {
+		byte[] record = encode(operation, actor, target);
+		synchronized (this) {
+			if (failure != null)
+				throw new UncheckedIOException("write-ahead log failed", failure);
+			if (closed)
+				throw new IllegalStateException("write-ahead log is closed");
+			pending.write(record, 0, record.length);
+			pendingRecords++;
+			appendedSequence++;
+			appendedPosition += record.length;
+			// the first pending record starts the sync interval
+			if ((pendingRecords == 1) || (pendingRecords >= syncEveryRecords))
+				notifyAll();
+			return appendedSequence;
+		}
+	}
+
+	// wait until the record with the given sequence number has been fsynced
+	public synchronized void awaitDurable(long sequence) throws IOException, InterruptedException {
+		waiters++;
+		try {
+			while ((durableSequence < sequence) && (failure == null)) {
+				notifyAll();
+				wait();
+			}
+		} finally {
+			waiters--;
+		}
+		if (durableSequence < sequence)
+			throw failure;
+	}
+
+	// awaitDurable, going on waiting if interrupted: the interrupt flag is
+	// set again once the record is durable or the log has failed
+	private void awaitDurableUninterruptibly(long sequence) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					awaitDurable(sequence);
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	// write and fsync everything appended so far, even if interrupted
+	// meanwhile
+	public void sync() throws IOException {
+		long sequence;
+		synchronized (this) {
+			sequence = appendedSequence;
+		}
+		awaitDurableUninterruptibly(sequence);
+	}
+
+	// file position after the last record appended so far: a snapshot of the
+	// network as it is now (see MappedGraph) is recovered by replaying the
+	// log from there. Sync before saving the snapshot, so that the log can't
+	// lose the records before the position.
+	public synchronized long position() {
+		return appendedPosition;
+	}
+
+	// sync and close the log
+	public void close() throws IOException {
+		sync();
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		boolean interrupted = false;
+		while (syncer.isAlive()) {
+			try {
+				syncer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		channel.close();
+	}
+
+	private void syncLoop() {
+		while (true) {
+			ByteArrayOutputStream batch;
+			long batchSequence;
+			synchronized (this) {
+				try {
+					while (!closed && (pendingRecords == 0))
+						wait();
+					long deadline = System.currentTimeMillis() + syncIntervalMillis;
+					while (!closed && (pendingRecords < syncEveryRecords) && (waiters == 0)) {
+						long delay = deadline - System.currentTimeMillis();
+						if (delay <= 0)
+							break;
+						wait(delay);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (pendingRecords == 0)
+					return;
+				batch = pending;
+				batchSequence = appendedSequence;
+				pending = new ByteArrayOutputStream();
+				pendingRecords = 0;
+			}
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+				channel.force(false);
+				synchronized (this) {
+					durableSequence = batchSequence;
+					notifyAll();
+				}
+			} catch (IOException e) {
+				synchronized (this) {
+					failure = e;
+					notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	private static byte[] encode(GraphOperation operation, String actor, String target) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream payload = new DataOutputStream(bytes);
+			payload.writeByte(operation.ordinal());
+			payload.writeUTF(actor);
+			if (operation.hasTarget())
+				payload.writeUTF(target);
+			byte[] body = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+			record.putInt(body.length).putInt((int) crc.getValue()).put(body);
+			return record.array();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// read the log and hand its changes, in order, to target in batches (e.g.
+	// socialNetwork::apply). A torn or corrupt record at the end of the log,
+	// left by a crash during a write, ends the replay. Returns the number of
+	// changes replayed.
+	public static long replay(Path file, Consumer<GraphBatch> target) throws IOException {
+		return replay(file, 0, target);
+	}
+
+	// replay the records from file position from on, e.g. the logPosition of
+	// a snapshot the network was restored from
+	public static long replay(Path file, long from, final Consumer<GraphBatch> target) throws IOException {
+		final long[] replayed = { 0 };
+		scan(file, from, new Consumer<GraphBatch>() {
+			public void accept(GraphBatch batch) {
+				replayed[0] += batch.size();
+				target.accept(batch);
+			}
+		});
+		return replayed[0];
+	}
+
+	// read the complete, intact records of file from position from on and
+	// hand them to target (if not null); returns the position after the last
+	// of them
+	private static long scan(Path file, long from, Consumer<GraphBatch> target) throws IOException {
+		if (!Files.exists(file) && (from == 0))
+			return 0;
+		long valid = from;
+		GraphOperation[] operations = GraphOperation.values();
+		try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+			if ((from < 0) || (from > channel.size()))
+				throw new IOException("log position " + from + " is outside " + file);
+			channel.position(from);
+			InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+			DataInputStream records = new DataInputStream(in);
+			GraphBatch batch = new GraphBatch();
+			while (true) {
+				byte[] body;
+				try {
+					int length = records.readInt();
+					int checksum = records.readInt();
+					if ((length < 0) || (length > MAX_RECORD_LENGTH))
+						break;
+					body = new byte[length];
+					records.readFully(body);
+					CRC32 crc = new CRC32();
+					crc.update(body);
+					if (((int) crc.getValue() != checksum) || (body.length == 0)
+							|| ((body[0] & 0xff) >= operations.length))
+						break;
+				} catch (EOFException e) {
+					break;
+				}
+				valid += 8 + body.length;
+				if (target == null)
+					continue;
+				DataInputStream payload = new DataInputStream(new ByteArrayInputStream(body));
+				GraphOperation operation = operations[payload.readUnsignedByte()];
+				String actor = payload.readUTF();
+				String other = operation.hasTarget() ? payload.readUTF() : null;
+				batch.add(operation, actor, other);
+				if (batch.size() == REPLAY_BATCH_SIZE) {
+					target.accept(batch);
+					batch = new GraphBatch();
+				}
+			}
+			if ((target != null) && (batch.size() > 0))
+				target.accept(batch);
+		}
+		return valid;
+	}
+
+}
@@ -0,0 +1,44 @@
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccountDirectoryTest {
+
+	AccountDirectory directory;
+	Account me;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = new AccountDirectory();
+		me = new Account("Hakan");
+		directory.add(me);
+	}
+
+	@Test
+	public void findsAccountByUserName() {
+		assertSame(me, directory.find("Hakan"));
+		assertTrue(directory.contains("Hakan"));
+	}
+
+	@Test
+	public void unknownOrNullUserNameIsNotFound() {
+		assertNull(directory.find("Cecile"));
+		assertNull(directory.find(null));
+		assertFalse(directory.contains(null));
+	}
+
+	@Test
+	public void cannotAddTheSameUserNameTwice() {
+		assertFalse(directory.add(new Account("Hakan")));
+		assertSame(me, directory.find("Hakan"));
+		assertEquals(1, directory.size());
+	}
+
+	@Test
+	public void removedAccountIsNoLongerFound() {
+		directory.remove(me);
+		assertFalse(directory.contains("Hakan"));
+		assertTrue(directory.userNames().isEmpty());
+	}
+}
@@ -0,0 +1,54 @@
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockIndexTest {
+
+	UserNameInterner names;
+	BlockIndex blocks;
+
+	@Before
+	public void setUp() {
+		names = new UserNameInterner();
+		blocks = new BlockIndex(names);
+	}
+
+	@Test
+	public void blockHidesBlockerFromBlocked() {
+		blocks.block(names.intern("Hakan"), names.intern("Cecile"));
+		assertTrue(blocks.isBlocked("Hakan", "Cecile"));
+		assertFalse(blocks.isBlocked("Cecile", "Hakan"));
+		assertFalse(blocks.isVisible("Cecile", "Hakan"));
+		assertTrue(blocks.isVisible("Hakan", "Cecile"));
+		assertEquals(1, blocks.size());
+	}
+
+	@Test
+	public void unblockMakesVisibleAgain() {
+		blocks.block(names.intern("Hakan"), names.intern("Cecile"));
+		blocks.unblock(names.intern("Hakan"), names.intern("Cecile"));
+		assertTrue(blocks.isVisible("Cecile", "Hakan"));
+		assertEquals(0, blocks.size());
+	}
+
+	@Test
+	public void unknownNamesAreVisible() {
+		assertTrue(blocks.isVisible("nobody", "Hakan"));
+		assertFalse(blocks.isBlocked(-1, 3));
+	}
+
+	@Test
+	public void exactBeyondTheFilterSize() {
+		for (int i = 0; i < 100000; i++)
+			blocks.block(i, i + 1);
+		for (int i = 0; i < 100000; i += 2)
+			blocks.unblock(i, i + 1);
+		for (int i = 0; i < 100000; i++) {
+			assertEquals(i % 2 == 1, blocks.isBlocked(i, i + 1));
+			assertFalse(blocks.isBlocked(i + 1, i));
+		}
+		assertEquals(50000, blocks.size());
+	}
+
+}
@@ -0,0 +1,389 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentSocialNetworkTest {
+
+	ConcurrentSocialNetwork sn;
+	Account me, her, another;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new ConcurrentSocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Harpreet");
+	}
+
+	@Test
+	public void twoSessionsCanBeLoggedInAtOnce() throws NoUserLoggedInException {
+		ISocialNetworkSession mine = sn.login(me);
+		ISocialNetworkSession hers = sn.login(her);
+		mine.sendFriendshipTo(her.getUserName());
+		hers.acceptFriendshipFrom(me.getUserName());
+		assertTrue(me.hasFriend(her.getUserName()));
+		assertTrue(her.hasFriend(me.getUserName()));
+	}
+
+	@Test
+	public void cannotLoginWithAccountOfAnotherNetwork() {
+		assertNull(sn.login(new Account("Hakan")));
+	}
+
+	@Test(expected = NoUserLoggedInException.class)
+	public void sessionCannotBeUsedAfterLogout() throws NoUserLoggedInException {
+		ISocialNetworkSession mine = sn.login(me);
+		mine.logout();
+		mine.listMembers();
+	}
+
+	@Test(expected = NoUserLoggedInException.class)
+	public void otherSessionsOfLeavingMemberEnd() throws NoUserLoggedInException {
+		ISocialNetworkSession first = sn.login(me);
+		ISocialNetworkSession second = sn.login(me);
+		first.leave();
+		second.sendFriendshipTo(her.getUserName());
+	}
+
+	@Test
+	public void blockedMemberCantSeeMe() throws NoUserLoggedInException {
+		sn.login(me).block(her.getUserName());
+		assertFalse(sn.login(her).listMembers().contains(me.getUserName()));
+		assertTrue(sn.login(another).listMembers().contains(me.getUserName()));
+	}
+
+	@Test
+	public void concurrentSessionsKeepFriendshipsSymmetric() throws Exception {
+		final int members = 40;
+		final List<Account> accounts = new ArrayList<Account>();
+		for (int i = 0; i < members; i++)
+			accounts.add(sn.join("member" + i));
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		// every member asks all members after it, then accepts all before it
+		runForEachMember(pool, accounts, true);
+		runForEachMember(pool, accounts, false);
+		pool.shutdown();
+		for (Account each : accounts) {
+			assertEquals(members - 1, each.getFriends().size());
+			assertTrue(each.getIncomingRequests().isEmpty());
+			assertTrue(each.getOutgoingRequests().isEmpty());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void crossingChangesDoNotDeadlockAndStayConsistent() throws Exception {
+		final ISocialNetworkSession mine = sn.login(me);
+		final ISocialNetworkSession hers = sn.login(her);
+		mine.autoAcceptFriendships();
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		Future<Object> first = pool.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				for (int i = 0; i < 20000; i++) {
+					mine.sendFriendshipCancellationTo(her.getUserName());
+					mine.acceptFriendshipFrom(her.getUserName());
+				}
+				return null;
+			}
+		});
+		Future<Object> second = pool.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				for (int i = 0; i < 20000; i++) {
+					hers.sendFriendshipTo(me.getUserName());
+					hers.sendFriendshipCancellationTo(me.getUserName());
+				}
+				return null;
+			}
+		});
+		first.get();
+		second.get();
+		pool.shutdown();
+		assertEquals(me.hasFriend(her.getUserName()), her.hasFriend(me.getUserName()));
+		assertEquals(me.getIncomingRequests().contains(her.getUserName()),
+				her.getOutgoingRequests().contains(me.getUserName()));
+	}
+
+	private void runForEachMember(ExecutorService pool, final List<Account> accounts, final boolean send)
+			throws Exception {
+		List<Future<Object>> done = new ArrayList<Future<Object>>();
+		for (int i = 0; i < accounts.size(); i++) {
+			final int index = i;
+			done.add(pool.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					ISocialNetworkSession session = sn.login(accounts.get(index));
+					for (int j = 0; j < accounts.size(); j++) {
+						if (send && (j > index))
+							session.sendFriendshipTo(accounts.get(j).getUserName());
+						if (!send && (j < index))
+							session.acceptFriendshipFrom(accounts.get(j).getUserName());
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Object> each : done)
+			each.get();
+	}
+
+	@Test
+	public void queuedRequestsReachAnAutoAcceptingMember() throws Exception {
+		final ConcurrentSocialNetwork queued = new ConcurrentSocialNetwork(4, 8, 16);
+		try {
+			Account star = queued.join("star");
+			queued.login(star).autoAcceptFriendships();
+			final List<Account> fans = new ArrayList<Account>();
+			for (int i = 0; i < 200; i++)
+				fans.add(queued.join("fan" + i));
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			List<Future<Void>> done = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 4; t++) {
+				final int first = t;
+				done.add(pool.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						for (int i = first; i < fans.size(); i += 4)
+							queued.login(fans.get(i)).sendFriendshipTo("star");
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> each : done)
+				each.get();
+			pool.shutdown();
+			queued.awaitRequests();
+			assertEquals(200, star.getFriends().size());
+			assertTrue(star.getIncomingRequests().isEmpty());
+		} finally {
+			queued.close();
+		}
+	}
+
+	@Test
+	public void sessionSeesItsOwnQueuedRequests() throws Exception {
+		ConcurrentSocialNetwork queued = new ConcurrentSocialNetwork(2, 4, 4);
+		try {
+			Account first = queued.join("Hakan");
+			queued.join("Cecile");
+			ISocialNetworkSession session = queued.login(first);
+			session.sendFriendshipTo("Cecile");
+			session.hasMember("Cecile");
+			assertTrue(first.getOutgoingRequests().contains("Cecile"));
+		} finally {
+			queued.close();
+		}
+	}
+
+	@Test
+	public void interruptedRequestIsNotDroppedSilently() throws Exception {
+		ConcurrentSocialNetwork queued = new ConcurrentSocialNetwork(2, 4, 4);
+		try {
+			Account first = queued.join("Hakan");
+			queued.join("Cecile");
+			ISocialNetworkSession session = queued.login(first);
+			Thread.currentThread().interrupt();
+			try {
+				session.sendFriendshipTo("Cecile");
+				fail("interrupted request was dropped silently");
+			} catch (IllegalStateException e) {
+				assertTrue(e.getCause() instanceof InterruptedException);
+			}
+			assertTrue(Thread.interrupted());
+			queued.awaitRequests();
+			assertFalse(first.getOutgoingRequests().contains("Cecile"));
+		} finally {
+			queued.close();
+		}
+	}
+
+	@Test
+	public void requestsToAMemberApplyInOrder() throws Exception {
+		ConcurrentSocialNetwork queued = new ConcurrentSocialNetwork(2, 4, 4);
+		try {
+			Account star = queued.join("star");
+			Account early = queued.join("early");
+			Account late = queued.join("late");
+			ISocialNetworkSession stars = queued.login(star);
+			stars.autoAcceptFriendships();
+			queued.login(early).sendFriendshipTo("star");
+			stars.cancelAutoAcceptFriendships();
+			queued.login(late).sendFriendshipTo("star");
+			queued.awaitRequests();
+			assertTrue(star.hasFriend("early"));
+			assertFalse(star.hasFriend("late"));
+			assertTrue(star.getIncomingRequests().contains("late"));
+			assertFalse(late.hasFriend("star"));
+			assertTrue(early.hasFriend("star"));
+		} finally {
+			queued.close();
+		}
+	}
+
+	@Test
+	public void batchRecommendationsMatchThoseOfEachMember() throws Exception {
+		Account[] accounts = new SocialGraphGenerator().members(300).friendsPerJoin(3).seed(5).load(sn);
+		final Map<String, Collection<String>> batch = new ConcurrentHashMap<String, Collection<String>>();
+		sn.recommendFriendsForAll(batch::put);
+		assertEquals(sn.listAllMembers().size(), batch.size());
+		for (Account each : accounts)
+			assertEquals(sn.login(each).recommendFriends(), batch.get(each.getUserName()));
+	}
+
+	@Test(timeout = 20000)
+	public void batchRecommendationsRunAlongsideSessions() throws Exception {
+		final Account[] accounts = new SocialGraphGenerator().members(3 * SocialGraph.BULK_CHUNK).friendsPerJoin(3)
+				.seed(5).load(sn);
+		final Set<String> members = sn.listAllMembers();
+		final AtomicBoolean done = new AtomicBoolean(false);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<Integer> sessions = pool.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				Random random = new Random(7);
+				int changes = 0;
+				for (; !done.get(); changes++) {
+					Account from = accounts[random.nextInt(accounts.length)];
+					String to = accounts[random.nextInt(accounts.length)].getUserName();
+					sn.login(from).sendFriendshipTo(to);
+					sn.login(from).sendFriendshipCancellationTo(to);
+					sn.join("newcomer" + changes);
+				}
+				return changes;
+			}
+		});
+		final Map<String, Collection<String>> batch = new ConcurrentHashMap<String, Collection<String>>();
+		try {
+			// the consumer may change the network itself
+			sn.recommendFriendsFor(members, new BiConsumer<String, Collection<String>>() {
+				public void accept(String userName, Collection<String> recommended) {
+					batch.put(userName, recommended);
+					if (batch.size() % 100 == 0)
+						sn.join("joined-by-" + userName);
+				}
+			});
+		} finally {
+			done.set(true);
+			sessions.get();
+			pool.shutdown();
+		}
+		assertEquals(members.size(), batch.size());
+		int joinedByConsumer = 0;
+		for (String each : sn.listAllMembers()) {
+			if (each.startsWith("joined-by-"))
+				joinedByConsumer++;
+		}
+		assertEquals(batch.size() / 100, joinedByConsumer);
+	}
+
+	@Test
+	public void celebrityLeavesInChunksWhileOthersGoOn() throws Exception {
+		final Account star = sn.join("star");
+		sn.login(star).autoAcceptFriendships();
+		List<Account> fans = new ArrayList<Account>();
+		for (int i = 0; i < 3 * SocialGraph.BULK_CHUNK; i++) {
+			Account fan = sn.join("fan" + i);
+			fans.add(fan);
+			sn.login(fan).sendFriendshipTo("star");
+		}
+		assertEquals(fans.size(), star.getFriends().size());
+		for (int i = 0; i < 100; i++) {
+			Account blocker = sn.join("blocker" + i);
+			fans.add(blocker);
+			sn.login(blocker).block("star");
+		}
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<Void> others = pool.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				ISocialNetworkSession mine = sn.login(me);
+				for (int i = 0; i < 1000; i++) {
+					mine.sendFriendshipTo("Cecile");
+					mine.sendFriendshipCancellationTo("Cecile");
+				}
+				return null;
+			}
+		});
+		sn.login(star).leave();
+		others.get();
+		pool.shutdown();
+		assertFalse(sn.listAllMembers().contains("star"));
+		for (Account each : fans) {
+			for (AccountRelation relation : AccountRelation.values())
+				assertFalse(relation.of(each).contains("star"));
+		}
+	}
+
+	@Test
+	public void nameOfLeavingMemberIsFreeOnceUnlinked() throws Exception {
+		final Account star = sn.join("star");
+		sn.login(star).autoAcceptFriendships();
+		final List<Account> fans = new ArrayList<Account>();
+		for (int i = 0; i < 3 * SocialGraph.BULK_CHUNK; i++) {
+			Account fan = sn.join("fan" + i);
+			fans.add(fan);
+			sn.login(fan).sendFriendshipTo("star");
+		}
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<Account> rejoined = pool.submit(new Callable<Account>() {
+			public Account call() throws Exception {
+				Account again = null;
+				while (again == null)
+					again = sn.join("star");
+				// befriend fans whose old friendship may not be unlinked yet
+				ISocialNetworkSession session = sn.login(again);
+				session.autoAcceptFriendships();
+				for (Account each : fans)
+					sn.login(each).sendFriendshipTo("star");
+				return again;
+			}
+		});
+		sn.login(star).leave();
+		Account again = rejoined.get();
+		pool.shutdown();
+		assertEquals(fans.size(), again.getFriends().size());
+		for (Account each : fans)
+			assertTrue(each.hasFriend("star"));
+		assertTrue(star.getFriends().isEmpty());
+	}
+
+	@Test
+	public void acceptingAllRequestsTakesChunks() throws Exception {
+		for (int i = 0; i < 2 * SocialGraph.BULK_CHUNK + 1; i++)
+			sn.login(sn.join("fan" + i)).sendFriendshipTo("Hakan");
+		ISocialNetworkSession mine = sn.login(me);
+		mine.acceptAllFriendships();
+		assertTrue(me.getIncomingRequests().isEmpty());
+		assertEquals(2 * SocialGraph.BULK_CHUNK + 1, me.getFriends().size());
+		assertTrue(sn.login(sn.join("late")).hasMember("Hakan"));
+		sn.login(sn.join("later")).sendFriendshipTo("Hakan");
+		mine.rejectAllFriendships();
+		assertTrue(me.getIncomingRequests().isEmpty());
+	}
+	@Test
+	public void sessionsFindMutualFriendsAndConnections() throws Exception {
+		Account fourth = sn.join("khaira");
+		sn.login(me).sendFriendshipTo("Cecile");
+		sn.login(her).acceptFriendshipFrom("Hakan");
+		sn.login(another).sendFriendshipTo("Cecile");
+		sn.login(her).acceptFriendshipFrom("Harpreet");
+		sn.login(another).sendFriendshipTo("khaira");
+		sn.login(fourth).acceptFriendshipFrom("Harpreet");
+		ISocialNetworkSession session = sn.login(me);
+		assertEquals(Arrays.asList("Cecile"), session.mutualFriendsWith("Harpreet"));
+		assertEquals(Arrays.asList("Hakan", "Cecile", "Harpreet", "khaira"), session.connectionTo("khaira", 3));
+		assertTrue(session.connectionTo("khaira", 2).isEmpty());
+		assertEquals(3, sn.metrics().snapshot().latencies(NetworkOperation.FIND_CONNECTIONS).count());
+	}
+
+}
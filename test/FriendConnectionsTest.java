@@ -0,0 +1,157 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FriendConnectionsTest {
+
+	SocialNetwork sn;
+	Account[] chain;
+
+	// a chain of friends m0 - m1 - m2 - m3 - m4
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		chain = new Account[5];
+		for (int i = 0; i < chain.length; i++)
+			chain[i] = sn.join("m" + i);
+		for (int i = 1; i < chain.length; i++)
+			befriend(chain[i - 1], chain[i]);
+	}
+
+	private void befriend(Account from, Account to) throws NoUserLoggedInException {
+		sn.login(from);
+		sn.sendFriendshipTo(to.getUserName());
+		sn.login(to);
+		sn.acceptFriendshipFrom(from.getUserName());
+	}
+
+	@Test
+	public void listsMutualFriendsOfVisibleMembers() throws NoUserLoggedInException {
+		Account other = sn.join("other");
+		befriend(other, chain[1]);
+		befriend(other, chain[3]);
+		sn.login(chain[2]);
+		assertEquals(Arrays.asList("m1", "m3"), sn.mutualFriendsWith("other"));
+		assertTrue(sn.mutualFriendsWith("m2").isEmpty());
+		assertTrue(sn.mutualFriendsWith("nobody").isEmpty());
+		// m3 blocked m2: m2 can no longer see m3 among the mutual friends
+		sn.login(chain[3]);
+		sn.block("m2");
+		sn.login(chain[2]);
+		assertEquals(Arrays.asList("m1"), sn.mutualFriendsWith("other"));
+		// other blocked m2: other is invisible to m2
+		sn.login(other);
+		sn.block("m2");
+		sn.login(chain[2]);
+		assertTrue(sn.mutualFriendsWith("other").isEmpty());
+	}
+
+	@Test
+	public void findsPathsUpToMaxHops() throws NoUserLoggedInException {
+		sn.login(chain[0]);
+		assertEquals(Arrays.asList("m0"), sn.connectionTo("m0", 0));
+		assertEquals(Arrays.asList("m0", "m1"), sn.connectionTo("m1", 1));
+		assertEquals(Arrays.asList("m0", "m1", "m2", "m3", "m4"), sn.connectionTo("m4", 4));
+		assertTrue(sn.connectionTo("m4", 3).isEmpty());
+		assertTrue(sn.connectionTo("nobody", 6).isEmpty());
+		sn.login(chain[4]);
+		assertEquals(Arrays.asList("m4", "m3", "m2", "m1", "m0"), sn.connectionTo("m0", 6));
+	}
+
+	@Test
+	public void pathsAvoidMembersWhoBlockedTheUser() throws NoUserLoggedInException {
+		// a longer way around m2: m1 - detour1 - detour2 - m3
+		Account detour1 = sn.join("detour1");
+		Account detour2 = sn.join("detour2");
+		befriend(chain[1], detour1);
+		befriend(detour1, detour2);
+		befriend(detour2, chain[3]);
+		sn.login(chain[2]);
+		sn.block("m0");
+		sn.login(chain[0]);
+		assertEquals(Arrays.asList("m0", "m1", "detour1", "detour2", "m3", "m4"), sn.connectionTo("m4", 6));
+		assertTrue(sn.connectionTo("m4", 4).isEmpty());
+		assertTrue(sn.connectionTo("m2", 6).isEmpty());
+		sn.login(chain[1]);
+		assertEquals(Arrays.asList("m1", "m2", "m3", "m4"), sn.connectionTo("m4", 6));
+	}
+
+	@Test
+	public void pathsAreAsShortAsABreadthFirstSearch() throws NoUserLoggedInException {
+		SocialNetwork network = new SocialNetwork(RelationStorage.BITMAP);
+		Account[] accounts = new SocialGraphGenerator().members(2000).friendsPerJoin(2).blocksPerMember(0).seed(5)
+				.load(network);
+		Map<String, Account> byName = new HashMap<String, Account>();
+		for (Account each : accounts)
+			byName.put(each.getUserName(), each);
+		Random random = new Random(6);
+		for (int i = 0; i < 50; i++) {
+			Account from = accounts[random.nextInt(accounts.length)];
+			Account to = accounts[random.nextInt(accounts.length)];
+			int hops = hops(byName, from, to.getUserName());
+			network.login(from);
+			List<String> path = network.connectionTo(to.getUserName(), 20);
+			assertEquals(hops, path.size() - 1);
+			if (path.isEmpty())
+				continue;
+			assertEquals(from.getUserName(), path.get(0));
+			assertEquals(to.getUserName(), path.get(path.size() - 1));
+			for (int j = 1; j < path.size(); j++)
+				assertTrue(byName.get(path.get(j - 1)).hasFriend(path.get(j)));
+		}
+	}
+
+	// length of a shortest chain of friends, by a plain breadth-first search
+	private static int hops(Map<String, Account> accounts, Account from, String to) {
+		Map<String, Integer> distances = new HashMap<String, Integer>();
+		Queue<Account> queue = new ArrayDeque<Account>();
+		distances.put(from.getUserName(), 0);
+		queue.add(from);
+		while (!queue.isEmpty()) {
+			Account account = queue.remove();
+			int distance = distances.get(account.getUserName());
+			if (account.getUserName().equals(to))
+				return distance;
+			for (String each : account.getFriends()) {
+				if (!distances.containsKey(each)) {
+					distances.put(each, distance + 1);
+					queue.add(accounts.get(each));
+				}
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void givesUpAfterReachingTooManyMembers() throws NoUserLoggedInException {
+		// two hubs with 100 friends each, linked through one friend of each
+		AccountDirectory accounts = new AccountDirectory();
+		Account[] hubs = { sn.join("hubA"), sn.join("hubB") };
+		Account[] last = new Account[2];
+		for (int hub = 0; hub < hubs.length; hub++) {
+			accounts.add(hubs[hub]);
+			for (int i = 0; i < 100; i++) {
+				last[hub] = sn.join("spoke" + hub + "-" + i);
+				accounts.add(last[hub]);
+				befriend(hubs[hub], last[hub]);
+			}
+		}
+		befriend(last[0], last[1]);
+		BlockIndex blocks = new BlockIndex(new UserNameInterner());
+		FriendConnections unbounded = new FriendConnections(accounts, null, blocks);
+		assertEquals(Arrays.asList("hubA", "spoke0-99", "spoke1-99", "hubB"), unbounded.shortestPath(hubs[0], "hubB", 6));
+		FriendConnections bounded = new FriendConnections(accounts, null, blocks, 150);
+		assertTrue(bounded.shortestPath(hubs[0], "hubB", 6).isEmpty());
+		assertEquals(Arrays.asList("hubA", "spoke0-99", "spoke1-99"), bounded.shortestPath(hubs[0], "spoke1-99", 6));
+	}
+
+}
@@ -0,0 +1,131 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FriendRecommenderTest {
+
+	SocialNetwork sn;
+	Account me, her, another, fourth;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Harpreet");
+		fourth = sn.join("khaira");
+		befriend(me, her);
+		befriend(me, another);
+		befriend(fourth, her);
+		befriend(fourth, another);
+	}
+
+	private void befriend(Account from, Account to) throws NoUserLoggedInException {
+		sn.login(from);
+		sn.sendFriendshipTo(to.getUserName());
+		sn.login(to);
+		sn.acceptFriendshipFrom(from.getUserName());
+	}
+
+	@Test
+	public void recommendsMemberWithTwoCommonFriends() throws NoUserLoggedInException {
+		sn.login(me);
+		Collection<String> recommended = sn.recommendFriends();
+		assertEquals(1, recommended.size());
+		assertTrue(recommended.contains(fourth.getUserName()));
+	}
+
+	@Test
+	public void doesNotRecommendMemberWithOneCommonFriend() throws NoUserLoggedInException {
+		Account fifth = sn.join("Serra");
+		befriend(fifth, her);
+		sn.login(me);
+		assertFalse(sn.recommendFriends().contains(fifth.getUserName()));
+	}
+
+	@Test
+	public void doesNotRecommendBlockedMembers() throws NoUserLoggedInException {
+		sn.login(me);
+		sn.block(fourth.getUserName());
+		assertTrue(sn.recommendFriends().isEmpty());
+	}
+
+	@Test
+	public void recommendingDoesNotChangeOtherAccounts() throws NoUserLoggedInException {
+		sn.login(me);
+		sn.recommendFriends();
+		assertEquals(2, her.getFriends().size());
+		assertEquals(2, another.getFriends().size());
+		assertEquals(2, fourth.getFriends().size());
+	}
+
+	// khaira now has three friends in common with Hakan, Serra two and Ana
+	// one
+	private void addRankedCandidates() throws NoUserLoggedInException {
+		Account third = sn.join("Rui");
+		befriend(me, third);
+		befriend(fourth, third);
+		Account fifth = sn.join("Serra");
+		befriend(fifth, her);
+		befriend(fifth, another);
+		befriend(sn.join("Ana"), her);
+	}
+
+	@Test
+	public void rankedRecommendationsAreBestFirst() throws NoUserLoggedInException {
+		addRankedCandidates();
+		sn.login(me);
+		assertEquals(Arrays.asList("khaira", "Serra"), sn.recommendFriends(5, RecommendationScorer.COMMON_FRIENDS));
+		assertEquals(Arrays.asList("khaira", "Serra"), sn.recommendFriends(5, RecommendationScorer.JACCARD));
+		assertEquals(Arrays.asList("khaira", "Serra"), sn.recommendFriends(5, RecommendationScorer.ADAMIC_ADAR));
+	}
+
+	@Test
+	public void rankedRecommendationsNeedAsManyCommonFriends() throws NoUserLoggedInException {
+		addRankedCandidates();
+		sn.login(me);
+		// Ana has a single common friend, so she isn't ranked
+		List<String> ranked = sn.recommendFriends(5, RecommendationScorer.JACCARD);
+		assertFalse(ranked.contains("Ana"));
+		assertEquals(new HashSet<String>(sn.recommendFriends()), new HashSet<String>(ranked));
+	}
+
+	@Test
+	public void rankedRecommendationsAreLimitedToK() throws NoUserLoggedInException {
+		addRankedCandidates();
+		sn.login(me);
+		assertEquals(Arrays.asList("khaira"), sn.recommendFriends(1, RecommendationScorer.COMMON_FRIENDS));
+		assertTrue(sn.recommendFriends(0, RecommendationScorer.COMMON_FRIENDS).isEmpty());
+	}
+
+	@Test
+	public void batchRecommendationsMatchThoseOfEachMember() throws NoUserLoggedInException {
+		SocialNetwork generated = new SocialNetwork();
+		Account[] accounts = new SocialGraphGenerator().members(500).friendsPerJoin(4).blocksPerMember(0.2)
+				.seed(3).load(generated);
+		Map<String, Collection<String>> batch = new ConcurrentHashMap<String, Collection<String>>();
+		generated.recommendFriendsForAll(batch::put);
+		assertEquals(accounts.length, batch.size());
+		for (Account each : accounts) {
+			generated.login(each);
+			assertEquals(generated.recommendFriends(), batch.get(each.getUserName()));
+		}
+	}
+
+	@Test
+	public void batchRecommendsForTheGivenMembersOnly() {
+		Map<String, Collection<String>> batch = new ConcurrentHashMap<String, Collection<String>>();
+		sn.recommendFriendsFor(Arrays.asList("Hakan", "nobody"), batch::put);
+		assertEquals(1, batch.size());
+		assertEquals(1, batch.get("Hakan").size());
+		assertTrue(batch.get("Hakan").contains("khaira"));
+	}
+}
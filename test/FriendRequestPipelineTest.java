@@ -0,0 +1,138 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class FriendRequestPipelineTest {
+
+	// runs every batch as given
+	private static final Consumer<List<Runnable>> RUN_ALL = new Consumer<List<Runnable>>() {
+		public void accept(List<Runnable> batch) {
+			for (Runnable each : batch)
+				each.run();
+		}
+	};
+
+	@Test
+	public void changesWithTheSameKeyApplyInOrder() throws InterruptedException {
+		FriendRequestPipeline pipeline = new FriendRequestPipeline(4, 16, 8, RUN_ALL);
+		final List<Integer> applied = Collections.synchronizedList(new ArrayList<Integer>());
+		for (int i = 0; i < 1000; i++) {
+			final int value = i;
+			pipeline.submit("star", new Runnable() {
+				public void run() {
+					applied.add(value);
+				}
+			});
+		}
+		pipeline.awaitIdle();
+		assertEquals(1000, applied.size());
+		for (int i = 0; i < 1000; i++)
+			assertEquals(i, (int) applied.get(i));
+		pipeline.close();
+	}
+
+	@Test
+	public void fullLaneBlocksTheSubmitter() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final FriendRequestPipeline pipeline = new FriendRequestPipeline(1, 1, 1, new Consumer<List<Runnable>>() {
+			public void accept(List<Runnable> batch) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				RUN_ALL.accept(batch);
+			}
+		});
+		final CountDownLatch submitted = new CountDownLatch(3);
+		Thread submitter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for (int i = 0; i < 3; i++) {
+						pipeline.submit("star", new Runnable() {
+							public void run() {
+							}
+						});
+						submitted.countDown();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		submitter.start();
+		// one change is being applied, one waits in the queue, the third can't
+		// be queued
+		assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, submitted.getCount());
+		release.countDown();
+		assertTrue(submitted.await(5, TimeUnit.SECONDS));
+		pipeline.close();
+	}
+
+	@Test
+	public void batchesCollectWaitingChanges() throws InterruptedException {
+		final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch release = new CountDownLatch(1);
+		FriendRequestPipeline pipeline = new FriendRequestPipeline(1, 100, 50, new Consumer<List<Runnable>>() {
+			public void accept(List<Runnable> batch) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				sizes.add(batch.size());
+				RUN_ALL.accept(batch);
+			}
+		});
+		for (int i = 0; i < 51; i++) {
+			pipeline.submit("star", new Runnable() {
+				public void run() {
+				}
+			});
+		}
+		release.countDown();
+		pipeline.awaitIdle();
+		// the consumer is held up with its first batch while the rest queue up
+		// behind it, and then takes them as one batch
+		assertEquals(2, sizes.size());
+		assertEquals(51, sizes.get(0) + sizes.get(1));
+		pipeline.close();
+	}
+
+	@Test
+	public void failuresAreReportedOnce() throws InterruptedException {
+		FriendRequestPipeline pipeline = new FriendRequestPipeline(1, 4, 4, RUN_ALL);
+		pipeline.submit("star", new Runnable() {
+			public void run() {
+				throw new IllegalArgumentException("broken");
+			}
+		});
+		try {
+			pipeline.awaitIdle();
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		pipeline.awaitIdle();
+		pipeline.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedPipelineRejectsChanges() throws InterruptedException {
+		FriendRequestPipeline pipeline = new FriendRequestPipeline(1, 4, 4, RUN_ALL);
+		pipeline.close();
+		pipeline.submit("star", new Runnable() {
+			public void run() {
+			}
+		});
+	}
+
+}
@@ -0,0 +1,58 @@
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphBatchTest {
+
+	SocialNetwork sn;
+	GraphBatch batch;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		batch = new GraphBatch();
+	}
+
+	@Test
+	public void batchJoinsAndBefriendsMembers() {
+		Account me = sn.join("Hakan");
+		batch.join("Hakan").join("Cecile").join("Harpreet");
+		batch.sendFriendship("Hakan", "Cecile").acceptFriendship("Cecile", "Hakan");
+		batch.sendFriendship("Harpreet", "Hakan");
+		sn.apply(batch);
+		assertEquals(3, sn.listAllMembers().size());
+		assertTrue(me.hasFriend("Cecile"));
+		assertTrue(me.getIncomingRequests().contains("Harpreet"));
+	}
+
+	@Test
+	public void operationsApplyInOrder() throws NoUserLoggedInException {
+		Account me = sn.join("Hakan");
+		Account her = sn.join("Cecile");
+		batch.autoAcceptFriendships("Hakan");
+		batch.sendFriendship("Cecile", "Hakan");
+		batch.cancelFriendship("Hakan", "Cecile");
+		batch.block("Hakan", "Cecile");
+		batch.sendFriendship("Cecile", "Hakan");
+		sn.apply(batch);
+		assertFalse(me.hasFriend(her.getUserName()));
+		assertTrue(me.getIncomingRequests().isEmpty());
+		sn.login(her);
+		assertFalse(sn.listMembers().contains(me.getUserName()));
+	}
+
+	@Test
+	public void operationsOfNonMembersAreSkipped() {
+		Account me = sn.join("Hakan");
+		batch.sendFriendship("nobody", "Hakan").leave("Hakan").sendFriendship("Hakan", "nobody");
+		sn.apply(batch);
+		assertTrue(me.getIncomingRequests().isEmpty());
+		assertFalse(sn.listAllMembers().contains("Hakan"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void friendRequestNeedsTarget() {
+		batch.add(GraphOperation.SEND_FRIENDSHIP, "Hakan", null);
+	}
+}
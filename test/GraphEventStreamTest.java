@@ -0,0 +1,187 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GraphEventStreamTest {
+
+	GraphEventStream stream;
+
+	// collects what a subscription got
+	static class Collector implements GraphEventStream.Subscriber {
+
+		final List<GraphEvent> events = Collections.synchronizedList(new ArrayList<GraphEvent>());
+
+		final AtomicLong lost = new AtomicLong();
+
+		public void onEvents(List<GraphEvent> batch) {
+			events.addAll(batch);
+		}
+
+		public void onEventsLost(long count) {
+			lost.addAndGet(count);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		if (stream != null)
+			stream.close();
+	}
+
+	@Test
+	public void changesOfANetworkAreDelivered() throws Exception {
+		SocialNetwork sn = new SocialNetwork();
+		stream = new GraphEventStream(16, 4);
+		sn.addMutationListener(stream);
+		Collector collector = new Collector();
+		stream.subscribe(collector);
+		Account hakan = sn.join("Hakan");
+		sn.join("Cecile");
+		sn.login(hakan);
+		sn.sendFriendshipTo("Cecile");
+		sn.block("Cecile");
+		sn.leave();
+		stream.flush();
+		GraphOperation[] expected = { GraphOperation.JOIN, GraphOperation.JOIN, GraphOperation.SEND_FRIENDSHIP,
+				GraphOperation.BLOCK, GraphOperation.LEAVE };
+		assertEquals(expected.length, collector.events.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(i, collector.events.get(i).sequence());
+			assertEquals(expected[i], collector.events.get(i).operation());
+		}
+		assertEquals("Cecile", collector.events.get(2).target());
+		assertNull(collector.events.get(4).target());
+		assertEquals(0, collector.lost.get());
+	}
+
+	@Test
+	public void changesWithoutEffectAreNotPublished() throws Exception {
+		SocialNetwork sn = new SocialNetwork();
+		Account hakan = sn.join("Hakan");
+		Account cecile = sn.join("Cecile");
+		stream = new GraphEventStream(16, 4);
+		sn.addMutationListener(stream);
+		sn.login(hakan);
+		sn.sendFriendshipCancellationTo("Cecile");
+		sn.unblock("Cecile");
+		sn.sendFriendshipTo("Cecile");
+		sn.sendFriendshipTo("Cecile");
+		sn.login(cecile);
+		sn.rejectFriendshipFrom("nobody");
+		sn.acceptFriendshipFrom("Hakan");
+		sn.acceptFriendshipFrom("Hakan");
+		sn.rejectFriendshipFrom("Hakan");
+		sn.cancelAutoAcceptFriendships();
+		sn.block("Hakan");
+		sn.block("Hakan");
+		assertEquals(3, stream.published());
+	}
+
+	@Test(timeout = 10000)
+	public void stalledProducerDoesNotOverwriteALaterEvent() throws Exception {
+		stream = new GraphEventStream(16, 4);
+		Collector collector = new Collector();
+		stream.subscribe(collector);
+		long stalled = stream.claim();
+		// the ring goes round once while the producer of stalled waits
+		for (int i = 1; i <= 16; i++)
+			stream.changed(GraphOperation.JOIN, "user" + i, null);
+		stream.publish(stalled, GraphOperation.JOIN, "user0", null);
+		stream.flush();
+		assertEquals(17, collector.events.size() + collector.lost.get());
+		assertEquals(16, collector.events.get(collector.events.size() - 1).sequence());
+	}
+
+	@Test
+	public void subscriptionsGetOnlyTheirOperations() throws Exception {
+		stream = new GraphEventStream(16, 4);
+		Collector joins = new Collector();
+		stream.subscribe(EnumSet.of(GraphOperation.JOIN), joins);
+		stream.changed(GraphOperation.JOIN, "Hakan", null);
+		stream.changed(GraphOperation.SEND_FRIENDSHIP, "Hakan", "Cecile");
+		stream.changed(GraphOperation.JOIN, "Cecile", null);
+		stream.flush();
+		assertEquals(2, joins.events.size());
+		assertEquals("Cecile", joins.events.get(1).actor());
+		assertEquals(2, joins.events.get(1).sequence());
+	}
+
+	@Test
+	public void slowSubscriberLosesEventsWithoutBlockingProducers() throws Exception {
+		stream = new GraphEventStream(8, 4);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		Collector collector = new Collector() {
+			public void onEvents(List<GraphEvent> batch) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.onEvents(batch);
+			}
+		};
+		stream.subscribe(collector);
+		stream.changed(GraphOperation.JOIN, "user0", null);
+		blocked.await();
+		for (int i = 1; i < 100; i++)
+			stream.changed(GraphOperation.JOIN, "user" + i, null);
+		release.countDown();
+		stream.flush();
+		assertTrue(collector.lost.get() > 0);
+		assertEquals(100, collector.events.size() + collector.lost.get());
+		assertEquals(99, collector.events.get(collector.events.size() - 1).sequence());
+		for (int i = 1; i < collector.events.size(); i++)
+			assertTrue(collector.events.get(i - 1).sequence() < collector.events.get(i).sequence());
+	}
+
+	@Test
+	public void concurrentProducersPublishEveryEventOnce() throws Exception {
+		stream = new GraphEventStream(1 << 16, 256);
+		Collector collector = new Collector();
+		stream.subscribe(collector);
+		List<Thread> producers = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final String actor = "producer" + t;
+			producers.add(new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 10000; i++)
+						stream.changed(GraphOperation.AUTO_ACCEPT, actor, null);
+				}
+			}));
+		}
+		for (Thread each : producers)
+			each.start();
+		for (Thread each : producers)
+			each.join();
+		stream.flush();
+		assertEquals(40000, stream.published());
+		assertEquals(40000, collector.events.size());
+		for (int i = 0; i < 40000; i++)
+			assertEquals(i, collector.events.get(i).sequence());
+	}
+
+	@Test
+	public void closingDeliversWhatWasPublished() throws Exception {
+		stream = new GraphEventStream(1024, 16);
+		Collector collector = new Collector();
+		GraphEventStream.Subscription subscription = stream.subscribe(collector);
+		for (int i = 0; i < 500; i++)
+			stream.changed(GraphOperation.JOIN, "user" + i, null);
+		stream.close();
+		assertEquals(500, collector.events.size());
+		assertEquals(500, subscription.position());
+		stream.changed(GraphOperation.JOIN, "late", null);
+		assertEquals(500, stream.published());
+	}
+
+}
@@ -0,0 +1,208 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GraphVersionTest {
+
+	SocialNetwork sn;
+	Account me, her, another;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Harpreet");
+		sn.login(me);
+		sn.sendFriendshipTo("Cecile");
+		sn.login(her);
+		sn.acceptFriendshipFrom("Hakan");
+	}
+
+	@Test
+	public void versionKeepsTheStateItWasPinnedAt() throws NoUserLoggedInException {
+		try (GraphVersion version = sn.pin()) {
+			sn.login(her);
+			sn.sendFriendshipCancellationTo("Hakan");
+			sn.autoAcceptFriendships();
+			sn.login(another);
+			sn.sendFriendshipTo("Cecile");
+			sn.block("Hakan");
+			sn.join("Latecomer");
+
+			assertEquals(new HashSet<String>(Arrays.asList("Cecile")), version.relation("Hakan", AccountRelation.FRIENDS));
+			assertEquals(new HashSet<String>(Arrays.asList("Hakan")), version.relation("Cecile", AccountRelation.FRIENDS));
+			assertTrue(version.relation("Harpreet", AccountRelation.OUTGOING_REQUESTS).isEmpty());
+			assertTrue(version.relation("Hakan", AccountRelation.BLOCKED_BY).isEmpty());
+			assertFalse(version.autoAcceptsFriendships("Cecile"));
+			assertFalse(version.hasMember("Latecomer"));
+			assertTrue(version.relation("Latecomer", AccountRelation.FRIENDS).isEmpty());
+			assertEquals(3, version.members().size());
+
+			// the live accounts did change
+			assertTrue(me.getFriends().isEmpty());
+			assertTrue(her.autoAcceptsFriendships());
+			assertEquals(Arrays.asList("Harpreet"), new ArrayList<String>(me.getBlockedBy()));
+		}
+	}
+
+	@Test
+	public void versionKeepsMembersWhoLeft() throws NoUserLoggedInException {
+		try (GraphVersion version = sn.pin()) {
+			sn.login(her);
+			sn.leave();
+			Account again = sn.join("Cecile");
+			sn.login(again);
+			sn.sendFriendshipTo("Harpreet");
+
+			assertTrue(version.hasMember("Cecile"));
+			assertEquals(new HashSet<String>(Arrays.asList("Hakan")), version.relation("Cecile", AccountRelation.FRIENDS));
+			assertEquals(new HashSet<String>(Arrays.asList("Cecile")), version.relation("Hakan", AccountRelation.FRIENDS));
+			assertTrue(version.relation("Cecile", AccountRelation.OUTGOING_REQUESTS).isEmpty());
+		}
+	}
+
+	@Test
+	public void versionsPinnedAtDifferentTimesSeeTheirOwnState() throws NoUserLoggedInException {
+		GraphVersion first = sn.pin();
+		sn.login(me);
+		sn.sendFriendshipTo("Harpreet");
+		GraphVersion second = sn.pin();
+		sn.login(another);
+		sn.acceptFriendshipFrom("Hakan");
+
+		assertEquals(Collections.singleton("Cecile"), first.relation("Hakan", AccountRelation.FRIENDS));
+		assertTrue(first.relation("Hakan", AccountRelation.OUTGOING_REQUESTS).isEmpty());
+		assertEquals(Collections.singleton("Harpreet"), second.relation("Hakan", AccountRelation.OUTGOING_REQUESTS));
+		first.close();
+		assertEquals(Collections.singleton("Harpreet"), second.relation("Hakan", AccountRelation.OUTGOING_REQUESTS));
+		assertEquals(Collections.singleton("Cecile"), second.relation("Hakan", AccountRelation.FRIENDS));
+		second.close();
+		assertEquals(new HashSet<String>(Arrays.asList("Cecile", "Harpreet")), me.getFriends());
+	}
+
+	@Test
+	public void versionPinnedWhileAMemberIsUnlinkedLeavesItOut() {
+		SocialGraph graph = new SocialGraph();
+		Account star = graph.join("star");
+		Account fan = graph.join("fan");
+		graph.sendFriendshipTo(fan, "star");
+		graph.acceptFriendshipFrom(star, "fan");
+		// pinned after star left, before its relations are unlinked
+		graph.detach(star);
+		try (GraphVersion version = graph.pin(null)) {
+			assertTrue(fan.hasFriend("star"));
+			assertFalse(version.hasMember("star"));
+			assertTrue(version.relation("fan", AccountRelation.FRIENDS).isEmpty());
+			graph.unlink(star, AccountRelation.FRIENDS, "fan");
+			graph.detached(star);
+			assertTrue(version.relation("fan", AccountRelation.FRIENDS).isEmpty());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedVersionCannotBeRead() {
+		GraphVersion version = sn.pin();
+		version.close();
+		version.relation("Hakan", AccountRelation.FRIENDS);
+	}
+
+	@Test
+	public void oldStatesAreReclaimedWhenNoVersionNeedsThem() throws NoUserLoggedInException {
+		GraphVersions versions = sn.versions();
+		// nothing is copied while nothing is pinned
+		sn.login(me);
+		sn.sendFriendshipTo("Harpreet");
+		assertEquals(0, versions.retainingCount());
+
+		GraphVersion version = sn.pin();
+		sn.login(another);
+		sn.acceptFriendshipFrom("Hakan");
+		assertEquals(2, versions.retainingCount());
+		assertEquals(1, versions.pinnedCount());
+		version.close();
+		assertEquals(0, versions.retainingCount());
+		assertEquals(0, versions.pinnedCount());
+
+		// and changes after the last version is released copy nothing
+		sn.login(me);
+		sn.sendFriendshipCancellationTo("Harpreet");
+		assertEquals(0, versions.retainingCount());
+	}
+
+	@Test
+	public void exportsAConsistentGraphWhileMembersKeepChanging() throws Exception {
+		final ConcurrentSocialNetwork network = new ConcurrentSocialNetwork();
+		final Account[] accounts = new Account[200];
+		for (int i = 0; i < accounts.length; i++)
+			accounts[i] = network.join("member" + i);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		ExecutorService writers = Executors.newFixedThreadPool(4);
+		List<Future<Void>> running = new ArrayList<Future<Void>>();
+		for (int w = 0; w < 4; w++) {
+			final Random random = new Random(w);
+			running.add(writers.submit(() -> {
+				while (!done.get()) {
+					ISocialNetworkSession session = network.login(accounts[random.nextInt(accounts.length)]);
+					String other = accounts[random.nextInt(accounts.length)].getUserName();
+					switch (random.nextInt(4)) {
+					case 0:
+						session.sendFriendshipTo(other);
+						break;
+					case 1:
+						session.acceptFriendshipFrom(other);
+						break;
+					case 2:
+						session.sendFriendshipCancellationTo(other);
+						break;
+					default:
+						session.rejectFriendshipFrom(other);
+					}
+				}
+				return null;
+			}));
+		}
+		Path file = Files.createTempFile("social-network", ".snapshot");
+		try {
+			for (int round = 0; round < 20; round++) {
+				try (GraphVersion version = network.pin()) {
+					for (String each : version.members()) {
+						for (String friend : version.relation(each, AccountRelation.FRIENDS))
+							assertTrue(version.relation(friend, AccountRelation.FRIENDS).contains(each));
+						for (String requested : version.relation(each, AccountRelation.OUTGOING_REQUESTS))
+							assertTrue(version.relation(requested, AccountRelation.INCOMING_REQUESTS).contains(each));
+					}
+				}
+			}
+			network.saveSnapshot(file);
+			MappedGraph snapshot = MappedGraph.open(file);
+			for (int i = 0; i < snapshot.memberCount(); i++) {
+				String each = snapshot.nameAt(i);
+				for (String friend : snapshot.relationOf(AccountRelation.FRIENDS, each))
+					assertTrue(snapshot.hasRelation(AccountRelation.FRIENDS, friend, each));
+			}
+		} finally {
+			done.set(true);
+			for (Future<Void> each : running)
+				each.get();
+			writers.shutdown();
+			Files.deleteIfExists(file);
+		}
+		assertEquals(0, network.versions().retainingCount());
+	}
+
+}
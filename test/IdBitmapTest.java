@@ -0,0 +1,134 @@
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class IdBitmapTest {
+
+	// a bitmap and a set with the same count random values below bound
+	private static IdBitmap randomBitmap(Random random, int count, int bound, Set<Integer> expected) {
+		IdBitmap bitmap = new IdBitmap();
+		for (int i = 0; i < count; i++) {
+			int value = random.nextInt(bound);
+			bitmap.add(value);
+			expected.add(value);
+		}
+		return bitmap;
+	}
+
+	private static void assertSame(Set<Integer> expected, IdBitmap bitmap) {
+		assertEquals(expected.size(), bitmap.size());
+		int[] values = bitmap.toArray();
+		int i = 0;
+		for (int each : new TreeSet<Integer>(expected))
+			assertEquals(each, values[i++]);
+	}
+
+	@Test
+	public void matchesAHashSetThroughContainerChanges() {
+		Random random = new Random(3);
+		IdBitmap bitmap = new IdBitmap();
+		Set<Integer> expected = new HashSet<Integer>();
+		// dense enough for bitmap containers, then thinned out to arrays again
+		for (int i = 0; i < 300000; i++) {
+			int value = random.nextInt(200000);
+			assertEquals(expected.add(value), bitmap.add(value));
+		}
+		assertSame(expected, bitmap);
+		for (int i = 0; i < 600000; i++) {
+			int value = random.nextInt(200000);
+			assertEquals(expected.remove(value), bitmap.remove(value));
+		}
+		assertSame(expected, bitmap);
+		for (int i = 0; i < 200000; i++)
+			assertEquals(expected.contains(i), bitmap.contains(i));
+		assertFalse(bitmap.contains(-1));
+	}
+
+	@Test
+	public void setAlgebraMatchesHashSets() {
+		Random random = new Random(4);
+		for (int bound : new int[] { 5000, 100000, 3000000 }) {
+			Set<Integer> one = new HashSet<Integer>();
+			Set<Integer> other = new HashSet<Integer>();
+			IdBitmap oneBitmap = randomBitmap(random, 50000, bound, one);
+			IdBitmap otherBitmap = randomBitmap(random, 20000, bound, other);
+
+			Set<Integer> both = new HashSet<Integer>(one);
+			both.retainAll(other);
+			assertSame(both, IdBitmap.and(oneBitmap, otherBitmap));
+			assertEquals(both.size(), IdBitmap.andCardinality(oneBitmap, otherBitmap));
+
+			Set<Integer> difference = new HashSet<Integer>(one);
+			difference.removeAll(other);
+			assertSame(difference, IdBitmap.andNot(oneBitmap, otherBitmap));
+
+			Set<Integer> union = new HashSet<Integer>(one);
+			union.addAll(other);
+			assertSame(union, IdBitmap.or(oneBitmap, otherBitmap));
+			assertSame(one, oneBitmap);
+		}
+	}
+
+	@Test
+	public void chunksCrossContainers() {
+		IdBitmap bitmap = new IdBitmap();
+		bitmap.add(3);
+		bitmap.add(65535);
+		bitmap.add(65536);
+		bitmap.add(1 << 20);
+		assertArrayEquals(new int[] { 3, 65535 }, bitmap.chunkAfter(-1, 2));
+		assertArrayEquals(new int[] { 65536, 1 << 20 }, bitmap.chunkAfter(65535, 10));
+		assertArrayEquals(new int[] { 1 << 20 }, bitmap.chunkAfter(70000, 10));
+		assertEquals(0, bitmap.chunkAfter(Integer.MAX_VALUE, 10).length);
+	}
+
+	@Test
+	public void bitmapRelationsFindCommonFriends() throws NoUserLoggedInException {
+		for (RelationStorage storage : RelationStorage.values()) {
+			SocialNetwork sn = new SocialNetwork(storage);
+			Account hakan = sn.join("Hakan");
+			Account cecile = sn.join("Cecile");
+			for (int i = 0; i < 10; i++) {
+				Account friend = sn.join("friend" + i);
+				sn.login(friend);
+				sn.sendFriendshipTo("Hakan");
+				if (i % 2 == 0)
+					sn.sendFriendshipTo("Cecile");
+			}
+			sn.login(hakan);
+			sn.acceptAllFriendships();
+			sn.login(cecile);
+			sn.acceptAllFriendships();
+			assertEquals(5, hakan.getCommonFriends(cecile).size());
+			Set<String> common = new HashSet<String>(hakan.getFriends());
+			common.retainAll(cecile.getFriends());
+			assertEquals(5, common.size());
+			assertTrue(hakan.getFriends().containsAll(cecile.getFriends()));
+			hakan.getFriends().removeAll(cecile.getFriends());
+			assertEquals(5, hakan.getFriends().size());
+		}
+	}
+
+	@Test
+	public void bitmapNetworkBehavesLikeAHashNetwork() throws NoUserLoggedInException {
+		SocialGraphGenerator generator = new SocialGraphGenerator().members(300).friendsPerJoin(4).seed(9);
+		SocialNetwork hash = new SocialNetwork(RelationStorage.HASH);
+		SocialNetwork bitmap = new SocialNetwork(RelationStorage.BITMAP);
+		Account[] hashAccounts = generator.load(hash);
+		Account[] bitmapAccounts = generator.load(bitmap);
+		for (int i = 0; i < hashAccounts.length; i++) {
+			for (AccountRelation each : AccountRelation.values())
+				assertEquals(new HashSet<String>(each.of(hashAccounts[i])),
+						new HashSet<String>(each.of(bitmapAccounts[i])));
+			hash.login(hashAccounts[i]);
+			bitmap.login(bitmapAccounts[i]);
+			assertEquals(hash.recommendFriends(), bitmap.recommendFriends());
+		}
+	}
+
+}
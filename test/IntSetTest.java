@@ -0,0 +1,174 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntSetTest {
+
+	IntSet set;
+
+	@Before
+	public void setUp() throws Exception {
+		set = new IntSet();
+	}
+
+	@Test
+	public void emptyOnCreation() {
+		assertEquals(0, set.size());
+		assertFalse(set.contains(0));
+	}
+
+	@Test
+	public void addingTwiceKeepsOneCopy() {
+		assertTrue(set.add(7));
+		assertFalse(set.add(7));
+		assertEquals(1, set.size());
+		assertTrue(set.contains(7));
+	}
+
+	@Test
+	public void growsAndKeepsAllElements() {
+		for (int i = 0; i < 10000; i++)
+			set.add(i * 3);
+		assertEquals(10000, set.size());
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(set.contains(i * 3));
+			assertFalse(set.contains(i * 3 + 1));
+		}
+	}
+
+	@Test
+	public void removedElementsAreGoneAndOthersRemain() {
+		for (int i = 0; i < 100; i++)
+			set.add(i);
+		for (int i = 0; i < 100; i += 2)
+			assertTrue(set.remove(i));
+		assertFalse(set.remove(0));
+		assertEquals(50, set.size());
+		for (int i = 0; i < 100; i++)
+			assertEquals(i % 2 == 1, set.contains(i));
+	}
+
+	@Test
+	public void iteratorCanRemoveElements() {
+		for (int i = 0; i < 20; i++)
+			set.add(i);
+		PrimitiveIterator.OfInt each = set.iterator();
+		int seen = 0;
+		while (each.hasNext()) {
+			if (each.nextInt() < 10)
+				each.remove();
+			seen++;
+		}
+		assertEquals(20, seen);
+		assertEquals(10, set.size());
+		assertFalse(set.contains(3));
+		assertTrue(set.contains(13));
+	}
+
+	@Test
+	public void sortedArrayIsAscending() {
+		set.add(5);
+		set.add(1);
+		set.add(3);
+		assertArrayEquals(new int[] { 1, 3, 5 }, set.toSortedArray());
+	}
+
+	@Test
+	public void largeSetsSwitchToChunksAndBack() {
+		for (int i = 0; i <= IntSet.CHUNKED_SIZE; i++)
+			set.add(i * 2);
+		assertTrue(set.isChunked());
+		assertEquals(IntSet.CHUNKED_SIZE + 1, set.size());
+		assertTrue(set.contains(2 * IntSet.CHUNKED_SIZE));
+		assertFalse(set.contains(3));
+		for (int i = 0; i < IntSet.CHUNKED_SIZE; i++)
+			set.remove(i * 2);
+		assertFalse(set.isChunked());
+		assertEquals(1, set.size());
+		assertTrue(set.contains(2 * IntSet.CHUNKED_SIZE));
+	}
+
+	@Test
+	public void chunkedSetMatchesAHashSet() {
+		Random random = new Random(5);
+		Set<Integer> expected = new HashSet<Integer>();
+		for (int i = 0; i < 200000; i++) {
+			int value = random.nextInt(50000);
+			if (random.nextInt(3) == 0)
+				assertEquals(expected.remove(value), set.remove(value));
+			else
+				assertEquals(expected.add(value), set.add(value));
+		}
+		assertTrue(set.isChunked());
+		assertEquals(expected.size(), set.size());
+		for (int i = 0; i < 50000; i++)
+			assertEquals(expected.contains(i), set.contains(i));
+		int[] sorted = set.toSortedArray();
+		for (int i = 1; i < sorted.length; i++)
+			assertTrue(sorted[i - 1] < sorted[i]);
+		IntSet copy = new IntSet(set);
+		copy.clear();
+		assertEquals(expected.size(), set.size());
+	}
+
+	@Test
+	public void chunksResumeAfterChanges() {
+		for (int i = 0; i < 10000; i++)
+			set.add(i);
+		int[] first = set.chunkAfter(-1, 100);
+		assertEquals(100, first.length);
+		assertEquals(0, first[0]);
+		assertEquals(99, first[99]);
+		for (int each : first)
+			set.remove(each);
+		set.add(5);
+		int[] next = set.chunkAfter(99, 100);
+		assertEquals(100, next[0]);
+		assertEquals(0, set.chunkAfter(9999, 100).length);
+		assertTrue(Arrays.equals(new int[] { 9998, 9999 }, set.chunkAfter(9997, 100)));
+	}
+
+	@Test
+	public void chunkedIteratorCanRemoveElements() {
+		for (int i = 0; i < 10000; i++)
+			set.add(i);
+		int seen = 0;
+		for (PrimitiveIterator.OfInt each = set.iterator(); each.hasNext();) {
+			if (each.nextInt() % 2 == 0)
+				each.remove();
+			seen++;
+		}
+		assertEquals(10000, seen);
+		assertEquals(5000, set.size());
+		assertFalse(set.contains(0));
+		assertTrue(set.contains(9999));
+	}
+
+	@Test
+	public void frozenCopyKeepsItsElementsWhileTheSetChanges() {
+		for (int i = 0; i < 10000; i++)
+			set.add(i * 2);
+		IntSet frozen = set.frozenCopy();
+		// fill a block until it splits, and empty another one
+		for (int i = 0; i < 2000; i++)
+			set.add(i * 2 + 1);
+		for (int i = 5000; i < 7000; i++)
+			set.remove(i * 2);
+		assertEquals(10000, frozen.size());
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(frozen.contains(i * 2));
+			assertFalse(frozen.contains(i * 2 + 1));
+		}
+		assertEquals(10000, set.size());
+		assertTrue(set.contains(1));
+		assertFalse(set.contains(10000));
+	}
+
+}
@@ -0,0 +1,57 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void smallValuesAreExact() {
+		for (long value = 0; value < 64; value++) {
+			assertEquals(value, LatencyHistogram.bucketOf(value));
+			assertEquals(value, LatencyHistogram.highestOf((int) value));
+		}
+	}
+
+	@Test
+	public void bucketsCoverValuesWithinThreePercent() {
+		for (long value = 64; value < (1L << 40); value = value * 3 / 2 + 1) {
+			long highest = LatencyHistogram.highestOf(LatencyHistogram.bucketOf(value));
+			assertTrue(highest >= value);
+			assertTrue(highest - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void percentilesOfUniformLatencies() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 10000; value++)
+			histogram.record(value * 1000);
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(10000, snapshot.count());
+		assertEquals(5000500.0, snapshot.meanNanos(), 0.5);
+		assertEquals(5000000, snapshot.percentile(50), 5000000 / 32);
+		assertEquals(9900000, snapshot.percentile(99), 9900000 / 32);
+		assertEquals(10000000, snapshot.percentile(100));
+		assertEquals(10000000, snapshot.maxNanos());
+	}
+
+	@Test
+	public void emptyHistogram() {
+		LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+		assertEquals(0, snapshot.count());
+		assertEquals(0, snapshot.percentile(99));
+		assertEquals(0, snapshot.meanNanos(), 0);
+	}
+
+	@Test
+	public void hugeAndNegativeValuesAreClamped() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE / 2);
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(2, snapshot.count());
+		assertEquals(0, snapshot.percentile(50));
+		assertEquals(Long.MAX_VALUE / 2, snapshot.percentile(100));
+	}
+
+}
@@ -0,0 +1,77 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedGraphTest {
+
+	Path file;
+	SocialNetwork sn;
+	Account me, her, another;
+
+	@Before
+	public void setUp() throws Exception {
+		file = Files.createTempFile("social-network", ".snapshot");
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		another = sn.join("Harpreet");
+		sn.login(me);
+		sn.autoAcceptFriendships();
+		sn.login(her);
+		sn.sendFriendshipTo(me.getUserName());
+		sn.login(another);
+		sn.sendFriendshipTo(her.getUserName());
+		sn.block(me.getUserName());
+		sn.saveSnapshot(file);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void queriesReadTheMappedFile() throws Exception {
+		MappedGraph snapshot = MappedGraph.open(file);
+		assertEquals(3, snapshot.memberCount());
+		assertTrue(snapshot.hasMember("Cecile"));
+		assertFalse(snapshot.hasMember("khaira"));
+		assertTrue(snapshot.autoAcceptsFriendships("Hakan"));
+		assertFalse(snapshot.autoAcceptsFriendships("Cecile"));
+		assertEquals(Arrays.asList("Cecile"), snapshot.relationOf(AccountRelation.FRIENDS, "Hakan"));
+		assertTrue(snapshot.hasRelation(AccountRelation.INCOMING_REQUESTS, "Cecile", "Harpreet"));
+		assertTrue(snapshot.hasRelation(AccountRelation.BLOCKED_BY, "Hakan", "Harpreet"));
+		assertFalse(snapshot.hasRelation(AccountRelation.FRIENDS, "Hakan", "Harpreet"));
+	}
+
+	@Test
+	public void restoredNetworkBehavesLikeTheOriginal() throws Exception {
+		SocialNetwork restored = SocialNetwork.fromSnapshot(MappedGraph.open(file));
+		assertEquals(3, restored.listAllMembers().size());
+		Account fourth = restored.join("khaira");
+		restored.login(fourth);
+		restored.sendFriendshipTo("Hakan");
+		assertTrue(restored.recommendFriends().isEmpty());
+		assertNull(restored.join("Cecile"));
+	}
+
+	@Test
+	public void restoredBlocksAreIndexed() throws Exception {
+		SocialGraph restored = new SocialGraph();
+		MappedGraph.open(file).restoreInto(restored);
+		assertTrue(restored.blocks().isBlocked("Harpreet", "Hakan"));
+		assertFalse(restored.listMembers(restored.find("Hakan")).contains("Harpreet"));
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void rejectsFilesThatAreNoSnapshot() throws Exception {
+		Files.write(file, new byte[200]);
+		MappedGraph.open(file);
+	}
+}
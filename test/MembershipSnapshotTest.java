@@ -0,0 +1,105 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MembershipSnapshotTest {
+
+	UserNameInterner names;
+	MembershipSnapshot empty;
+
+	@Before
+	public void setUp() throws Exception {
+		names = new UserNameInterner();
+		empty = MembershipSnapshot.empty(names);
+	}
+
+	private MembershipSnapshot withMembers(String... userNames) {
+		MembershipSnapshot snapshot = empty;
+		for (String each : userNames)
+			snapshot = snapshot.with(names.intern(each));
+		return snapshot;
+	}
+
+	@Test
+	public void emptySnapshotHasNoMembers() {
+		assertEquals(0, empty.size());
+		assertFalse(empty.contains("Hakan"));
+		assertFalse(empty.iterator().hasNext());
+	}
+
+	@Test
+	public void changesCreateNewVersionsAndLeaveOldOnesAlone() {
+		MembershipSnapshot first = withMembers("Hakan", "Cecile");
+		MembershipSnapshot second = first.without(names.idOf("Hakan"));
+		assertTrue(first.contains("Hakan"));
+		assertFalse(second.contains("Hakan"));
+		assertEquals(2, first.size());
+		assertEquals(1, second.size());
+		assertEquals(first.version() + 1, second.version());
+	}
+
+	@Test
+	public void iteratesAllMembersAcrossChunks() {
+		MembershipSnapshot snapshot = empty;
+		for (int i = 0; i < 10000; i++)
+			snapshot = snapshot.with(names.intern("member" + i));
+		assertEquals(10000, new HashSet<String>(snapshot).size());
+		assertTrue(snapshot.contains("member9999"));
+	}
+
+	@Test
+	public void excludingHidesMembers() {
+		Collection<String> visible = withMembers("Hakan", "Cecile", "Harpreet").excluding(Arrays.asList("Cecile"));
+		assertEquals(2, visible.size());
+		assertFalse(visible.contains("Cecile"));
+		assertEquals(new HashSet<String>(Arrays.asList("Hakan", "Harpreet")), new HashSet<String>(visible));
+	}
+
+	@Test
+	public void snapshotsAndViewsAreEqualToSetsOfTheSameNames() {
+		MembershipSnapshot snapshot = withMembers("Hakan", "Cecile", "Harpreet");
+		Set<String> expected = new HashSet<String>(Arrays.asList("Hakan", "Cecile", "Harpreet"));
+		assertEquals(expected, snapshot);
+		assertEquals(snapshot, expected);
+		assertEquals(expected.hashCode(), snapshot.hashCode());
+		assertEquals(withMembers("Cecile", "Hakan", "Harpreet"), snapshot);
+		expected.remove("Cecile");
+		assertEquals(expected, snapshot.excluding(Arrays.asList("Cecile", "Cecile", "nobody")));
+	}
+
+	@Test
+	public void excludingCountsOnlyTheHiddenIds() {
+		MembershipSnapshot snapshot = withMembers("Hakan", "Cecile", "Harpreet");
+		IntSet hidden = new IntSet();
+		hidden.add(names.idOf("Cecile"));
+		hidden.add(names.intern("left"));
+		Set<String> visible = snapshot.excluding(hidden);
+		assertEquals(2, visible.size());
+		assertEquals(new HashSet<String>(Arrays.asList("Hakan", "Harpreet")), visible);
+	}
+
+	@Test
+	public void visibleMembersDontChangeWhenTheViewerIsBlocked() throws NoUserLoggedInException {
+		SocialNetwork sn = new SocialNetwork();
+		Account me = sn.join("Hakan");
+		Account her = sn.join("Cecile");
+		sn.join("Harpreet");
+		sn.login(me);
+		Collection<String> visible = sn.listMembers();
+		assertEquals(3, visible.size());
+		sn.login(her);
+		sn.block("Hakan");
+		assertEquals(3, visible.size());
+		assertTrue(visible.contains("Cecile"));
+		assertEquals(visible, new HashSet<String>(visible));
+		sn.login(me);
+		assertEquals(2, sn.listMembers().size());
+		assertEquals(new HashSet<String>(sn.listMembers()), sn.listMembers());
+	}
+}
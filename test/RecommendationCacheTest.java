@@ -0,0 +1,226 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecommendationCacheTest {
+
+	SocialGraph graph;
+	Account me, her, another, fourth, fifth;
+
+	@Before
+	public void setUp() {
+		graph = new SocialGraph();
+		me = graph.join("Hakan");
+		her = graph.join("Cecile");
+		another = graph.join("Harpreet");
+		fourth = graph.join("khaira");
+		fifth = graph.join("Serra");
+		befriend(me, her);
+		befriend(me, another);
+		befriend(fourth, her);
+		befriend(fourth, another);
+	}
+
+	private void befriend(Account from, Account to) {
+		graph.sendFriendshipTo(from, to.getUserName());
+		graph.acceptFriendshipFrom(to, from.getUserName());
+	}
+
+	// recommendations for account, which must be a cache hit
+	private Collection<String> cached(Account account) {
+		long hits = graph.recommendations().hits();
+		Collection<String> recommended = graph.recommendFriends(account);
+		assertEquals(hits + 1, graph.recommendations().hits());
+		return recommended;
+	}
+
+	private void assertInvalidated(Account account) {
+		long misses = graph.recommendations().misses();
+		graph.recommendFriends(account);
+		assertEquals(misses + 1, graph.recommendations().misses());
+	}
+
+	@Test
+	public void repeatedRecommendationsAreCached() {
+		Collection<String> first = graph.recommendFriends(me);
+		assertEquals(first, cached(me));
+		assertTrue(first.contains("khaira"));
+	}
+
+	@Test
+	public void cachedRecommendationsAreCopies() {
+		graph.recommendFriends(me).clear();
+		assertTrue(cached(me).contains("khaira"));
+	}
+
+	@Test
+	public void friendshipTwoHopsAwayInvalidates() {
+		graph.recommendFriends(me);
+		graph.recommendFriends(fifth);
+		befriend(fifth, her);
+		befriend(fifth, another);
+		assertInvalidated(fifth);
+		// a friend of me's friends gained a friend
+		assertTrue(graph.recommendFriends(me).contains("Serra"));
+	}
+
+	@Test
+	public void unrelatedFriendshipKeepsTheCache() {
+		Account sixth = graph.join("Lale");
+		graph.recommendFriends(me);
+		befriend(fifth, sixth);
+		cached(me);
+	}
+
+	@Test
+	public void cancelledFriendshipInvalidates() {
+		graph.recommendFriends(me);
+		graph.sendFriendshipCancellationTo(fourth, "Cecile");
+		assertInvalidated(me);
+		assertTrue(graph.recommendFriends(me).isEmpty());
+	}
+
+	@Test
+	public void blockInvalidatesBothMembers() {
+		graph.recommendFriends(me);
+		graph.recommendFriends(fourth);
+		graph.block(fourth, "Hakan");
+		assertTrue(graph.recommendFriends(me).isEmpty());
+		assertTrue(graph.recommendFriends(fourth).isEmpty());
+		graph.unblock(fourth, "Hakan");
+		assertTrue(graph.recommendFriends(me).contains("khaira"));
+	}
+
+	@Test
+	public void leavingInvalidatesFriendsOfFriends() {
+		graph.recommendFriends(me);
+		graph.leave(fourth);
+		assertTrue(graph.recommendFriends(me).isEmpty());
+	}
+
+	@Test
+	public void detachingInvalidatesOnlyAsFriendshipsAreUnlinked() {
+		graph.recommendFriends(me);
+		graph.detach(fourth);
+		// still a hit, without the member who left
+		assertTrue(cached(me).isEmpty());
+		graph.unlink(fourth, AccountRelation.FRIENDS, "Cecile");
+		assertInvalidated(me);
+		graph.unlink(fourth, AccountRelation.FRIENDS, "Harpreet");
+		graph.detached(fourth);
+		assertTrue(graph.recommendFriends(me).isEmpty());
+	}
+
+	@Test
+	public void changesThroughTheAccountsInvalidate() {
+		assertTrue(graph.recommendFriends(me).contains("khaira"));
+		her.cancelFriendship(fourth);
+		assertTrue(graph.recommendFriends(me).isEmpty());
+		fourth.requestFriendship(her);
+		her.friendshipAccepted(fourth);
+		assertTrue(graph.recommendFriends(me).contains("khaira"));
+		me.addBlockedUser("khaira");
+		assertInvalidated(me);
+		me.removeBlockedUser("khaira");
+		assertInvalidated(me);
+		assertTrue(graph.recommendFriends(me).contains("khaira"));
+	}
+
+	@Test
+	public void autoAcceptedRequestInvalidates() {
+		graph.recommendFriends(me);
+		graph.autoAcceptFriendships(her);
+		graph.sendFriendshipTo(fifth, "Cecile");
+		graph.autoAcceptFriendships(another);
+		graph.sendFriendshipTo(fifth, "Harpreet");
+		assertTrue(graph.recommendFriends(me).contains("Serra"));
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() {
+		RecommendationCache cache = new RecommendationCache(2);
+		cache.put("a", Arrays.asList("x"), cache.generation());
+		cache.put("b", Arrays.asList("y"), cache.generation());
+		cache.get("a");
+		cache.put("c", Arrays.asList("z"), cache.generation());
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+	}
+
+	@Test
+	public void recommendationsComputedDuringAnInvalidationAreNotStored() {
+		RecommendationCache cache = new RecommendationCache(2);
+		long generation = cache.generation();
+		cache.invalidateAll(Arrays.asList("a", "b"));
+		cache.put("a", Arrays.asList("x"), generation);
+		assertNull(cache.get("a"));
+		// invalidating others does not matter
+		generation = cache.generation();
+		cache.invalidate("someone else");
+		cache.put("a", Arrays.asList("x"), generation);
+		assertNotNull(cache.get("a"));
+	}
+
+	@Test
+	public void invalidationsForgottenLongAgoStillCount() {
+		RecommendationCache cache = new RecommendationCache(2);
+		long generation = cache.generation();
+		cache.invalidate("a");
+		for (int i = 0; i < 2000; i++)
+			cache.invalidate("other" + i);
+		cache.put("a", Arrays.asList("x"), generation);
+		assertNull(cache.get("a"));
+	}
+
+	@Test(timeout = 20000)
+	public void recommendationsAreStoredWhileOthersAreInvalidated() throws Exception {
+		final RecommendationCache cache = new RecommendationCache(100);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		ExecutorService writers = Executors.newFixedThreadPool(2);
+		List<Future<Void>> running = new ArrayList<Future<Void>>();
+		for (int w = 0; w < 2; w++) {
+			final int writer = w;
+			running.add(writers.submit(new Callable<Void>() {
+				public Void call() {
+					for (int i = 0; !done.get(); i++)
+						cache.invalidateAll(Arrays.asList("writer" + writer, "friend" + (i % 50)));
+					return null;
+				}
+			}));
+		}
+		try {
+			for (int i = 0; i < 10000; i++) {
+				String reader = "reader" + (i % 10);
+				if (cache.get(reader) == null) {
+					long generation = cache.generation();
+					// others are invalidated while the recommendation is computed
+					while (cache.generation() == generation)
+						Thread.yield();
+					cache.put(reader, Arrays.asList("x"), generation);
+				}
+			}
+		} finally {
+			done.set(true);
+			for (Future<Void> each : running)
+				each.get();
+			writers.shutdown();
+		}
+		// only the first request of each reader missed
+		assertEquals(10, cache.misses());
+		assertEquals(9990, cache.hits());
+	}
+
+}
@@ -0,0 +1,158 @@
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedSocialNetworkTest {
+
+	LoopbackShardTransport transport;
+	ShardedSocialNetwork sharded;
+
+	@Before
+	public void setUp() {
+		transport = new LoopbackShardTransport(4);
+		sharded = new ShardedSocialNetwork(transport);
+	}
+
+	// two user names held by different shards
+	private String[] onDifferentShards() {
+		for (int i = 1;; i++) {
+			if (sharded.shardOf("user0") != sharded.shardOf("user" + i))
+				return new String[] { "user0", "user" + i };
+		}
+	}
+
+	@Test
+	public void membersArePartitioned() {
+		for (int i = 0; i < 100; i++)
+			sharded.join("user" + i);
+		int total = 0;
+		for (int i = 0; i < transport.shardCount(); i++) {
+			int held = transport.shard(i).members().size();
+			assertTrue(held > 0);
+			total += held;
+		}
+		assertEquals(100, total);
+		assertNull(sharded.join("user7"));
+		assertEquals(100, sharded.listAllMembers().size());
+	}
+
+	@Test
+	public void listedMembersAreFetchedAShardAtATime() throws NoUserLoggedInException {
+		Account[] accounts = new Account[100];
+		for (int i = 0; i < accounts.length; i++)
+			accounts[i] = sharded.join("user" + i);
+		String[] names = onDifferentShards();
+		sharded.login(accounts[Integer.parseInt(names[1].substring(4))]);
+		sharded.block(names[0]);
+		sharded.login(accounts[0]);
+		long before = transport.calls();
+		Collection<String> visible = sharded.listMembers();
+		// only the blockers were read
+		assertEquals(1, transport.calls() - before);
+		visible.iterator().next();
+		assertEquals(2, transport.calls() - before);
+		assertEquals(99, visible.size());
+		assertFalse(visible.contains(names[1]));
+		assertTrue(visible.contains("user0"));
+		assertEquals(new HashSet<String>(visible), visible);
+	}
+
+	@Test
+	public void friendshipAcrossShards() throws NoUserLoggedInException {
+		String[] names = onDifferentShards();
+		Account first = sharded.join(names[0]);
+		Account second = sharded.join(names[1]);
+		sharded.login(first);
+		sharded.sendFriendshipTo(names[1]);
+		sharded.login(second);
+		sharded.acceptFriendshipFrom(names[0]);
+		assertTrue(transport.shard(sharded.shardOf(names[0])).hasRelation(names[0], AccountRelation.FRIENDS,
+				names[1]));
+		assertTrue(transport.shard(sharded.shardOf(names[1])).hasRelation(names[1], AccountRelation.FRIENDS,
+				names[0]));
+		assertTrue(transport.shard(sharded.shardOf(names[1]))
+				.relation(names[1], AccountRelation.INCOMING_REQUESTS).isEmpty());
+	}
+
+	@Test
+	public void blockAcrossShardsHidesTheBlocker() throws NoUserLoggedInException {
+		String[] names = onDifferentShards();
+		Account first = sharded.join(names[0]);
+		Account second = sharded.join(names[1]);
+		sharded.login(first);
+		sharded.block(names[1]);
+		sharded.login(second);
+		assertFalse(sharded.hasMember(names[0]));
+		assertFalse(sharded.listMembers().contains(names[0]));
+		sharded.sendFriendshipTo(names[0]);
+		sharded.login(first);
+		sharded.unblock(names[1]);
+		sharded.login(second);
+		assertTrue(sharded.hasMember(names[0]));
+		assertTrue(transport.shard(sharded.shardOf(names[0])).relation(names[0], AccountRelation.INCOMING_REQUESTS)
+				.isEmpty());
+	}
+
+	@Test
+	public void leavingUnlinksOtherShards() throws NoUserLoggedInException {
+		String[] names = onDifferentShards();
+		Account first = sharded.join(names[0]);
+		Account second = sharded.join(names[1]);
+		sharded.login(second);
+		sharded.autoAcceptFriendships();
+		sharded.login(first);
+		sharded.sendFriendshipTo(names[1]);
+		sharded.block(names[1]);
+		sharded.login(second);
+		sharded.leave();
+		ShardNode firstShard = transport.shard(sharded.shardOf(names[0]));
+		for (AccountRelation each : AccountRelation.values())
+			assertTrue(firstShard.relation(names[0], each).isEmpty());
+		assertFalse(sharded.listAllMembers().contains(names[1]));
+	}
+
+	@Test
+	public void behavesLikeASingleNetwork() throws NoUserLoggedInException {
+		SocialGraphGenerator generator = new SocialGraphGenerator().members(400).friendsPerJoin(4)
+				.blocksPerMember(0.3).seed(11);
+		SocialNetwork single = new SocialNetwork();
+		Map<String, Account> singleAccounts = generator.populate(single);
+		Map<String, Account> shardedAccounts = generator.populate(sharded);
+		for (int i = 0; i < 400; i += 7) {
+			single.login(singleAccounts.get(SocialGraphGenerator.userName(i)));
+			single.leave();
+			sharded.login(shardedAccounts.get(SocialGraphGenerator.userName(i)));
+			sharded.leave();
+		}
+		for (int i = 0; i < 400; i++) {
+			if (i % 7 == 0)
+				continue;
+			String name = SocialGraphGenerator.userName(i);
+			single.login(singleAccounts.get(name));
+			sharded.login(shardedAccounts.get(name));
+			assertEquals(new HashSet<String>(single.listMembers()), new HashSet<String>(sharded.listMembers()));
+			assertEquals(single.recommendFriends(), sharded.recommendFriends());
+			ShardNode shard = transport.shard(sharded.shardOf(name));
+			for (AccountRelation each : AccountRelation.values())
+				assertEquals(new HashSet<String>(each.of(singleAccounts.get(name))),
+						new HashSet<String>(shard.relation(name, each)));
+		}
+	}
+
+	@Test
+	public void recommendationsAskEachShardOnce() throws NoUserLoggedInException {
+		Map<String, Account> accounts = new SocialGraphGenerator().members(300).friendsPerJoin(6).seed(2)
+				.populate(sharded);
+		sharded.login(accounts.get(SocialGraphGenerator.userName(0)));
+		long before = transport.calls();
+		sharded.recommendFriends();
+		// the member's relations from its own shard, then one call per shard
+		assertTrue(transport.calls() - before <= 4 + transport.shardCount());
+	}
+
+}
@@ -0,0 +1,89 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SocialGraphGeneratorTest {
+
+	private SocialGraphGenerator generator() {
+		return new SocialGraphGenerator().members(300).friendsPerJoin(3).seed(7);
+	}
+
+	@Test
+	public void loadJoinsAllMembers() {
+		SocialNetwork sn = new SocialNetwork();
+		Account[] accounts = generator().load(sn);
+		assertEquals(300, sn.listAllMembers().size());
+		for (int i = 0; i < accounts.length; i++)
+			assertEquals(SocialGraphGenerator.userName(i), accounts[i].getUserName());
+	}
+
+	@Test
+	public void sameSeedGivesSameNetwork() {
+		Account[] one = generator().load(new SocialNetwork());
+		Account[] other = generator().load(new SocialNetwork());
+		for (int i = 0; i < one.length; i++) {
+			assertEquals(one[i].getFriends(), other[i].getFriends());
+			assertEquals(one[i].getIncomingRequests(), other[i].getIncomingRequests());
+			assertEquals(one[i].getBlockedBy(), other[i].getBlockedBy());
+		}
+	}
+
+	@Test
+	public void populateThroughApiMatchesBulkLoad() {
+		Account[] loaded = generator().load(new SocialNetwork());
+		Map<String, Account> populated = generator().populate(new SocialNetwork());
+		for (Account each : loaded) {
+			Account same = populated.get(each.getUserName());
+			assertEquals(each.getFriends(), same.getFriends());
+			assertEquals(each.getOutgoingRequests(), same.getOutgoingRequests());
+			assertEquals(each.autoAcceptsFriendships(), same.autoAcceptsFriendships());
+		}
+	}
+
+	@Test
+	public void ratiosShapeTheNetwork() {
+		Account[] accounts = generator().pendingRequestRatio(0.5).autoAcceptRatio(0.5).blocksPerMember(1)
+				.load(new SocialNetwork());
+		int pending = 0;
+		int autoAccepting = 0;
+		int blocks = 0;
+		for (Account each : accounts) {
+			pending += each.getIncomingRequests().size();
+			autoAccepting += each.autoAcceptsFriendships() ? 1 : 0;
+			blocks += each.getBlockedUsers().size();
+		}
+		assertTrue(pending > 100);
+		assertTrue((autoAccepting > 100) && (autoAccepting < 200));
+		assertTrue(blocks > 250);
+	}
+
+	@Test
+	public void preferentialAttachmentMakesHubs() {
+		Account[] preferential = generator().members(2000).load(new SocialNetwork());
+		Account[] uniform = generator().members(2000).attachment(SocialGraphGenerator.Attachment.UNIFORM)
+				.load(new SocialNetwork());
+		assertTrue(maxDegree(preferential) > 2 * maxDegree(uniform));
+	}
+
+	private static int maxDegree(Account[] accounts) {
+		int max = 0;
+		for (Account each : accounts)
+			max = Math.max(max, each.getFriends().size() + each.getIncomingRequests().size());
+		return max;
+	}
+
+	@Test
+	public void generateSplitsIntoBatches() {
+		final List<GraphBatch> batches = new ArrayList<GraphBatch>();
+		generator().batchSize(100).generate(batches::add);
+		assertTrue(batches.size() > 1);
+		for (GraphBatch each : batches)
+			assertTrue(each.size() <= 100);
+		assertEquals(GraphOperation.JOIN, batches.get(0).operation(0));
+	}
+
+}
@@ -0,0 +1,121 @@
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SocialNetworkMetricsTest {
+
+	SocialNetwork sn;
+	Account me, her, him;
+
+	@Before
+	public void setUp() throws Exception {
+		sn = new SocialNetwork();
+		me = sn.join("Hakan");
+		her = sn.join("Cecile");
+		him = sn.join("Harpreet");
+		sn.login(me);
+		sn.sendFriendshipTo("Cecile");
+		sn.sendFriendshipTo("Harpreet");
+		sn.login(her);
+		sn.acceptFriendshipFrom("Hakan");
+		sn.block("Harpreet");
+	}
+
+	@Test
+	public void operationsAreCountedAndTimed() throws NoUserLoggedInException {
+		sn.recommendFriends();
+		SocialNetworkMetrics.Snapshot snapshot = sn.metrics().snapshot();
+		assertEquals(3, snapshot.latencies(NetworkOperation.JOIN).count());
+		assertEquals(2, snapshot.latencies(NetworkOperation.SEND_FRIENDSHIP).count());
+		assertEquals(1, snapshot.latencies(NetworkOperation.RECOMMEND_FRIENDS).count());
+		assertEquals(0, snapshot.latencies(NetworkOperation.LEAVE).count());
+		assertTrue(snapshot.latencies(NetworkOperation.JOIN).maxNanos() > 0);
+	}
+
+	@Test
+	public void failedOperationsAreNotRecorded() {
+		sn.logout();
+		assertEquals(1, sn.metrics().snapshot().latencies(NetworkOperation.LOGOUT).count());
+		try {
+			sn.leave();
+			fail();
+		} catch (NoUserLoggedInException e) {
+			assertEquals(0, sn.metrics().snapshot().latencies(NetworkOperation.LEAVE).count());
+		}
+	}
+
+	@Test
+	public void gaugesDescribeTheGraph() {
+		SocialNetworkMetrics.Snapshot snapshot = sn.metrics().snapshot();
+		assertEquals(3, snapshot.members());
+		assertEquals(1, snapshot.friendships());
+		assertEquals(1, snapshot.pendingRequests());
+		assertEquals(1, snapshot.edges(AccountRelation.OUTGOING_REQUESTS));
+		assertEquals(1, snapshot.edges(AccountRelation.BLOCKED_BY));
+	}
+
+	@Test
+	public void concurrentNetworkIsMeteredToo() throws NoUserLoggedInException {
+		ConcurrentSocialNetwork csn = new ConcurrentSocialNetwork();
+		Account first = csn.join("Hakan");
+		csn.join("Cecile");
+		ISocialNetworkSession session = csn.login(first);
+		session.sendFriendshipTo("Cecile");
+		session.listMembers();
+		session.logout();
+		SocialNetworkMetrics.Snapshot snapshot = csn.metrics().snapshot();
+		assertEquals(2, snapshot.latencies(NetworkOperation.JOIN).count());
+		assertEquals(1, snapshot.latencies(NetworkOperation.LOGIN).count());
+		assertEquals(1, snapshot.latencies(NetworkOperation.LOGOUT).count());
+		assertEquals(1, snapshot.latencies(NetworkOperation.SEND_FRIENDSHIP).count());
+		assertEquals(1, snapshot.latencies(NetworkOperation.LIST_MEMBERS).count());
+		assertEquals(1, snapshot.pendingRequests());
+	}
+
+	@Test
+	public void gaugesFollowChangesWithoutAPassOverTheAccounts() throws NoUserLoggedInException {
+		SocialNetwork generated = new SocialNetwork();
+		Account[] accounts = new SocialGraphGenerator().members(300).friendsPerJoin(3).blocksPerMember(0.3).seed(9)
+				.load(generated);
+		for (int i = 0; i < accounts.length; i += 7) {
+			generated.login(accounts[i]);
+			generated.leave();
+		}
+		// changes made through the views of an account count too
+		accounts[1].getFriends().clear();
+		SocialNetworkMetrics.Snapshot snapshot = generated.metrics().snapshot();
+		for (AccountRelation relation : AccountRelation.values()) {
+			long edges = 0;
+			for (int i = 0; i < accounts.length; i++) {
+				if (i % 7 != 0)
+					edges += relation.of(accounts[i]).size();
+			}
+			assertEquals(relation.name(), edges, snapshot.edges(relation));
+		}
+	}
+
+	@Test
+	public void metricsAreReadableOverJmx() throws Exception {
+		ObjectName name = sn.metrics().register("test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(3, server.getAttribute(name, "MemberCount"));
+			assertEquals(1L, server.getAttribute(name, "FriendshipCount"));
+			TabularData counts = (TabularData) server.getAttribute(name, "OperationCounts");
+			assertEquals(2L, counts.get(new Object[] { "SEND_FRIENDSHIP" }).get("value"));
+		} finally {
+			sn.metrics().unregister(name);
+		}
+		Map<String, Long> maxima = sn.metrics().getMaxLatencies();
+		assertTrue(maxima.get("JOIN") > 0);
+	}
+
+}
@@ -1,6 +1,9 @@
 import static org.junit.Assert.*;
 
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 
 import org.junit.After;
 import org.junit.Before;
@@ -265,6 +268,31 @@ public class SocialNetworkTest {
 		assertFalse(another.getIncomingRequests().contains(me.getUserName()));
 	}
 
+	@Test
+	public void memberGetsDeletedFromEveryonesBlockListsOnLeaving() throws NoUserLoggedInException {
+		sn.login(her);
+		sn.block(me.getUserName());
+		sn.login(me);
+		sn.block(another.getUserName());
+		sn.leave();
+		assertFalse(her.getBlockedUsers().contains(me.getUserName()));
+		assertFalse(another.getBlockedBy().contains(me.getUserName()));
+		assertTrue(me.getBlockedBy().isEmpty());
+		assertTrue(me.getBlockedUsers().isEmpty());
+	}
+
+	@Test
+	public void rejoiningMemberStartsWithoutOldBlocks() throws NoUserLoggedInException {
+		sn.login(her);
+		sn.block(me.getUserName());
+		sn.login(me);
+		sn.leave();
+		Account newcomer = sn.join(me.getUserName());
+		sn.login(newcomer);
+		assertTrue(sn.listMembers().contains(her.getUserName()));
+		assertFalse(her.getBlockedUsers().contains(newcomer.getUserName()));
+	}
+
 	@Test
 	public void loginUser() {
 		assertNotNull(sn.login(me));
@@ -338,6 +366,34 @@ public class SocialNetworkTest {
 		assertTrue(recommendedFriends.contains(fourth.getUserName()));
 	}
 
+	@Test
+	public void unblockedMemberIsRecommendedAgain() throws NoUserLoggedInException {
+		sn.login(me);
+		sn.autoAcceptFriendships();
+		sendTwoFriendRequests(me, her, another);
+		Account fourth = sn.join("khaira");
+		sn.login(fourth);
+		sn.autoAcceptFriendships();
+		sendTwoFriendRequests(fourth, her, another);
+		sn.login(me);
+		sn.block(fourth.getUserName());
+		assertFalse(sn.recommendFriends().contains(fourth.getUserName()));
+		sn.unblock(fourth.getUserName());
+		assertFalse(me.getBlockedUsers().contains(fourth.getUserName()));
+		assertTrue(sn.recommendFriends().contains(fourth.getUserName()));
+	}
+
+	@Test
+	public void membersWhoBlockedMeAreHidden() throws NoUserLoggedInException {
+		sn.login(her);
+		sn.block(me.getUserName());
+		sn.login(me);
+		assertFalse(sn.hasMember(her.getUserName()));
+		assertTrue(sn.hasMember(another.getUserName()));
+		sn.login(another);
+		assertTrue(sn.hasMember(her.getUserName()));
+	}
+
 	@Test
 	public void blockingMemberTerminatesPendingFriendships() throws NoUserLoggedInException {
 		sn.login(me);
@@ -361,6 +417,51 @@ public class SocialNetworkTest {
 
 	}
 
+	@Test
+	public void pagesListEveryVisibleMemberOnce() throws NoUserLoggedInException {
+		for (int i = 0; i < 25; i++)
+			sn.join("member" + i);
+		sn.login(me);
+		sn.block(her.getUserName());
+		sn.login(her);
+		Set<String> listed = new HashSet<String>();
+		MemberPage page = sn.listMembers(null, 10);
+		int pages = 1;
+		while (page.hasNextPage()) {
+			assertEquals(10, page.getMembers().size());
+			listed.addAll(page.getMembers());
+			page = sn.listMembers(page.getNextCursor(), 10);
+			pages++;
+		}
+		listed.addAll(page.getMembers());
+		assertEquals(3, pages);
+		assertEquals(27, listed.size());
+		assertFalse(listed.contains(me.getUserName()));
+	}
+
+	@Test
+	public void membersJoiningDuringPagingShowUpOnLaterPages() throws NoUserLoggedInException {
+		sn.login(me);
+		MemberPage first = sn.listMembers(null, 2);
+		sn.join("khaira");
+		MemberPage second = sn.listMembers(first.getNextCursor(), 10);
+		assertTrue(second.getMembers().contains("khaira"));
+		assertFalse(second.hasNextPage());
+	}
+
+	@Test
+	public void streamAndIteratorRespectBlocking() throws NoUserLoggedInException {
+		sn.login(me);
+		sn.block(her.getUserName());
+		sn.login(her);
+		assertEquals(2, sn.streamMembers().count());
+		assertFalse(sn.streamMembers().anyMatch(me.getUserName()::equals));
+		int count = 0;
+		for (Iterator<String> each = sn.iterateMembers(); each.hasNext(); each.next())
+			count++;
+		assertEquals(2, count);
+	}
+
 	@Test(expected = NoUserLoggedInException.class)
 	public void memberFunctionsThrowsNoUserLoggedInException() throws NoUserLoggedInException {
 		sn.listMembers();
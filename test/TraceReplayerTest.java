@@ -0,0 +1,45 @@
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TraceReplayerTest {
+
+	ConcurrentSocialNetwork sn;
+	Account[] accounts;
+
+	@Before
+	public void setUp() {
+		sn = new ConcurrentSocialNetwork();
+		accounts = new SocialGraphGenerator().members(200).seed(3).load(sn);
+	}
+
+	@Test
+	public void replaysAllOperations() throws InterruptedException {
+		TraceReplayer.Result result = new TraceReplayer(sn, accounts).replay(2000, 100000, 4);
+		assertEquals(2000, result.operations());
+		assertEquals(2000, result.reads() + result.writes());
+		assertTrue(result.reads() > result.writes());
+		assertTrue(result.readLatency(50) <= result.readLatency(99));
+		assertTrue(result.readLatency(99) <= result.readLatency(100));
+	}
+
+	@Test
+	public void weightsChooseTheMix() throws InterruptedException {
+		TraceReplayer replayer = new TraceReplayer(sn, accounts);
+		for (TraceReplayer.TraceOperation each : TraceReplayer.TraceOperation.values())
+			replayer.weight(each, each.isRead() ? 1 : 0);
+		TraceReplayer.Result result = replayer.replay(500, 100000, 2);
+		assertEquals(500, result.reads());
+		assertEquals(0, result.writes());
+		assertEquals(0, result.writeLatency(99));
+	}
+
+	@Test
+	public void targetRatePacesTheReplay() throws InterruptedException {
+		TraceReplayer.Result result = new TraceReplayer(sn, accounts).replay(200, 2000, 2);
+		// the last operation is scheduled 199 / 2000 s after the start
+		assertTrue(result.elapsedNanos() >= 99000000L);
+	}
+
+}
@@ -0,0 +1,175 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteAheadLogTest {
+
+	Path file;
+	SocialNetwork sn;
+	WriteAheadLog log;
+
+	@Before
+	public void setUp() throws Exception {
+		file = Files.createTempFile("social-network", ".wal");
+		sn = new SocialNetwork();
+		log = new WriteAheadLog(file, 100, 5, false);
+		sn.addMutationListener(log);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		log.close();
+		Files.deleteIfExists(file);
+	}
+
+	private SocialGraph restart() throws IOException {
+		log.sync();
+		SocialGraph restored = new SocialGraph();
+		WriteAheadLog.replay(file, restored::apply);
+		return restored;
+	}
+
+	private void reopen(boolean waitForSync) throws IOException {
+		reopen(100, 5, waitForSync);
+	}
+
+	private void reopen(int syncEveryRecords, long syncIntervalMillis, boolean waitForSync) throws IOException {
+		sn.removeMutationListener(log);
+		log.close();
+		log = new WriteAheadLog(file, syncEveryRecords, syncIntervalMillis, waitForSync);
+		sn.addMutationListener(log);
+	}
+
+	@Test
+	public void replayRestoresMembersAndRelations() throws Exception {
+		Account me = sn.join("Hakan");
+		Account her = sn.join("Cecile");
+		Account another = sn.join("Harpreet");
+		sn.login(me);
+		sn.autoAcceptFriendships();
+		sn.login(her);
+		sn.sendFriendshipTo(me.getUserName());
+		sn.login(another);
+		sn.sendFriendshipTo(her.getUserName());
+		sn.block(me.getUserName());
+
+		SocialGraph restored = restart();
+		assertEquals(3, restored.listAllMembers().size());
+		assertTrue(restored.find("Hakan").hasFriend("Cecile"));
+		assertTrue(restored.find("Cecile").hasFriend("Hakan"));
+		assertTrue(restored.find("Cecile").getIncomingRequests().contains("Harpreet"));
+		assertTrue(restored.find("Hakan").getBlockedBy().contains("Harpreet"));
+	}
+
+	@Test
+	public void leaveIsReplayed() throws Exception {
+		Account me = sn.join("Hakan");
+		sn.join("Cecile");
+		sn.login(me);
+		sn.leave();
+		SocialGraph restored = restart();
+		assertFalse(restored.listAllMembers().contains("Hakan"));
+		assertTrue(restored.listAllMembers().contains("Cecile"));
+	}
+
+	@Test
+	public void tornRecordAtTheEndIsIgnoredAndOverwritten() throws Exception {
+		sn.join("Hakan");
+		log.sync();
+		Files.write(file, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+		reopen(false);
+		sn.join("Cecile");
+		SocialGraph restored = restart();
+		assertEquals(2, restored.listAllMembers().size());
+	}
+
+	@Test
+	public void snapshotRecoveryReplaysOnlyTheRestOfTheLog() throws Exception {
+		Path snapshotFile = Files.createTempFile("social-network", ".snapshot");
+		try {
+			Account me = sn.join("Hakan");
+			sn.join("Cecile");
+			sn.login(me);
+			sn.sendFriendshipTo("Cecile");
+			sn.saveSnapshot(snapshotFile, log);
+			reopen(false);
+			sn.leave();
+			Account her = sn.join("Hakan");
+			sn.login(her);
+			sn.sendFriendshipTo("Cecile");
+
+			log.sync();
+			MappedGraph snapshot = MappedGraph.open(snapshotFile);
+			SocialGraph restored = new SocialGraph();
+			snapshot.restoreInto(restored);
+			assertEquals(3, WriteAheadLog.replay(file, snapshot.logPosition(), restored::apply));
+			assertEquals(2, restored.listAllMembers().size());
+			assertEquals(Collections.singleton("Hakan"), restored.find("Cecile").getIncomingRequests());
+			assertTrue(restored.find("Hakan").getOutgoingRequests().contains("Cecile"));
+		} finally {
+			Files.deleteIfExists(snapshotFile);
+		}
+	}
+
+	@Test
+	public void waitingForSyncMakesChangesDurable() throws Exception {
+		reopen(true);
+		sn.join("Hakan");
+		SocialGraph restored = new SocialGraph();
+		assertEquals(1, WriteAheadLog.replay(file, restored::apply));
+		assertTrue(restored.members().contains("Hakan"));
+	}
+
+	@Test(timeout = 10000)
+	public void interruptedWaitsStillEndWithTheChangesDurable() throws Exception {
+		// nothing would be synced for a minute unless someone waits for it
+		reopen(100000, 60000, true);
+		Thread.currentThread().interrupt();
+		sn.join("Hakan");
+		assertTrue(Thread.interrupted());
+		assertEquals(1, WriteAheadLog.replay(file, new SocialGraph()::apply));
+
+		reopen(100000, 60000, false);
+		sn.join("Cecile");
+		Thread.currentThread().interrupt();
+		log.sync();
+		assertTrue(Thread.interrupted());
+		assertEquals(2, WriteAheadLog.replay(file, new SocialGraph()::apply));
+	}
+
+	@Test(timeout = 10000)
+	public void changesAreWaitedForOnceTheNetworkHoldsNoLock() throws Exception {
+		reopen(true);
+		sn.removeMutationListener(log);
+		final ConcurrentSocialNetwork network = new ConcurrentSocialNetwork();
+		network.addMutationListener(log);
+		final Account me = network.join("Hakan");
+		network.join("Cecile");
+		// joining takes the write lock: it would never get it if the block
+		// below were still holding the read lock when settled
+		final AtomicBoolean joined = new AtomicBoolean(false);
+		network.addMutationListener(new GraphMutationListener() {
+			public void changed(GraphOperation operation, String actor, String target) {
+			}
+
+			public void settled() {
+				if (joined.compareAndSet(false, true))
+					assertNotNull(network.join("Harpreet"));
+			}
+		});
+		network.login(me).block("Cecile");
+		assertTrue(joined.get());
+		SocialGraph restored = new SocialGraph();
+		assertEquals(4, WriteAheadLog.replay(file, restored::apply));
+		assertTrue(restored.find("Cecile").getBlockedBy().contains("Hakan"));
+	}
+}